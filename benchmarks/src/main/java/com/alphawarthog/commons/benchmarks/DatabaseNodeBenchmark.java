@@ -0,0 +1,63 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+
+// node construction cost per row read, run with -prof gc to see bytes allocated per node
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseNodeBenchmark {
+
+	@Param({"0", "2"})
+	public int attributeCount;
+
+	private UUID uuid;
+	private UUID parentUuid;
+	private Map<String, String> attributes;
+
+	@Setup
+	public void setUp() {
+		uuid = UUID.randomUUID();
+		parentUuid = UUID.randomUUID();
+		attributes = new HashMap<>();
+		for (int i = 0; i < attributeCount; i++) {
+			attributes.put("attribute" + i, "value" + i);
+		}
+	}
+
+	@Benchmark
+	public DatabaseNode compactNode() {
+		return new DatabaseNode.Builder()
+		                       .uuid(uuid)
+		                       .parentUuid(parentUuid)
+		                       .key("server")
+		                       .value("localhost")
+		                       .attributes(attributes)
+		                       .build();
+	}
+
+	@Benchmark
+	public Object legacyNode() {
+		return new LegacyDatabaseNode(uuid, parentUuid, "server", "localhost", attributes);
+	}
+}
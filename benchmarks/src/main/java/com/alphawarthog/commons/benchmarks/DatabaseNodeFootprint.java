@@ -0,0 +1,94 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+
+// retained heap per node of DatabaseNode against the layout it had before compaction, measured with JOL:
+// java -cp target/benchmarks.jar com.alphawarthog.commons.benchmarks.DatabaseNodeFootprint [nodeCount]
+public class DatabaseNodeFootprint {
+
+	private static final String[] KEYS = {"server", "port", "host", "timeout", "tenant", "feature", "limit", "route"};
+	private static final String[] ATTRIBUTE_KEYS = {"name", "type", "enabled"};
+
+	private final int nodeCount;
+	private final UUID[] uuids;
+	private final Random random = new Random(42);
+
+	public DatabaseNodeFootprint(int nodeCount) {
+		this.nodeCount = nodeCount;
+		this.uuids = new UUID[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			uuids[i] = UUID.randomUUID();
+		}
+	}
+
+	// rows read from the database carry fresh string instances for keys, this mimics that
+	private String freshKey(String[] vocabulary) {
+		return new String(vocabulary[random.nextInt(vocabulary.length)].toCharArray());
+	}
+
+	private Map<String, String> randomAttributes() {
+		int attributeCount = random.nextInt(4) == 0 ? 1 + random.nextInt(ATTRIBUTE_KEYS.length) : 0;
+		if (attributeCount == 0) {
+			return Collections.emptyMap();
+		}
+
+		Map<String, String> attributes = new HashMap<>();
+		for (int i = 0; i < attributeCount; i++) {
+			attributes.put(new String(ATTRIBUTE_KEYS[i].toCharArray()), "value" + random.nextInt(100));
+		}
+
+		return attributes;
+	}
+
+	private Object[] build(int count, IntFunction<Object> factory) {
+		random.setSeed(42);
+		Object[] nodes = new Object[count];
+		for (int i = 0; i < count; i++) {
+			nodes[i] = factory.apply(i);
+		}
+
+		return nodes;
+	}
+
+	private Object compactNode(int i) {
+		return new DatabaseNode.Builder()
+		                       .uuid(uuids[i])
+		                       .parentUuid(i == 0 ? null : uuids[i / 8])
+		                       .key(freshKey(KEYS))
+		                       .value("value-" + i)
+		                       .attributes(randomAttributes())
+		                       .build();
+	}
+
+	private Object legacyNode(int i) {
+		return new LegacyDatabaseNode(uuids[i], i == 0 ? null : uuids[i / 8], freshKey(KEYS), "value-" + i, randomAttributes());
+	}
+
+	// shared objects such as loggers and interned keys cancel out between the two measurements
+	private double bytesPerNode(IntFunction<Object> factory) {
+		int half = nodeCount / 2;
+		long halfSize = GraphLayout.parseInstance(build(half, factory)).totalSize();
+		long fullSize = GraphLayout.parseInstance(build(nodeCount, factory)).totalSize();
+		return (double) (fullSize - halfSize) / (nodeCount - half);
+	}
+
+	public static void main(String[] args) {
+		int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		DatabaseNodeFootprint footprint = new DatabaseNodeFootprint(nodeCount);
+		double legacy = footprint.bytesPerNode(footprint::legacyNode);
+		double compact = footprint.bytesPerNode(footprint::compactNode);
+		System.out.printf("nodes measured:          %d%n", nodeCount);
+		System.out.printf("legacy bytes per node:   %.1f%n", legacy);
+		System.out.printf("compact bytes per node:  %.1f%n", compact);
+		System.out.printf("saved:                   %.1f%%%n", 100.0 * (legacy - compact) / legacy);
+	}
+}
@@ -0,0 +1,44 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import com.alphawarthog.commons.configuration.schema.ConfigurationSchema;
+import com.alphawarthog.dbutils.TransactionManager;
+
+// private in-memory H2 database with the configuration schema installed, nothing outside the JVM is needed
+public final class EmbeddedDatabase implements AutoCloseable {
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private final String url;
+	private final TransactionManager txManager;
+
+	public EmbeddedDatabase() {
+		this(null);
+	}
+
+	// connections from the data source dataSources makes for the database url, null for the default pool
+	public EmbeddedDatabase(Function<String, DataSource> dataSources) {
+		this.url = "jdbc:h2:mem:benchmark" + COUNTER.incrementAndGet() + ";DB_CLOSE_DELAY=-1;NON_KEYWORDS=KEY,VALUE";
+		this.txManager = dataSources == null ? new TransactionManager(url) : new TransactionManager(dataSources.apply(url));
+		new ConfigurationSchema(txManager).install();
+	}
+
+	public TransactionManager getTransactionManager() {
+		return txManager;
+	}
+
+	// drops the database, pooled connections to it fail from then on
+	@Override
+	public void close() throws SQLException {
+		try (Connection connection = DriverManager.getConnection(url)) {
+			connection.createStatement().execute("shutdown");
+		}
+	}
+}
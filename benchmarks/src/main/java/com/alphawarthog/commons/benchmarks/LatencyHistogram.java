@@ -0,0 +1,93 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.util.Arrays;
+
+// latencies in nanoseconds, bucketed by power of two with 32 linear sub-buckets each, so percentiles are within
+// about 3% of the recorded values; not thread safe, threads record into their own and the results are merged
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 32;
+	// values below this are counted exactly
+	private static final int EXACT = 2 * SUB_BUCKETS;
+
+	private final long[] counts = new long[EXACT + 58 * SUB_BUCKETS];
+	private long count;
+	private long sum;
+	private long max;
+
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts[index(value)]++;
+		count++;
+		sum += value;
+		max = Math.max(max, value);
+	}
+
+	// above EXACT, the six leading bits of the value pick the bucket within its power of two
+	private static int index(long value) {
+		if (value < EXACT) {
+			return (int) value;
+		}
+
+		int magnitude = 64 - Long.numberOfLeadingZeros(value) - 6;
+		return EXACT + (magnitude - 1) * SUB_BUCKETS + (int) (value >>> magnitude) - SUB_BUCKETS;
+	}
+
+	// largest value that falls into bucket index
+	private static long upperBound(int index) {
+		if (index < EXACT) {
+			return index;
+		}
+
+		int magnitude = (index - EXACT) / SUB_BUCKETS + 1;
+		long subBucket = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << magnitude) - 1;
+	}
+
+	public void merge(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	// quantile between 0 and 1, 0 when nothing was recorded
+	public long percentile(double quantile) {
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(quantile * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+
+		return max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+}
@@ -0,0 +1,65 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+// field layout of DatabaseNode before it was compacted, kept only as the baseline of DatabaseNodeFootprint
+final class LegacyDatabaseNode {
+
+	// stands in for the per-instance Logger field: the logger itself was shared, the reference slot was not,
+	// and JOL cannot walk the log4j object graph
+	private static final Object SHARED_LOGGER = new Object();
+
+	private final Object logger = SHARED_LOGGER;
+
+	private final String uuid;
+	private final String parentUuid;
+	private final String key;
+	private final String value;
+	private final SortedMap<String, String> attributes;
+	private final String asString;
+	private final int hashCode;
+
+	LegacyDatabaseNode(UUID uuid, UUID parentUuid, String key, String value, Map<String, String> attributes) {
+		this.uuid = uuid.toString();
+		this.parentUuid = parentUuid == null ? null : parentUuid.toString();
+		// lowerCase/trim build new strings, as the old constructor did
+		this.key = StringUtils.lowerCase(StringUtils.trimToNull(key));
+		this.value = value;
+
+		SortedMap<String, String> sortedMap = new TreeMap<>();
+		for (Entry<String, String> attributeEntry : attributes.entrySet()) {
+			sortedMap.put(StringUtils.lowerCase(StringUtils.trimToNull(attributeEntry.getKey())), StringUtils.trimToEmpty(attributeEntry.getValue()));
+		}
+
+		this.attributes = Collections.unmodifiableSortedMap(sortedMap);
+		this.asString = new ToStringBuilder(this).append("parentUuid", this.parentUuid)
+		                                         .append("key", this.key)
+		                                         .append("value", this.value)
+		                                         .append("attributes", this.attributes)
+		                                         .toString();
+		this.hashCode = this.uuid.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return asString;
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof LegacyDatabaseNode && uuid.equals(((LegacyDatabaseNode) obj).uuid);
+	}
+}
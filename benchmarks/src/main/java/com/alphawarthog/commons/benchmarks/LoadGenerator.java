@@ -0,0 +1,309 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.tree.StorageOptions;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/*
+ * Mixed read and write load on one shared configuration over an embedded database, for sizing connection pools
+ * and checking concurrency changes. Threads read with getString and write with setProperty, picking keys from a
+ * Zipfian distribution over every node of a generated tree; hot keys are spread over the tree rather than
+ * clustered in its first branch. Nothing is recorded during warmup.
+ *
+ * java -cp target/benchmarks.jar com.alphawarthog.commons.benchmarks.LoadGenerator threads=16 writeRatio=0.1 poolSize=4
+ *
+ * Settings, all optional: threads, seconds, warmupSeconds, writeRatio, zipfExponent, depth, fanout, attributeCount,
+ * poolSize, valueCache, keyIndex, versioned, seed
+ */
+public class LoadGenerator {
+
+	private static final String CONFIGURATION_NAME = "load";
+
+	private final int threads;
+	private final long seconds;
+	private final long warmupSeconds;
+	private final double writeRatio;
+	private final double zipfExponent;
+	private final int poolSize;
+	private final boolean valueCache;
+	private final boolean keyIndex;
+	private final boolean versioned;
+	private final long seed;
+	private final TreeGenerator generator;
+
+	private final List<Worker> workers = new CopyOnWriteArrayList<>();
+	private final List<LatencyHistogram> poolWaits = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<LatencyHistogram> poolWait = ThreadLocal.withInitial(() -> {
+		LatencyHistogram histogram = new LatencyHistogram();
+		poolWaits.add(histogram);
+		return histogram;
+	});
+	private volatile boolean recording;
+
+	public LoadGenerator(Properties settings) {
+		this.threads = Integer.parseInt(settings.getProperty("threads", "8"));
+		this.seconds = Long.parseLong(settings.getProperty("seconds", "30"));
+		this.warmupSeconds = Long.parseLong(settings.getProperty("warmupSeconds", "5"));
+		this.writeRatio = Double.parseDouble(settings.getProperty("writeRatio", "0.05"));
+		this.zipfExponent = Double.parseDouble(settings.getProperty("zipfExponent", "0.99"));
+		this.poolSize = Integer.parseInt(settings.getProperty("poolSize", "10"));
+		this.valueCache = Boolean.parseBoolean(settings.getProperty("valueCache", "true"));
+		this.keyIndex = Boolean.parseBoolean(settings.getProperty("keyIndex", "false"));
+		this.versioned = Boolean.parseBoolean(settings.getProperty("versioned", "false"));
+		this.seed = Long.parseLong(settings.getProperty("seed", "42"));
+		this.generator = new TreeGenerator.Builder()
+		                                  .depth(Integer.parseInt(settings.getProperty("depth", "4")))
+		                                  .fanout(Integer.parseInt(settings.getProperty("fanout", "8")))
+		                                  .attributeCount(Integer.parseInt(settings.getProperty("attributeCount", "2")))
+		                                  .build();
+		if (threads < 1 || seconds < 1 || warmupSeconds < 0 || poolSize < 1 || writeRatio < 0 || writeRatio > 1 || zipfExponent < 0) {
+			throw new IllegalArgumentException("Invalid load settings " + settings);
+		}
+	}
+
+	// cumulative probabilities of the ranks 1 .. n, rank r weighs 1 / r^exponent
+	static double[] zipfDistribution(int n, double exponent) {
+		double[] result = new double[n];
+		double total = 0;
+		for (int rank = 1; rank <= n; rank++) {
+			total += 1 / Math.pow(rank, exponent);
+			result[rank - 1] = total;
+		}
+
+		for (int i = 0; i < n; i++) {
+			result[i] /= total;
+		}
+
+		return result;
+	}
+
+	static int sample(double[] distribution, Random random) {
+		int index = Arrays.binarySearch(distribution, random.nextDouble());
+		return Math.min(index < 0 ? -index - 1 : index, distribution.length - 1);
+	}
+
+	private final class Worker implements Runnable {
+		private final DatabaseHierarchicalConfiguration configuration;
+		private final List<String> keys;
+		private final double[] distribution;
+		private final Random random;
+		private final CountDownLatch done;
+		private final long end;
+		private final LatencyHistogram reads = new LatencyHistogram();
+		private final LatencyHistogram writes = new LatencyHistogram();
+		private final Map<String, Long> errors = new TreeMap<>();
+		private long writeCounter;
+
+		private Worker(DatabaseHierarchicalConfiguration configuration, List<String> keys, double[] distribution, long workerSeed, CountDownLatch done, long end) {
+			this.configuration = configuration;
+			this.keys = keys;
+			this.distribution = distribution;
+			this.random = new Random(workerSeed);
+			this.done = done;
+			this.end = end;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (System.nanoTime() < end) {
+					String key = keys.get(sample(distribution, random));
+					boolean write = random.nextDouble() < writeRatio;
+					long start = System.nanoTime();
+					try {
+						if (write) {
+							configuration.setProperty(key, "load" + writeCounter++);
+						} else {
+							configuration.getString(key);
+						}
+					} catch (RuntimeException e) {
+						if (recording) {
+							errors.merge((write ? "write " : "read ") + e.getClass().getSimpleName(), 1L, Long::sum);
+						}
+
+						continue;
+					}
+
+					if (recording) {
+						(write ? writes : reads).record(System.nanoTime() - start);
+					}
+				}
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+
+	// times how long a transaction waits for a pooled connection
+	private final class TimedDataSource implements DataSource {
+		private final DataSource delegate;
+
+		private TimedDataSource(DataSource delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			long start = System.nanoTime();
+			Connection result = delegate.getConnection();
+			if (recording) {
+				poolWait.get().record(System.nanoTime() - start);
+			}
+
+			return result;
+		}
+
+		@Override
+		public Connection getConnection(String username, String password) throws SQLException {
+			return delegate.getConnection(username, password);
+		}
+
+		@Override
+		public PrintWriter getLogWriter() throws SQLException {
+			return delegate.getLogWriter();
+		}
+
+		@Override
+		public void setLogWriter(PrintWriter out) throws SQLException {
+			delegate.setLogWriter(out);
+		}
+
+		@Override
+		public void setLoginTimeout(int timeout) throws SQLException {
+			delegate.setLoginTimeout(timeout);
+		}
+
+		@Override
+		public int getLoginTimeout() throws SQLException {
+			return delegate.getLoginTimeout();
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			return delegate.getParentLogger();
+		}
+
+		@Override
+		public <T> T unwrap(Class<T> iface) throws SQLException {
+			return delegate.unwrap(iface);
+		}
+
+		@Override
+		public boolean isWrapperFor(Class<?> iface) throws SQLException {
+			return delegate.isWrapperFor(iface);
+		}
+	}
+
+	private DataSource pool(String url) {
+		ComboPooledDataSource pool = new ComboPooledDataSource();
+		pool.setJdbcUrl(url);
+		pool.setMinPoolSize(poolSize);
+		pool.setInitialPoolSize(poolSize);
+		pool.setMaxPoolSize(poolSize);
+		pool.setMaxStatements(100);
+		return new TimedDataSource(pool);
+	}
+
+	public void run() throws Exception {
+		try (EmbeddedDatabase database = new EmbeddedDatabase(this::pool)) {
+			StorageOptions options = new StorageOptions.Builder().versioned(versioned).build();
+			DatabaseHierarchicalConfiguration configuration = new DatabaseHierarchicalConfiguration(database.getTransactionManager(), CONFIGURATION_NAME,
+			                                                                                       generator.toXmlConfiguration(), true, options);
+			configuration.setValueCacheEnabled(valueCache);
+			configuration.setKeyIndexEnabled(keyIndex);
+
+			List<String> keys = new ArrayList<>(generator.getKeys());
+			Collections.shuffle(keys, new Random(seed));
+			double[] distribution = zipfDistribution(keys.size(), zipfExponent);
+
+			System.out.printf("tree: depth %d, fanout %d, %d attributes, %d nodes%n", generator.getDepth(), generator.getFanout(),
+			                  generator.getAttributeCount(), generator.getNodeCount());
+			System.out.printf("load: %d threads, %.1f%% writes, zipf exponent %.2f, pool of %d, value cache %s, key index %s, versioned %s%n",
+			                  threads, 100 * writeRatio, zipfExponent, poolSize, valueCache, keyIndex, versioned);
+
+			long start = System.nanoTime();
+			long recordFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+			long end = recordFrom + TimeUnit.SECONDS.toNanos(seconds);
+			CountDownLatch done = new CountDownLatch(threads);
+			for (int i = 0; i < threads; i++) {
+				Worker worker = new Worker(configuration, keys, distribution, seed + i, done, end);
+				workers.add(worker);
+				Thread thread = new Thread(worker, "load-" + i);
+				thread.setDaemon(true);
+				thread.start();
+			}
+
+			TimeUnit.NANOSECONDS.sleep(recordFrom - System.nanoTime());
+			recording = true;
+			long recordStart = System.nanoTime();
+			done.await();
+			recording = false;
+			report((System.nanoTime() - recordStart) / 1e9);
+		}
+	}
+
+	private void report(double elapsedSeconds) {
+		LatencyHistogram reads = new LatencyHistogram();
+		LatencyHistogram writes = new LatencyHistogram();
+		Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+		for (Worker worker : workers) {
+			reads.merge(worker.reads);
+			writes.merge(worker.writes);
+			worker.errors.forEach((error, count) -> errors.computeIfAbsent(error, e -> new LongAdder()).add(count));
+		}
+
+		LatencyHistogram waits = new LatencyHistogram();
+		poolWaits.forEach(waits::merge);
+
+		long readErrors = errors.entrySet().stream().filter(e -> e.getKey().startsWith("read ")).mapToLong(e -> e.getValue().sum()).sum();
+		long writeErrors = errors.entrySet().stream().filter(e -> e.getKey().startsWith("write ")).mapToLong(e -> e.getValue().sum()).sum();
+		System.out.printf("measured %.1f s, %.0f ops/s%n", elapsedSeconds, (reads.getCount() + writes.getCount()) / elapsedSeconds);
+		System.out.printf("%-10s %10s %10s %8s %10s %10s %10s %10s %10s%n", "", "ops", "ops/s", "errors", "mean us", "p50 us", "p99 us", "p999 us", "max us");
+		print("read", reads, readErrors, elapsedSeconds);
+		print("write", writes, writeErrors, elapsedSeconds);
+		print("pool wait", waits, 0, elapsedSeconds);
+		new TreeMap<>(errors).forEach((error, count) -> System.out.printf("error %s: %d%n", error, count.sum()));
+	}
+
+	private static void print(String name, LatencyHistogram histogram, long errors, double elapsedSeconds) {
+		long attempts = histogram.getCount() + errors;
+		System.out.printf("%-10s %10d %10.0f %7.2f%% %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, histogram.getCount(), histogram.getCount() / elapsedSeconds,
+		                  attempts == 0 ? 0 : 100.0 * errors / attempts, histogram.getMean() / 1000, histogram.percentile(0.5) / 1000.0,
+		                  histogram.percentile(0.99) / 1000.0, histogram.percentile(0.999) / 1000.0, histogram.getMax() / 1000.0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Properties settings = new Properties();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator < 1) {
+				throw new IllegalArgumentException("Settings are name=value, not " + arg);
+			}
+
+			settings.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+
+		new LoadGenerator(settings).run();
+	}
+}
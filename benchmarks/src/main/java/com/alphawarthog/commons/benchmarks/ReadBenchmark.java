@@ -0,0 +1,98 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+
+// reads through one configuration instance; cached measures the steady state, uncached every read going to the database
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark {
+
+	private static final String CONFIGURATION_NAME = "read";
+
+	@Param({"4"})
+	public int depth;
+
+	@Param({"8"})
+	public int fanout;
+
+	@Param({"2"})
+	public int attributeCount;
+
+	@Param({"1", "4"})
+	public int keyDepth;
+
+	@Param({"true", "false"})
+	public boolean cached;
+
+	private EmbeddedDatabase database;
+	private DatabaseHierarchicalConfiguration configuration;
+	private String key;
+	private String parentKey;
+
+	@Setup
+	public void setUp() {
+		database = new EmbeddedDatabase();
+		TreeGenerator generator = new TreeGenerator.Builder().depth(depth).fanout(fanout).attributeCount(attributeCount).build();
+		configuration = new DatabaseHierarchicalConfiguration(database.getTransactionManager(), CONFIGURATION_NAME, generator.toXmlConfiguration());
+		configuration.setValueCacheEnabled(cached);
+		configuration.setKeyIndexEnabled(cached);
+		key = generator.keyAtDepth(keyDepth);
+		parentKey = keyDepth == 1 ? "" : generator.keyAtDepth(keyDepth - 1);
+		if (!generator.valueAtDepth(keyDepth).equals(configuration.getString(key))) {
+			throw new IllegalStateException("Generated tree does not hold " + key);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		database.close();
+	}
+
+	@Benchmark
+	public Object getProperty() {
+		return configuration.getProperty(key);
+	}
+
+	@Benchmark
+	public String getString() {
+		return configuration.getString(key);
+	}
+
+	// children of the node above key, one sub-configuration per sibling
+	@Benchmark
+	public List<HierarchicalConfiguration<DatabaseNode>> childConfigurationsAt() {
+		return configuration.childConfigurationsAt(parentKey);
+	}
+
+	@Benchmark
+	public void getKeys(Blackhole blackhole) {
+		for (Iterator<String> keys = configuration.getKeys(); keys.hasNext();) {
+			blackhole.consume(keys.next());
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+
+// synthetic configuration trees: every node below the root has fanout children named n0 .. n<fanout - 1> down to
+// depth levels, a value and attributeCount attributes a0 .. a<attributeCount - 1>. The same settings always give
+// the same tree, so keys and node counts can be computed up front
+public final class TreeGenerator {
+
+	public static final String ROOT_NAME = "config";
+
+	public static class Builder {
+		private int depth = 4;
+		private int fanout = 8;
+		private int attributeCount = 2;
+
+		public Builder depth(int depth) {
+			this.depth = depth;
+			return this;
+		}
+
+		public Builder fanout(int fanout) {
+			this.fanout = fanout;
+			return this;
+		}
+
+		public Builder attributeCount(int attributeCount) {
+			this.attributeCount = attributeCount;
+			return this;
+		}
+
+		public TreeGenerator build() {
+			return new TreeGenerator(this);
+		}
+	}
+
+	private final int depth;
+	private final int fanout;
+	private final int attributeCount;
+
+	private TreeGenerator(Builder builder) {
+		if (builder.depth < 1 || builder.fanout < 1 || builder.attributeCount < 0) {
+			throw new IllegalArgumentException("Depth and fanout must be positive, attribute count cannot be negative");
+		}
+
+		this.depth = builder.depth;
+		this.fanout = builder.fanout;
+		this.attributeCount = builder.attributeCount;
+	}
+
+	public ImmutableNode generate() {
+		return generate(ROOT_NAME, "", 0);
+	}
+
+	private ImmutableNode generate(String name, String path, int level) {
+		ImmutableNode.Builder builder = new ImmutableNode.Builder().name(name);
+		if (level > 0) {
+			builder.value("value" + path);
+			for (int i = 0; i < attributeCount; i++) {
+				builder.addAttribute("a" + i, "attribute" + i + path);
+			}
+		}
+
+		if (level < depth) {
+			for (int i = 0; i < fanout; i++) {
+				builder.addChild(generate("n" + i, path + "-" + i, level + 1));
+			}
+		}
+
+		return builder.create();
+	}
+
+	// what DatabaseNodeModel imports through createTree
+	public XMLConfiguration toXmlConfiguration() {
+		XMLConfiguration result = new XMLConfiguration();
+		result.getNodeModel().setRootNode(generate());
+		return result;
+	}
+
+	// keys of every node below the root, parents before their children
+	public List<String> getKeys() {
+		List<String> result = new ArrayList<>(getNodeCount());
+		addKeys("", 0, result);
+		return result;
+	}
+
+	private void addKeys(String parentKey, int level, List<String> result) {
+		if (level == depth) {
+			return;
+		}
+
+		for (int i = 0; i < fanout; i++) {
+			String key = parentKey.isEmpty() ? "n" + i : parentKey + ".n" + i;
+			result.add(key);
+			addKeys(key, level + 1, result);
+		}
+	}
+
+	// key of the last child at each level down to keyDepth, the node every lookup has to scan the most siblings for
+	public String keyAtDepth(int keyDepth) {
+		if (keyDepth < 1 || keyDepth > depth) {
+			throw new IllegalArgumentException("Key depth must be between 1 and " + depth);
+		}
+
+		return String.join(".", Collections.nCopies(keyDepth, "n" + (fanout - 1)));
+	}
+
+	public String valueAtDepth(int keyDepth) {
+		return "value" + String.join("", Collections.nCopies(keyDepth, "-" + (fanout - 1)));
+	}
+
+	// without the root
+	public int getNodeCount() {
+		int result = 0;
+		int levelCount = 1;
+		for (int level = 1; level <= depth; level++) {
+			levelCount *= fanout;
+			result += levelCount;
+		}
+
+		return result;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getFanout() {
+		return fanout;
+	}
+
+	public int getAttributeCount() {
+		return attributeCount;
+	}
+}
@@ -0,0 +1,70 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.tree.ImmutableNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.tree.DatabaseNodeModel;
+import com.alphawarthog.commons.configuration.tree.StorageOptions;
+
+// opening a stored configuration and reading its whole tree, as a cold start does
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeLoadBenchmark {
+
+	private static final String CONFIGURATION_NAME = "load";
+
+	@Param({"4"})
+	public int depth;
+
+	@Param({"8"})
+	public int fanout;
+
+	@Param({"2"})
+	public int attributeCount;
+
+	@Param({"1", "4"})
+	public int materializationParallelism;
+
+	private EmbeddedDatabase database;
+	private StorageOptions options;
+
+	@Setup
+	public void setUp() {
+		database = new EmbeddedDatabase();
+		TreeGenerator generator = new TreeGenerator.Builder().depth(depth).fanout(fanout).attributeCount(attributeCount).build();
+		new DatabaseHierarchicalConfiguration(database.getTransactionManager(), CONFIGURATION_NAME, generator.toXmlConfiguration());
+		options = new StorageOptions.Builder().materializationParallelism(materializationParallelism).build();
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException {
+		database.close();
+	}
+
+	@Benchmark
+	public ImmutableNode loadTree() {
+		return DatabaseNodeModel.load(database.getTransactionManager(), Collections.singleton(CONFIGURATION_NAME), options, null)
+		                        .get(CONFIGURATION_NAME)
+		                        .getInMemoryRepresentation();
+	}
+}
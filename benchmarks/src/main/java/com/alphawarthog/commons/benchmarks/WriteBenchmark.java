@@ -0,0 +1,110 @@
+package com.alphawarthog.commons.benchmarks;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.tree.DatabaseNodeModel;
+
+/*
+ * Whole tree writes. Every iteration starts from a fresh database. importXml stores a new configuration per
+ * invocation in a database of its own; clearTree takes the first subtree below the root, which the diff import
+ * restores before the next invocation outside of the measured time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+
+	private static final String CONFIGURATION_NAME = "write";
+
+	@State(Scope.Benchmark)
+	public static class Source {
+
+		@Param({"4"})
+		public int depth;
+
+		@Param({"8"})
+		public int fanout;
+
+		@Param({"2"})
+		public int attributeCount;
+
+		private XMLConfiguration source;
+		private ImmutableNode sourceTree;
+
+		@Setup
+		public void generate() {
+			source = new TreeGenerator.Builder().depth(depth).fanout(fanout).attributeCount(attributeCount).build().toXmlConfiguration();
+			sourceTree = source.getNodeModel().getRootNode();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Imports {
+
+		private EmbeddedDatabase database;
+		private int imports;
+
+		@Setup(Level.Iteration)
+		public void setUp() {
+			database = new EmbeddedDatabase();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws SQLException {
+			database.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class StoredTree {
+
+		private EmbeddedDatabase database;
+		private DatabaseHierarchicalConfiguration configuration;
+
+		@Setup(Level.Iteration)
+		public void setUp(Source source) {
+			database = new EmbeddedDatabase();
+			configuration = new DatabaseHierarchicalConfiguration(database.getTransactionManager(), CONFIGURATION_NAME, source.source, true);
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws SQLException {
+			database.close();
+		}
+
+		@Setup(Level.Invocation)
+		public void restore(Source source) {
+			configuration.importTree(source.sourceTree);
+		}
+	}
+
+	@Benchmark
+	public DatabaseNodeModel importXml(Source source, Imports imports) {
+		return new DatabaseNodeModel(imports.database.getTransactionManager(), "import" + imports.imports++, source.source);
+	}
+
+	@Benchmark
+	public void clearTree(StoredTree tree) {
+		tree.configuration.clearTree("n0");
+	}
+}
@@ -3,27 +3,34 @@ package com.alphawarthog.commons.configuration.client;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.Reader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.configuration2.ConfigurationDecoder;
 import org.apache.commons.configuration2.HierarchicalConfiguration;
 import org.apache.commons.configuration2.XMLConfiguration;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.io.FileHandler;
 import org.apache.commons.configuration2.tree.ImmutableNode;
 import org.apache.commons.configuration2.tree.xpath.XPathExpressionEngine;
 import org.apache.commons.lang3.StringUtils;
@@ -31,7 +38,13 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.metrics.OperationStatistics;
+import com.alphawarthog.commons.configuration.schema.ConfigurationSchema;
+import com.alphawarthog.commons.configuration.tree.ChildPage;
 import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+import com.alphawarthog.commons.configuration.tree.ImportReport;
+import com.alphawarthog.commons.configuration.tree.StorageOptions;
+import com.alphawarthog.commons.configuration.tree.UuidStorage;
 import com.alphawarthog.dbutils.TransactionManager;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -49,19 +62,64 @@ public class DatabaseHierarchicalConfigurationClient {
 	private static final String PASSWORD = "password";
 	private static final String READONLY = "readonly";
 	private static final String USE_XPATH_EXPR = "useXPathExpression";
+	private static final String VERIFY_SCHEMA = "verifySchema";
+	private static final String UUID_STORAGE = "uuidStorage";
+	private static final String VERSIONED = "versioned";
+	private static final String TRACK_REVISIONS = "trackRevisions";
+	private static final String LAZY_LOAD_THRESHOLD = "lazyLoadThreshold";
+	private static final String MATERIALIZATION_PARALLELISM = "materializationParallelism";
+	private static final String KEY_INDEX = "keyIndex";
+	private static final String SCRIPT_TRANSACTION = "scriptTransaction";
+	private static final String TIMING = "timing";
+	private static final String REPL = "repl";
+	private static final String SCRIPT = "script";
+	private static final String STDIN = "-";
+	private static final String INSTALL_SCHEMA = "installschema";
+	// commands writing to the configuration, the ones a script transaction groups
+	private static final Set<String> MUTATING_COMMANDS = new HashSet<>(Arrays.asList("addnode", "addnodes", "addproperty", "clear", "clearproperty",
+	                                                                                 "cleartree", "compareandset", "import", "setproperty"));
+	// schema changes and loads of other configurations, never run inside a script transaction
+	private static final Set<String> STANDALONE_COMMANDS = new HashSet<>(Arrays.asList("installschema", "load"));
+	private static final Duration REPL_REVISION_CHECK_INTERVAL = Duration.ofSeconds(1);
 	
 	protected final Logger logger = LogManager.getLogger(getClass());
 	
 	private final DatabaseHierarchicalConfiguration config;
 	private final boolean supportUpdates;
 	private final TransactionManager txManager;
+	private final StorageOptions storageOptions;
 	private final ObjectMapper mapper;
+	private final boolean scriptTransaction;
+	private final OperationStatistics statistics;
 	
 	public DatabaseHierarchicalConfigurationClient(Properties props) {
-		String url = getInitPropertyKey(props, URL);
-		String username = getInitPropertyKey(props, USERNAME);
-		String password = getInitPropertyKey(props, PASSWORD);
-		txManager = StringUtils.isBlank(username) ? new TransactionManager(url) : new TransactionManager(url, username, password);
+		txManager = createTransactionManager(props);
+		
+		// statement and row counts of timed commands come from the statistics, enabled before anything is read
+		boolean timing = Boolean.parseBoolean(getInitPropertyKey(props, TIMING, Boolean.FALSE.toString()));
+		this.statistics = timing ? OperationStatistics.enable(txManager) : null;
+		
+		UuidStorage uuidStorage = getUuidStorage(props);
+		boolean versioned = Boolean.parseBoolean(getInitPropertyKey(props, VERSIONED, Boolean.FALSE.toString()));
+		// on by default once the schema has revisions, reloading detectors and revision checks depend on every writer
+		String trackRevisionsProperty = getInitPropertyKey(props, TRACK_REVISIONS);
+		boolean trackRevisions = trackRevisionsProperty == null ? new ConfigurationSchema(txManager, uuidStorage).getInstalledVersion() >= ConfigurationSchema.REVISION_VERSION
+		                                                        : Boolean.parseBoolean(trackRevisionsProperty);
+		int lazyLoadThreshold = Integer.parseInt(getInitPropertyKey(props, LAZY_LOAD_THRESHOLD, "0"));
+		int materializationParallelism = Integer.parseInt(getInitPropertyKey(props, MATERIALIZATION_PARALLELISM, "1"));
+		this.storageOptions = new StorageOptions.Builder()
+				                                .uuidStorage(uuidStorage)
+				                                .versioned(versioned)
+				                                .trackRevisions(trackRevisions)
+				                                .lazyLoadThreshold(lazyLoadThreshold)
+				                                .materializationParallelism(materializationParallelism)
+				                                .build();
+		
+		boolean verifySchema = Boolean.parseBoolean(getInitPropertyKey(props, VERIFY_SCHEMA, Boolean.TRUE.toString()));
+		if (verifySchema) {
+			// missing indexes are only reported, installing them is left to the installschema command
+			new ConfigurationSchema(txManager, uuidStorage).verify();
+		}
 		
 		String rootNodeName = getInitPropertyKey(props, ROOT_NODE_NAME);
 		boolean readonly = Boolean.parseBoolean(getInitPropertyKey(props, READONLY, Boolean.FALSE.toString()));
@@ -70,14 +128,33 @@ public class DatabaseHierarchicalConfigurationClient {
 				                                .build();
 		this.supportUpdates = !readonly;
 		String name = getInitPropertyKey(props, CONFIGURATION_NAME);
-		this.config = new DatabaseHierarchicalConfiguration(txManager, name, rootNode, supportUpdates);
+		this.config = new DatabaseHierarchicalConfiguration(txManager, name, rootNode, supportUpdates, storageOptions);
 		
 		boolean useXPath = Boolean.parseBoolean(getInitPropertyKey(props, USE_XPATH_EXPR, Boolean.TRUE.toString()));
 		if (useXPath) {
 			this.config.setExpressionEngine(new XPathExpressionEngine());
 		}
 		
+		// off by default: it reads the whole tree, worth it for sessions listing keys over and over between writes
+		this.config.setKeyIndexEnabled(Boolean.parseBoolean(getInitPropertyKey(props, KEY_INDEX, Boolean.FALSE.toString())));
+		
 		this.mapper = new ObjectMapper();
+		this.scriptTransaction = Boolean.parseBoolean(getInitPropertyKey(props, SCRIPT_TRANSACTION, Boolean.FALSE.toString()));
+	}
+	
+	private static TransactionManager createTransactionManager(Properties props) {
+		String url = getClientProperty(props, URL);
+		String username = getClientProperty(props, USERNAME);
+		String password = getClientProperty(props, PASSWORD);
+		return StringUtils.isBlank(username) ? new TransactionManager(url) : new TransactionManager(url, username, password);
+	}
+	
+	private static UuidStorage getUuidStorage(Properties props) {
+		return UuidStorage.valueOf(StringUtils.upperCase(StringUtils.defaultString(getClientProperty(props, UUID_STORAGE), UuidStorage.STRING.name())));
+	}
+	
+	private static String getClientProperty(Properties props, String suffix) {
+		return props.getProperty(DatabaseHierarchicalConfigurationClient.class.getSimpleName() + "." + suffix);
 	}
 	
 	private String getInitPropertyKey(Properties props, String suffix) {
@@ -111,6 +188,11 @@ public class DatabaseHierarchicalConfigurationClient {
 				     .collect(Collectors.toMap(Function.identity(), this::getNodeKey, MERGE_EXCEPTION, LinkedHashMap::new));
 	}
 	
+	// node keys are left out, computing them needs every sibling
+	public ChildPage getChildrenNodes(String key, String continuationToken, int pageSize) {
+		return config.getChildPage(key, continuationToken, pageSize);
+	}
+	
 	public String clearTree(String key) {
 		String toClear = config.childConfigurationsAt(key, supportUpdates).toString();
 		config.clearTree(key);
@@ -316,6 +398,18 @@ public class DatabaseHierarchicalConfigurationClient {
 		return config.getProperty(key);
 	}
 	
+	public boolean compareAndSetProperty(String key, Object expectedValue, Object newValue) {
+		return config.compareAndSetProperty(key, expectedValue, newValue);
+	}
+	
+	public ImportReport importTree(ImmutableNode source) {
+		return config.importTree(source);
+	}
+	
+	public Map<String, Object> getAll(Collection<String> keys) {
+		return config.getAll(keys);
+	}
+	
 	public short getShort(String key) {
 		return config.getShort(key);
 	}
@@ -357,7 +451,9 @@ public class DatabaseHierarchicalConfigurationClient {
 		case "clear": return clearAndReturnString();
 		case "clearproperty": return clearProperty(params);
 		case "cleartree": return clearTree(params);
+		case "compareandset": return compareAndSetProperty(params);
 		case "containskey": return containsKey(params);
+		case "getall": return getAll(params);
 		case "getarray": // return list
 		case "getlist":	return getList(params);
 		case "getchildrennodes": return getChildrenNodes(params);
@@ -368,9 +464,13 @@ public class DatabaseHierarchicalConfigurationClient {
 		case "getproperty": return getProperty(params);
 		case "getstring": return getString(params);
 		case "getstringarray": return getStringArray(params);	
+		case "import": return importFromFile(params);
+		case "installschema": return installSchema();
 		case "isempty": return Boolean.toString(isEmpty());
+		case "refresh": return refresh();
 		case "setproperty": return setProperty(params);
 		case "size": return Integer.toString(size());
+		case "writesnapshot": return writeSnapshot(params);
 		default: throw new ConfigurationRuntimeException("Command " + command + " is not supported");             
 		}
 	}
@@ -443,6 +543,11 @@ public class DatabaseHierarchicalConfigurationClient {
 		return nullOrString(getProperty(params[0]));
 	}
 
+	private String getAll(String[] params) {
+		checkParamsLength(params, 1, "At least one property key must be supplied");
+		return getAll(Arrays.asList(params)).toString();
+	}
+
 	private String getProperties(String[] params) {
 		checkParamsLength(params, 1, MISSING_PROPERTY_KEY);
 		return getProperties(params[0]).toString();
@@ -463,9 +568,29 @@ public class DatabaseHierarchicalConfigurationClient {
 		return result.toString();
 	}
 
+	// with a page size, one page is returned together with the token that continues after it
 	private String getChildrenNodes(String[] params) {
 		checkParamsLength(params, 1, "Parent node key must be supplied");
-		return getChildrenNodes(params[0]).toString();
+		if (params.length == 1) {
+			return getChildrenNodes(params[0]).toString();
+		}
+		
+		ChildPage page = getChildrenNodes(params[0], params.length > 2 ? params[2] : null, parsePageSize(params[1]));
+		return page.getNodes() + System.lineSeparator() + (page.hasMore() ? "next: " + page.getContinuationToken() : "last page");
+	}
+	
+	private int parsePageSize(String pageSize) {
+		try {
+			int result = Integer.parseInt(StringUtils.trim(pageSize));
+			if (result > 0) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// reported below together with non-positive sizes
+		}
+		
+		throw new ConfigurationRuntimeException("Page size must be a positive number, got " + pageSize +
+		                                        ". Usage: getchildrennodes <parent key> [<page size> [<continuation token>]]");
 	}
 
 	private String getList(String[] params) {
@@ -476,6 +601,11 @@ public class DatabaseHierarchicalConfigurationClient {
 				                 .toString();
 	}
 
+	private String compareAndSetProperty(String[] params) {
+		checkParamsLength(params, 3, "Property key, expected value and new value must be supplied");
+		return params[0] + (compareAndSetProperty(params[0], params[1], params[2]) ? " set" : " not set, value differs from expected");
+	}
+
 	private String containsKey(String[] params) {
 		checkParamsLength(params, 1, MISSING_PROPERTY_KEY);
 		return Boolean.toString(this.containsKey(params[0]));
@@ -500,6 +630,26 @@ public class DatabaseHierarchicalConfigurationClient {
 		return nullOrString(addProperty(params[0], params[1])) + " added to " + params[0];
 	}
 	
+	private String writeSnapshot(String[] params) {
+		checkParamsLength(params, 1, "Snapshot file must be supplied");
+		File snapshotFile = new File(params[0]);
+		config.writeSnapshot(snapshotFile.toPath());
+		return "Snapshot written to " + snapshotFile.getPath();
+	}
+
+	private String refresh() {
+		config.refresh();
+		return "Configuration refreshed";
+	}
+
+	private String installSchema() {
+		return installSchema(txManager, storageOptions.getUuidStorage());
+	}
+	
+	private static String installSchema(TransactionManager txManager, UuidStorage uuidStorage) {
+		return "Configuration schema version " + new ConfigurationSchema(txManager, uuidStorage).install() + " installed";
+	}
+	
 	private String nullOrString(Object o) {
 		return o == null ? NULL_STRING : o.toString(); 
 	}
@@ -507,27 +657,228 @@ public class DatabaseHierarchicalConfigurationClient {
 	private String loadConfigurationFromFile(String[] params) {
 		checkParamsLength(params, 2, "New configuration name and source configuration XML file must be supplied");
 		File sourceFile = new File(params[1]);
+		XMLConfiguration sourceConfig = readXml(sourceFile);
+		String configurationName = StringUtils.lowerCase(params[0]);
+		new DatabaseHierarchicalConfiguration(this.txManager, configurationName, sourceConfig, supportUpdates, storageOptions);
+		return "Configuration " + configurationName + " loaded from " + sourceFile.getPath();
+	}
+
+	private String importFromFile(String[] params) {
+		checkParamsLength(params, 1, "Source configuration XML file must be supplied");
+		File sourceFile = new File(params[0]);
+		ImportReport report = importTree(readXml(sourceFile).getNodeModel().getNodeHandler().getRootNode());
+		return Stream.concat(Stream.of("Configuration imported from " + sourceFile.getPath() + ": " + report),
+		                     report.getChanges().stream().map(ImportReport.Change::toString))
+		             .collect(Collectors.joining(System.lineSeparator()));
+	}
+	
+	private XMLConfiguration readXml(File sourceFile) {
 		XMLConfiguration sourceConfig = new XMLConfiguration();
+		// XMLConfiguration only reads through a FileHandler, which initializes its locator
 		try {
-			sourceConfig.read(new FileReader(sourceFile));
-		} catch (IOException | ConfigurationException e) {
+			new FileHandler(sourceConfig).load(sourceFile);
+		} catch (ConfigurationException e) {
 			String msg = "Unable to load XML configuration from " + sourceFile.getPath() + ": " + e.getMessage();
 			logger.error(msg, e);
 			throw new ConfigurationRuntimeException(msg, e);
 		}
 		
-		String configurationName = StringUtils.lowerCase(params[0]);
-		new DatabaseHierarchicalConfiguration(this.txManager, configurationName, sourceConfig, supportUpdates);
-		return "Configuration " + configurationName + " loaded from " + sourceFile.getPath();
+		return sourceConfig;
 	}
 
+	// words separated by blanks, double quotes keep blanks and a doubled quote inside them stands for one quote
+	static List<String> parseCommandLine(String line) {
+		List<String> result = new ArrayList<>();
+		StringBuilder word = null;
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					word.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					word.append(c);
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				word = word == null ? new StringBuilder() : word;
+				quoted = true;
+			} else if (Character.isWhitespace(c)) {
+				if (word != null) {
+					result.add(word.toString());
+					word = null;
+				}
+			} else {
+				word = word == null ? new StringBuilder() : word;
+				word.append(c);
+			}
+		}
+		
+		if (quoted) {
+			throw new ConfigurationRuntimeException("Unterminated quote in " + line);
+		}
+		
+		if (word != null) {
+			result.add(word.toString());
+		}
+		
+		return result;
+	}
+	
+	private static boolean isComment(String line) {
+		String trimmed = line.trim();
+		return trimmed.isEmpty() || trimmed.startsWith("#");
+	}
+	
+	private void executeLine(String line) {
+		List<String> words = parseCommandLine(line);
+		long statements = statistics == null ? 0 : statistics.getStatements();
+		long rows = statistics == null ? 0 : statistics.getRows();
+		long start = System.nanoTime();
+		String output = executeCommand(words.get(0), words.subList(1, words.size()).toArray(new String[0]));
+		long elapsedNanos = System.nanoTime() - start;
+		CONSOLE_LOGGER.info(output);
+		if (statistics != null) {
+			CONSOLE_LOGGER.info(String.format("%s took %.1f ms, %d statements, %d rows", words.get(0), elapsedNanos / 1e6,
+			                                  statistics.getStatements() - statements, statistics.getRows() - rows));
+		}
+	}
+	
+	// a failed command is reported and the session goes on, exit or quit ends it; with revisions tracked, changes
+	// made by other processes show up within a second, refresh picks them up right away
+	public void repl(Reader input) throws IOException {
+		if (storageOptions.isTrackRevisions()) {
+			config.setRevisionCheckInterval(REPL_REVISION_CHECK_INTERVAL);
+		}
+		
+		boolean console = System.console() != null;
+		LineNumberReader reader = new LineNumberReader(input);
+		while (true) {
+			if (console) {
+				System.out.print("> ");
+				System.out.flush();
+			}
+			
+			String line = reader.readLine();
+			if (line == null || StringUtils.equalsAnyIgnoreCase(line.trim(), "exit", "quit")) {
+				return;
+			}
+			
+			if (isComment(line)) {
+				continue;
+			}
+			
+			try {
+				executeLine(line);
+			} catch (RuntimeException e) {
+				CONSOLE_LOGGER.error(e.getMessage());
+				logger.debug("Command {} failed", line, e);
+			}
+		}
+	}
+	
+	// one command per line, stops at the first failure; with scriptTransaction the writes between load and
+	// installschema commands go into one transaction together with the reads among them, nothing of it is kept when
+	// a command fails; parts without writes and the load and installschema commands themselves run without one
+	public int runScript(Reader input) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (LineNumberReader reader = new LineNumberReader(input)) {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		
+		int commandCount = 0;
+		long start = System.nanoTime();
+		List<Integer> part = new ArrayList<>();
+		boolean partWrites = false;
+		for (int i = 0; i < lines.size(); i++) {
+			if (isComment(lines.get(i))) {
+				continue;
+			}
+			
+			commandCount++;
+			String command = scriptCommand(lines, i);
+			if (scriptTransaction && STANDALONE_COMMANDS.contains(command)) {
+				runScriptPart(lines, part, partWrites);
+				part.clear();
+				partWrites = false;
+				executeScriptLine(lines, i);
+			} else {
+				part.add(i);
+				partWrites |= MUTATING_COMMANDS.contains(command);
+			}
+		}
+		
+		runScriptPart(lines, part, partWrites);
+		if (statistics != null) {
+			CONSOLE_LOGGER.info(String.format("%d commands took %.1f ms", commandCount, (System.nanoTime() - start) / 1e6));
+		}
+		
+		return commandCount;
+	}
+	
+	private void runScriptPart(List<String> lines, List<Integer> part, boolean writes) {
+		Runnable commands = () -> part.forEach(i -> executeScriptLine(lines, i));
+		if (scriptTransaction && writes) {
+			config.writeBatch(commands);
+		} else {
+			commands.run();
+		}
+	}
+	
+	private String scriptCommand(List<String> lines, int i) {
+		try {
+			return StringUtils.lowerCase(parseCommandLine(lines.get(i)).get(0));
+		} catch (RuntimeException e) {
+			throw scriptLineFailure(i, e);
+		}
+	}
+	
+	private void executeScriptLine(List<String> lines, int i) {
+		try {
+			executeLine(lines.get(i));
+		} catch (RuntimeException e) {
+			throw scriptLineFailure(i, e);
+		}
+	}
+	
+	private ConfigurationRuntimeException scriptLineFailure(int i, RuntimeException e) {
+		String msg = "Line " + (i + 1) + " failed: " + e.getMessage();
+		logger.error(msg, e);
+		return new ConfigurationRuntimeException(msg, e);
+	}
+	
+	private static Reader openScript(String source) throws IOException {
+		return STDIN.equals(source) ? new InputStreamReader(System.in) : new FileReader(new File(source));
+	}
+	
+	// client.properties [command [params]], without a command it reads commands from stdin as a repl;
+	// client.properties script file runs the commands of file, - for stdin, with one client
 	public static void main(String[] args) throws IOException {
 		 File propertiesFile = new File(args[0]);
 		 Properties props = new Properties();
 		 props.load(new FileReader(propertiesFile));
+		 String command = args.length > 1 ? args[1] : REPL;
+		 if (INSTALL_SCHEMA.equalsIgnoreCase(command)) {
+			 // a client reads the configuration tables as it starts, on a fresh database there are none yet
+			 CONSOLE_LOGGER.info(installSchema(createTransactionManager(props), getUuidStorage(props)));
+			 return;
+		 }
+		 
 		 DatabaseHierarchicalConfigurationClient client = new DatabaseHierarchicalConfigurationClient(props);
-		 String command = args[1];
-		 String output = client.executeCommand(command, args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : new String[] {});
-		 CONSOLE_LOGGER.info(output);
+		 if (REPL.equalsIgnoreCase(command)) {
+			 client.repl(new InputStreamReader(System.in));
+		 } else if (SCRIPT.equalsIgnoreCase(command)) {
+			 try (Reader script = openScript(args.length > 2 ? args[2] : STDIN)) {
+				 client.runScript(script);
+			 }
+		 } else {
+			 String output = client.executeCommand(command, args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : new String[] {});
+			 CONSOLE_LOGGER.info(output);
+		 }
 	}
 }
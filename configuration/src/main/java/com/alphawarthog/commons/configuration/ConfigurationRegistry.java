@@ -0,0 +1,236 @@
+package com.alphawarthog.commons.configuration;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.alphawarthog.commons.configuration.cache.BoundedCache;
+import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+import com.alphawarthog.commons.configuration.tree.DatabaseNodeModel;
+import com.alphawarthog.commons.configuration.tree.StorageOptions;
+import com.alphawarthog.dbutils.TransactionManager;
+
+/*
+ * Named configurations of one database behind a single TransactionManager and a single cache of children lists.
+ * Configurations are loaded on first use, many at a time with getAll, and dropped once unused for idleTimeout,
+ * so memory follows the working set rather than the number of names.
+ *
+ * Writes through a configuration of the registry drop what they touch from the shared cache. Changes made by
+ * other processes are seen after invalidate(); eviction frees memory but children lists stay in the shared cache.
+ *
+ * There is never more than one instance per name. An evicted configuration a caller still holds is revived when
+ * its name is asked for again, with its root read again and its own caches emptied, so its writes keep going
+ * through the one write lock of that name.
+ */
+public class ConfigurationRegistry {
+
+	public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(10);
+	public static final int DEFAULT_NODE_CACHE_SIZE = 100_000;
+
+	public static class Builder {
+		private final TransactionManager txManager;
+		private StorageOptions storageOptions = StorageOptions.DEFAULT;
+		private boolean supportUpdates;
+		private Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+		private int nodeCacheSize = DEFAULT_NODE_CACHE_SIZE;
+
+		public Builder(TransactionManager txManager) {
+			this.txManager = txManager;
+		}
+
+		public Builder storageOptions(StorageOptions storageOptions) {
+			this.storageOptions = storageOptions;
+			return this;
+		}
+
+		public Builder supportUpdates(boolean supportUpdates) {
+			this.supportUpdates = supportUpdates;
+			return this;
+		}
+
+		public Builder idleTimeout(Duration idleTimeout) {
+			this.idleTimeout = idleTimeout;
+			return this;
+		}
+
+		// number of children lists kept for all configurations together
+		public Builder nodeCacheSize(int nodeCacheSize) {
+			this.nodeCacheSize = nodeCacheSize;
+			return this;
+		}
+
+		public ConfigurationRegistry build() {
+			return new ConfigurationRegistry(this);
+		}
+	}
+
+	private static final class Entry {
+		private final DatabaseHierarchicalConfiguration configuration;
+		private volatile long lastAccess;
+
+		private Entry(DatabaseHierarchicalConfiguration configuration, long lastAccess) {
+			this.configuration = configuration;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	protected final Logger logger = LogManager.getLogger(getClass());
+
+	private final TransactionManager txManager;
+	private final StorageOptions storageOptions;
+	private final boolean supportUpdates;
+	private final long idleTimeoutNanos;
+	private final BoundedCache<UUID, List<DatabaseNode>> nodeCache;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	// evicted configurations, until nobody holds them anymore
+	private final Map<String, WeakReference<DatabaseHierarchicalConfiguration>> evicted = new ConcurrentHashMap<>();
+	private volatile long lastSweep = System.nanoTime();
+
+	private ConfigurationRegistry(Builder builder) {
+		this.txManager = Objects.requireNonNull(builder.txManager, "TransactionManager cannot be null");
+		this.storageOptions = Objects.requireNonNull(builder.storageOptions, "StorageOptions cannot be null");
+		this.supportUpdates = builder.supportUpdates;
+		this.idleTimeoutNanos = Objects.requireNonNull(builder.idleTimeout, "Idle timeout cannot be null").toNanos();
+		this.nodeCache = new BoundedCache<>(builder.nodeCacheSize);
+	}
+
+	// null when no configuration of that name exists
+	public DatabaseHierarchicalConfiguration get(String configurationName) {
+		Map<String, DatabaseHierarchicalConfiguration> result = getAll(Collections.singleton(configurationName));
+		return result.isEmpty() ? null : result.values().iterator().next();
+	}
+
+	// configurations by normalized name, the ones not loaded yet are read in bulk; names that do not exist are left out
+	public Map<String, DatabaseHierarchicalConfiguration> getAll(Collection<String> configurationNames) {
+		long now = System.nanoTime();
+		evictIdleIfDue(now);
+
+		Map<String, DatabaseHierarchicalConfiguration> result = new LinkedHashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String configurationName : configurationNames) {
+			String name = normalize(configurationName);
+			Entry entry = entries.get(name);
+			if (entry == null && evicted.containsKey(name)) {
+				entry = entries.computeIfAbsent(name, n -> revive(n, now));
+			}
+
+			if (entry == null) {
+				missing.add(name);
+			} else {
+				entry.lastAccess = now;
+			}
+
+			result.put(name, entry == null ? null : entry.configuration);
+		}
+
+		if (!missing.isEmpty()) {
+			Map<String, DatabaseNodeModel> loaded = DatabaseNodeModel.load(txManager, missing, storageOptions, nodeCache);
+			for (Map.Entry<String, DatabaseNodeModel> model : loaded.entrySet()) {
+				// a concurrent caller may have loaded or revived it first, everybody gets the same instance
+				Entry entry = entries.computeIfAbsent(model.getKey(), name -> {
+					Entry revived = revive(name, now);
+					return revived != null ? revived : new Entry(new DatabaseHierarchicalConfiguration(model.getValue(), supportUpdates), now);
+				});
+				result.put(model.getKey(), entry.configuration);
+			}
+
+			logger.debug("{} of {} configurations loaded", loaded.size(), missing.size());
+		}
+
+		result.values().removeIf(Objects::isNull);
+		return result;
+	}
+
+	private Entry revive(String name, long now) {
+		WeakReference<DatabaseHierarchicalConfiguration> reference = evicted.remove(name);
+		DatabaseHierarchicalConfiguration configuration = reference == null ? null : reference.get();
+		if (configuration == null || !configuration.reload()) {
+			return null;
+		}
+
+		logger.debug("Evicted configuration {} revived", name);
+		return new Entry(configuration, now);
+	}
+
+	// known as evicted before it leaves the entries, a concurrent lookup either finds it there or revives it
+	private boolean retire(String name, Entry entry) {
+		WeakReference<DatabaseHierarchicalConfiguration> reference = new WeakReference<>(entry.configuration);
+		evicted.put(name, reference);
+		if (entries.remove(name, entry)) {
+			return true;
+		}
+
+		evicted.remove(name, reference);
+		return false;
+	}
+
+	private static String normalize(String configurationName) {
+		return Objects.requireNonNull(StringUtils.lowerCase(StringUtils.trimToNull(configurationName)), "Configuration name cannot be blank");
+	}
+
+	private void evictIdleIfDue(long now) {
+		// a sweep at most every half timeout keeps lookups cheap, entries live between one and one and a half timeouts
+		if (now - lastSweep >= idleTimeoutNanos / 2) {
+			lastSweep = now;
+			evictIdle(now);
+		}
+	}
+
+	public int evictIdle() {
+		return evictIdle(System.nanoTime());
+	}
+
+	private int evictIdle(long now) {
+		int count = 0;
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (now - entry.getValue().lastAccess >= idleTimeoutNanos && retire(entry.getKey(), entry.getValue())) {
+				count++;
+			}
+		}
+
+		evicted.values().removeIf(reference -> reference.get() == null);
+		if (count > 0) {
+			logger.debug("{} idle configurations evicted, {} left", count, entries.size());
+		}
+
+		return count;
+	}
+
+	public void evict(String configurationName) {
+		String name = normalize(configurationName);
+		Entry entry = entries.get(name);
+		if (entry != null) {
+			retire(name, entry);
+		}
+	}
+
+	// forgets everything cached for the loaded configurations, they read the database again on next use
+	public void invalidate() {
+		nodeCache.clear();
+		entries.values().forEach(entry -> entry.configuration.invalidateCaches());
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getNodeCacheSize() {
+		return nodeCache.size();
+	}
+
+	public TransactionManager getTransactionManager() {
+		return txManager;
+	}
+}
@@ -1,26 +1,89 @@
 package com.alphawarthog.commons.configuration;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.configuration2.AbstractHierarchicalConfiguration;
 import org.apache.commons.configuration2.BaseHierarchicalConfiguration;
+import org.apache.commons.configuration2.ConfigurationUtils;
 import org.apache.commons.configuration2.HierarchicalConfiguration;
 import org.apache.commons.configuration2.ImmutableHierarchicalConfiguration;
 import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.configuration2.convert.ConversionHandler;
+import org.apache.commons.configuration2.convert.ListDelimiterHandler;
 import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.tree.DefaultExpressionEngine;
+import org.apache.commons.configuration2.tree.DefaultExpressionEngineSymbols;
+import org.apache.commons.configuration2.tree.ExpressionEngine;
 import org.apache.commons.configuration2.tree.ImmutableNode;
 import org.apache.commons.configuration2.tree.InMemoryNodeModel;
 import org.apache.commons.configuration2.tree.NodeHandler;
 import org.apache.commons.configuration2.tree.NodeModel;
+import org.apache.commons.configuration2.tree.QueryResult;
+import org.apache.commons.configuration2.tree.xpath.XPathExpressionEngine;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import com.alphawarthog.commons.configuration.cache.BoundedCache;
+import com.alphawarthog.commons.configuration.cache.SubtreeCache;
+import com.alphawarthog.commons.configuration.event.ChangeEvent;
+import com.alphawarthog.commons.configuration.event.ChangeEventBus;
+import com.alphawarthog.commons.configuration.event.ChangeSubscription;
+import com.alphawarthog.commons.configuration.metrics.OperationStatistics;
+import com.alphawarthog.commons.configuration.metrics.OperationStatistics.Operation;
+import com.alphawarthog.commons.configuration.snapshot.ConfigurationSnapshot;
+import com.alphawarthog.commons.configuration.tree.ChildPage;
+import com.alphawarthog.commons.configuration.tree.ConfigurationConflictException;
 import com.alphawarthog.commons.configuration.tree.DatabaseNode;
 import com.alphawarthog.commons.configuration.tree.DatabaseNodeModel;
+import com.alphawarthog.commons.configuration.tree.ImportReport;
+import com.alphawarthog.commons.configuration.tree.StorageOptions;
 import com.alphawarthog.dbutils.TransactionManager;
 
+/*
+ * Concurrency model: one instance can be shared by any number of threads.
+ *
+ * Reads take no lock. Nodes are immutable, the model publishes its root through a volatile field and every read
+ * works on the root it saw when it started. The resolved key and typed value caches are concurrent maps.
+ *
+ * Writes are serialized by a lock shared by this configuration, its sub-configurations and their models. The
+ * caches are cleared inside the lock once the database change is committed. Reads validate an optimistic stamp
+ * of that lock: while a write is in progress they bypass the caches, and a value loaded while a write started
+ * is returned but not cached.
+ *
+ * Readers see a write once it is committed; a read running alongside a write may see the tree before or after it.
+ * Writes committed by other processes are not seen until refresh(), or the next revision check when an interval
+ * is set with setRevisionCheckInterval.
+ * Setting the expression engine, conversion handler or list delimiter handler is part of setting up an instance
+ * and is not meant to race with reads.
+ */
 public class DatabaseHierarchicalConfiguration extends AbstractHierarchicalConfiguration<DatabaseNode> {
 	
 	public class InMemoryHierarchicalConfiguration extends BaseHierarchicalConfiguration {
@@ -30,7 +93,185 @@ public class DatabaseHierarchicalConfiguration extends AbstractHierarchicalConfi
 		}
 	}
 	
+	// decoded values per key and target type, one conversion instead of one per call; the cache is shared by
+	// views on the same tree, so the key also holds everything a view can set differently from another
+	private static final class TypedKey {
+		private final UUID rootUuid;
+		private final ExpressionEngine expressionEngine;
+		private final ConversionHandler conversionHandler;
+		private final ListDelimiterHandler listDelimiterHandler;
+		private final String key;
+		private final Class<?> type;
+		private final boolean list;
+		
+		private TypedKey(DatabaseHierarchicalConfiguration config, String key, Class<?> type, boolean list) {
+			this.rootUuid = config.getModel().getNodeHandler().getRootNode().getUuidValue();
+			this.expressionEngine = config.getExpressionEngine();
+			this.conversionHandler = config.getConversionHandler();
+			this.listDelimiterHandler = config.getListDelimiterHandler();
+			this.key = key;
+			this.type = type;
+			this.list = list;
+		}
+		
+		@Override
+		public int hashCode() {
+			int result = rootUuid.hashCode();
+			result = 31 * result + System.identityHashCode(expressionEngine);
+			result = 31 * result + System.identityHashCode(conversionHandler);
+			result = 31 * result + System.identityHashCode(listDelimiterHandler);
+			result = 31 * result + Objects.hashCode(key);
+			result = 31 * result + type.hashCode();
+			return 31 * result + Boolean.hashCode(list);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			
+			if (obj instanceof TypedKey) {
+				TypedKey other = (TypedKey) obj;
+				return rootUuid.equals(other.rootUuid) && expressionEngine == other.expressionEngine && conversionHandler == other.conversionHandler
+				       && listDelimiterHandler == other.listDelimiterHandler && Objects.equals(key, other.key) && type == other.type && list == other.list;
+			}
+			
+			return false;
+		}
+	}
+	
+	// resolved query results per expression engine, starting node and key: skips parsing and traversal
+	private static final class ResolvedKey {
+		private final ExpressionEngine expressionEngine;
+		private final UUID rootUuid;
+		private final String key;
+		
+		private ResolvedKey(ExpressionEngine expressionEngine, UUID rootUuid, String key) {
+			this.expressionEngine = expressionEngine;
+			this.rootUuid = rootUuid;
+			this.key = key;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(expressionEngine) + rootUuid.hashCode()) + Objects.hashCode(key);
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			
+			if (obj instanceof ResolvedKey) {
+				ResolvedKey other = (ResolvedKey) obj;
+				return expressionEngine == other.expressionEngine && rootUuid.equals(other.rootUuid) && Objects.equals(key, other.key);
+			}
+			
+			return false;
+		}
+	}
+	
+	// every key of the tree in getKeys() order over an in-memory copy of it, valid while no write followed the stamp
+	private static final class KeyIndex {
+		private final long stamp;
+		private final ExpressionEngine expressionEngine;
+		private final InMemoryHierarchicalConfiguration snapshot;
+		private final List<String> keys = new ArrayList<>();
+		// position of each key in keys, sorted so the keys below a prefix are one range
+		private final NavigableMap<String, Integer> positions = new TreeMap<>();
+		
+		private KeyIndex(long stamp, ExpressionEngine expressionEngine, InMemoryHierarchicalConfiguration snapshot) {
+			this.stamp = stamp;
+			this.expressionEngine = expressionEngine;
+			this.snapshot = snapshot;
+			snapshot.getKeys().forEachRemaining(key -> {
+				if (positions.putIfAbsent(key, keys.size()) == null) {
+					keys.add(key);
+				}
+			});
+		}
+		
+		// the prefix and the keys spelled as its children or attributes, in getKeys() order; prefixes with
+		// indexes, predicates or attributes, and other expression engines, go through the snapshot
+		private Iterator<String> keysWithPrefix(String prefix) {
+			Predicate<String> below = belowPrefix(prefix);
+			if (below == null) {
+				return snapshot.getKeys(prefix);
+			}
+			
+			List<Integer> found = new ArrayList<>();
+			for (Map.Entry<String, Integer> entry : positions.subMap(prefix, true, prefix + Character.MAX_VALUE, true).entrySet()) {
+				String rest = entry.getKey().substring(prefix.length());
+				if (rest.isEmpty() || below.test(rest)) {
+					found.add(entry.getValue());
+				}
+			}
+			
+			Collections.sort(found);
+			return found.stream().map(keys::get).iterator();
+		}
+		
+		private Predicate<String> belowPrefix(String prefix) {
+			if (prefix.isEmpty()) {
+				return null;
+			}
+			
+			if (expressionEngine instanceof DefaultExpressionEngine) {
+				DefaultExpressionEngineSymbols symbols = ((DefaultExpressionEngine) expressionEngine).getSymbols();
+				if (prefix.contains(symbols.getIndexStart()) || prefix.contains(symbols.getAttributeStart())) {
+					return null;
+				}
+				
+				return rest -> rest.startsWith(symbols.getAttributeStart())
+				               || rest.startsWith(symbols.getPropertyDelimiter()) && !rest.startsWith(symbols.getEscapedDelimiter());
+			}
+			
+			if (expressionEngine instanceof XPathExpressionEngine) {
+				if (StringUtils.containsAny(prefix, "[]@*|()") || prefix.startsWith("/") || prefix.contains("//")) {
+					return null;
+				}
+				
+				return rest -> rest.startsWith("/");
+			}
+			
+			return null;
+		}
+	}
+	
+	// revision of the tree the caches were filled at, read again at most once per interval; a change moves the
+	// generation on and every configuration sharing the check refreshes once it sees that
+	private static final class RevisionCheck {
+		private final long intervalNanos;
+		private final AtomicLong nextCheck;
+		private final AtomicInteger generation = new AtomicInteger();
+		private volatile long revision;
+		
+		private RevisionCheck(long intervalNanos, long revision) {
+			this.intervalNanos = intervalNanos;
+			this.nextCheck = new AtomicLong(System.nanoTime() + intervalNanos);
+			this.revision = revision;
+		}
+	}
+	
+	public static final int DEFAULT_VALUE_CACHE_SIZE = 10_000;
+	public static final int DEFAULT_RESOLVED_KEY_CACHE_SIZE = 10_000;
+	public static final int DEFAULT_SUBTREE_CACHE_SIZE = 1_000;
+	
 	private final boolean supportUpdates;
+	private final BoundedCache<TypedKey, Object> typedValueCache;
+	private final BoundedCache<ResolvedKey, List<QueryResult<DatabaseNode>>> resolvedKeyCache;
+	private final SubtreeCache subtreeCache;
+	private final ChangeEventBus eventBus;
+	// the configuration a view was taken from, null for the configuration owning the event bus
+	private final DatabaseHierarchicalConfiguration viewParent;
+	private volatile String viewKey;
+	private volatile boolean valueCacheEnabled = true;
+	private volatile boolean keyIndexEnabled;
+	private volatile KeyIndex keyIndex;
+	private volatile RevisionCheck revisionCheck;
+	private volatile int seenGeneration;
 	
 	protected final String supportUpdatesErrorMessage = "This instance of " + getClass().getSimpleName() + " does not support updates";
 	
@@ -43,16 +284,47 @@ public class DatabaseHierarchicalConfiguration extends AbstractHierarchicalConfi
 	}
 	
 	public DatabaseHierarchicalConfiguration(TransactionManager txManager, String configurationName, DatabaseNode rootNode, boolean supportUpdates) {
-		this(new DatabaseNodeModel(txManager, configurationName, rootNode), supportUpdates);
+		this(txManager, configurationName, rootNode, supportUpdates, StorageOptions.DEFAULT);
+	}
+	
+	public DatabaseHierarchicalConfiguration(TransactionManager txManager, String configurationName, DatabaseNode rootNode, boolean supportUpdates, StorageOptions options) {
+		this(new DatabaseNodeModel(txManager, configurationName, rootNode, options), supportUpdates);
 	}
 	
-	private DatabaseHierarchicalConfiguration(NodeModel<DatabaseNode> model, boolean supportUpdates) {
+	DatabaseHierarchicalConfiguration(NodeModel<DatabaseNode> model, boolean supportUpdates) {
 		super(model);
 		this.supportUpdates = supportUpdates;
+		this.typedValueCache = new BoundedCache<>(DEFAULT_VALUE_CACHE_SIZE);
+		this.resolvedKeyCache = new BoundedCache<>(DEFAULT_RESOLVED_KEY_CACHE_SIZE);
+		this.subtreeCache = new SubtreeCache(DEFAULT_SUBTREE_CACHE_SIZE);
+		this.eventBus = new ChangeEventBus(rest -> continuesKey(getExpressionEngine(), rest));
+		this.viewParent = null;
+		((DatabaseNodeModel) model).addChangeListener(subtreeCache::invalidate);
+	}
+	
+	// view rooted at a node of the parent's tree: same connection scope, write lock and caches, no database round trip;
+	// keys are spelled like the parent's, as for the sub-configurations of BaseHierarchicalConfiguration
+	private DatabaseHierarchicalConfiguration(DatabaseHierarchicalConfiguration parent, DatabaseNode viewRoot, boolean supportUpdates) {
+		super(((DatabaseNodeModel) parent.getModel()).view(viewRoot));
+		super.setExpressionEngine(parent.getExpressionEngine());
+		this.supportUpdates = supportUpdates;
+		this.typedValueCache = parent.typedValueCache;
+		this.resolvedKeyCache = parent.resolvedKeyCache;
+		this.subtreeCache = parent.subtreeCache;
+		this.eventBus = parent.eventBus;
+		this.viewParent = parent;
+		this.valueCacheEnabled = parent.valueCacheEnabled;
+		this.keyIndexEnabled = parent.keyIndexEnabled;
+		this.revisionCheck = parent.revisionCheck;
+		this.seenGeneration = parent.seenGeneration;
 	}
 
 	public DatabaseHierarchicalConfiguration(TransactionManager txManager, String configurationName, XMLConfiguration sourceConfig, boolean supportUpdates) {
-		this(new DatabaseNodeModel(txManager, configurationName, sourceConfig), supportUpdates);
+		this(txManager, configurationName, sourceConfig, supportUpdates, StorageOptions.DEFAULT);
+	}
+	
+	public DatabaseHierarchicalConfiguration(TransactionManager txManager, String configurationName, XMLConfiguration sourceConfig, boolean supportUpdates, StorageOptions options) {
+		this(new DatabaseNodeModel(txManager, configurationName, sourceConfig, options), supportUpdates);
 	}
 
 	@Override
@@ -87,11 +359,7 @@ public class DatabaseHierarchicalConfiguration extends AbstractHierarchicalConfi
 	@Override
 	public List<HierarchicalConfiguration<DatabaseNode>> configurationsAt(String key, boolean supportUpdates) {
 		return databaseNodesAt(key).stream()
-				                   .map(node -> {
-				                       NodeModel<DatabaseNode> newModel = cloneNodeModel();
-				                       newModel.setRootNode(node);
-				                       return new DatabaseHierarchicalConfiguration(newModel, supportUpdates);
-				                   }) 
+				                   .map(node -> new DatabaseHierarchicalConfiguration(this, node, supportUpdates))
 				                   .collect(Collectors.toList());
 	}
 
@@ -101,6 +369,10 @@ public class DatabaseHierarchicalConfiguration extends AbstractHierarchicalConfi
 	}
 	
 	private List<DatabaseNode> childrenDatabaseNodesAt(String key) {
+		return getModel().getNodeHandler().getChildren(parentDatabaseNodeAt(key));
+	}
+	
+	private DatabaseNode parentDatabaseNodeAt(String key) {
 		List<DatabaseNode> parentNodes = databaseNodesAt(key);
 		if (parentNodes.isEmpty()) {
 			throw new IllegalArgumentException(key + " is not a valid node key");
@@ -110,44 +382,674 @@ public class DatabaseHierarchicalConfiguration extends AbstractHierarchicalConfi
 			throw new IllegalArgumentException(key + " returns more than 1 node");
 		}
 		
-		return getModel().getNodeHandler().getChildren(parentNodes.get(0));
+		return parentNodes.get(0);
+	}
+	
+	// for nodes with too many children to hold at once; pages are ordered by name and bypass the caches
+	public ChildPage getChildPage(String key, String continuationToken, int pageSize) {
+		return ((DatabaseNodeModel) getModel()).getChildPage(parentDatabaseNodeAt(key), continuationToken, pageSize);
+	}
+	
+	public Iterator<DatabaseNode> iterateChildren(String key, int pageSize) {
+		return ((DatabaseNodeModel) getModel()).iterateChildren(parentDatabaseNodeAt(key), pageSize);
 	}
 
 	@Override
 	public List<HierarchicalConfiguration<DatabaseNode>> childConfigurationsAt(String key, boolean supportUpdates) {
 		return childrenDatabaseNodesAt(key).stream()
-				      					   .map(childNode -> {
-				      						   NodeModel<DatabaseNode> newModel = cloneNodeModel();
-				      						   newModel.setRootNode(childNode);
-				      						   return new DatabaseHierarchicalConfiguration(newModel, supportUpdates);
-				      					   })
+				      					   .map(childNode -> new DatabaseHierarchicalConfiguration(this, childNode, supportUpdates))
 				      					   .collect(Collectors.toList());
 	}
 
+	// a materialized copy of the addressed subtree, supportUpdates has nothing to track
 	@Override
 	public ImmutableHierarchicalConfiguration immutableConfigurationAt(String key, boolean supportUpdates) {
-		return toInMemoryConfiguration().immutableConfigurationAt(key, supportUpdates);
-	}
-	
-	private InMemoryHierarchicalConfiguration toInMemoryConfiguration() {
-		ImmutableNode inMemoryNode = getModel().getInMemoryRepresentation();
-		InMemoryNodeModel inMemoryModel = new InMemoryNodeModel(inMemoryNode);
-		return new InMemoryHierarchicalConfiguration(inMemoryModel);
+		List<DatabaseNode> nodes = databaseNodesAt(key);
+		if (nodes.size() != 1) {
+			throw new ConfigurationRuntimeException("Passed in key must select exactly one node (found " + nodes.size() + "): " + key);
+		}
+		
+		return toImmutableConfiguration(materialize(nodes.get(0)));
 	}
 
 	@Override
 	public ImmutableHierarchicalConfiguration immutableConfigurationAt(String key) {
-		return toInMemoryConfiguration().immutableConfigurationAt(key);
+		return immutableConfigurationAt(key, false);
 	}
 
 	@Override
 	public List<ImmutableHierarchicalConfiguration> immutableConfigurationsAt(String key) {
-		return toInMemoryConfiguration().immutableChildConfigurationsAt(key);
+		return databaseNodesAt(key).stream()
+		                           .map(node -> toImmutableConfiguration(materialize(node)))
+		                           .collect(Collectors.toList());
 	}
 	
 	@Override
 	public List<ImmutableHierarchicalConfiguration> immutableChildConfigurationsAt(String key) {
-		return toInMemoryConfiguration().immutableChildConfigurationsAt(key);
+		List<DatabaseNode> nodes = databaseNodesAt(key);
+		if (nodes.size() != 1) {
+			return Collections.emptyList();
+		}
+		
+		// one materialization of the parent serves all children
+		return materialize(nodes.get(0)).getChildren()
+		                                .stream()
+		                                .map(this::toImmutableConfiguration)
+		                                .collect(Collectors.toList());
+	}
+	
+	private ImmutableHierarchicalConfiguration toImmutableConfiguration(ImmutableNode subtree) {
+		return ConfigurationUtils.unmodifiableConfiguration(inMemoryCopy(subtree));
+	}
+	
+	private InMemoryHierarchicalConfiguration inMemoryCopy(ImmutableNode subtree) {
+		InMemoryHierarchicalConfiguration inMemoryConfig = new InMemoryHierarchicalConfiguration(new InMemoryNodeModel(subtree));
+		inMemoryConfig.setExpressionEngine(getExpressionEngine());
+		inMemoryConfig.setConversionHandler(getConversionHandler());
+		inMemoryConfig.setListDelimiterHandler(getListDelimiterHandler());
+		return inMemoryConfig;
+	}
+	
+	// cached until a write touches one of the subtree's nodes; bypassed while a write is in progress like the other caches
+	private ImmutableNode materialize(DatabaseNode node) {
+		checkRevision();
+		DatabaseNodeModel model = (DatabaseNodeModel) getModel();
+		long stamp = model.tryOptimisticRead();
+		if (stamp != 0) {
+			ImmutableNode cached = subtreeCache.get(node.getUuidValue());
+			if (cached != null) {
+				model.getStatistics().cacheHit();
+				return cached;
+			}
+		}
+		
+		Set<UUID> subtreeUuids = new HashSet<>();
+		ImmutableNode subtree = model.getInMemoryRepresentation(node, subtreeUuids);
+		if (stamp != 0) {
+			subtreeCache.put(node.getUuidValue(), subtree, subtreeUuids, () -> model.validate(stamp));
+		}
+		
+		return subtree;
+	}
+
+	// atomic against writers in this JVM; with versioned storage also against other processes, a change made
+	// between reading and writing the value fails the version check and counts as a mismatch, except inside
+	// writeBatch, where it throws the ConfigurationConflictException and the whole batch is rolled back
+	public boolean compareAndSetProperty(String key, Object expectedValue, Object newValue) {
+		checkSupportUpdates();
+		try {
+			// inside the write lock reads bypass the caches and see the database; the children memo makes the update
+			// run against the very nodes that were compared, so versioned storage detects any change in between
+			return writeAndReturn(() -> ((DatabaseNodeModel) getModel()).withChildrenMemo(() -> {
+				if (!valuesOf(getProperty(key)).equals(valuesOf(expectedValue))) {
+					return false;
+				}
+				
+				setProperty(key, newValue);
+				return true;
+			}));
+		} catch (ConfigurationConflictException e) {
+			// a batch cannot keep its other writes without this one, the conflict fails all of them
+			if (((DatabaseNodeModel) getModel()).isBatchInProgress()) {
+				throw e;
+			}
+			
+			return false;
+		}
+	}
+	
+	private static List<String> valuesOf(Object value) {
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		
+		if (value instanceof Collection) {
+			return ((Collection<?>) value).stream()
+			                              .map(String::valueOf)
+			                              .collect(Collectors.toList());
+		}
+		
+		return Collections.singletonList(value.toString());
+	}
+	
+	// all or nothing: the edits run in one transaction under the write lock, readers see them once committed
+	public void writeBatch(Runnable edits) {
+		checkSupportUpdates();
+		withEvents(() -> ((DatabaseNodeModel) getModel()).executeBatch(() -> {
+			try {
+				edits.run();
+				return null;
+			} finally {
+				invalidateCaches();
+			}
+		}));
+	}
+	
+	// brings this configuration in line with source, writing only what differs
+	public ImportReport importTree(ImmutableNode source) {
+		checkSupportUpdates();
+		return writeAndReturn(() -> {
+			ImportReport report = ((DatabaseNodeModel) getModel()).importTree(source, getExpressionEngine());
+			for (ImportReport.Change change : report.getChanges()) {
+				record(toEventKind(change.getType()), change.getKey(), change.getOldValue(), change.getNewValue());
+			}
+			
+			return report;
+		});
+	}
+	
+	private static ChangeEvent.Kind toEventKind(ImportReport.ChangeType changeType) {
+		switch (changeType) {
+		case NODE_ADDED:
+			return ChangeEvent.Kind.NODES_ADDED;
+		case NODE_REMOVED:
+			return ChangeEvent.Kind.TREE_CLEARED;
+		case ATTRIBUTE_ADDED:
+			return ChangeEvent.Kind.PROPERTY_ADDED;
+		case ATTRIBUTE_REMOVED:
+			return ChangeEvent.Kind.PROPERTY_CLEARED;
+		default:
+			return ChangeEvent.Kind.PROPERTY_SET;
+		}
+	}
+	
+	/*
+	 * Committed writes through this configuration and the views and clones sharing its tree reach the listener
+	 * on a dispatcher thread of its own, after the write lock has been released. Writers never wait for it: events
+	 * that find its buffer full are dropped and counted. Only writes made through these instances are published;
+	 * other configurations on the same tree, other processes and direct SQL are not seen, DatabaseReloadingDetector
+	 * notices those. Keys are relative to the configuration that was not taken as a view, in the syntax of its
+	 * expression engine; the prefix matches its own key and the keys below it.
+	 */
+	public ChangeSubscription subscribe(String keyPrefix, Consumer<ChangeEvent> listener) {
+		return eventBus.subscribe(keyPrefix, listener);
+	}
+	
+	public ChangeSubscription subscribe(String keyPrefix, int capacity, Consumer<ChangeEvent> listener) {
+		return eventBus.subscribe(keyPrefix, capacity, listener);
+	}
+	
+	// values as returned by getProperty, in key order; lookups share the children loaded for common ancestors
+	public Map<String, Object> getAll(Collection<String> keys) {
+		return ((DatabaseNodeModel) getModel()).withChildrenMemo(() -> {
+			Map<String, Object> result = new LinkedHashMap<>();
+			for (String key : keys) {
+				result.put(key, getProperty(key));
+			}
+			
+			return result;
+		});
+	}
+	
+	public void writeSnapshot(Path snapshotFile) {
+		ConfigurationSnapshot.write(toImmutableNode(), snapshotFile);
+	}
+	
+	public ImmutableNode toImmutableNode() {
+		return materialize(getModel().getNodeHandler().getRootNode());
+	}
+
+	// forgets everything read so far, for changes made by other processes; a DatabaseReloadingDetector tells when
+	public void refresh() {
+		((DatabaseNodeModel) getModel()).refresh();
+		subtreeCache.clear();
+		invalidateCaches();
+	}
+	
+	// for a configuration handed out again, e.g. by ConfigurationRegistry: root as stored now, caches emptied but the
+	// children lists possibly shared with other configurations kept; false when root no longer exists
+	boolean reload() {
+		boolean exists = ((DatabaseNodeModel) getModel()).refreshRoot();
+		subtreeCache.clear();
+		invalidateCaches();
+		return exists;
+	}
+	
+	public boolean isValueCacheEnabled() {
+		return valueCacheEnabled;
+	}
+	
+	// values relying on interpolation from outside this configuration, e.g. system properties, need the cache off;
+	// views created afterwards inherit the setting
+	public void setValueCacheEnabled(boolean valueCacheEnabled) {
+		this.valueCacheEnabled = valueCacheEnabled;
+		invalidateCaches();
+	}
+	
+	public boolean isKeyIndexEnabled() {
+		return keyIndexEnabled;
+	}
+	
+	// getKeys and size answer from an in-memory copy of the tree, read in bulk and kept until the next write, and
+	// so do isEmpty and containsKey while one is kept; worth its memory when keys are enumerated more than once
+	// between writes or the tree is large. Views created afterwards inherit the setting
+	public void setKeyIndexEnabled(boolean keyIndexEnabled) {
+		this.keyIndexEnabled = keyIndexEnabled;
+		this.keyIndex = null;
+	}
+	
+	public Duration getRevisionCheckInterval() {
+		RevisionCheck check = revisionCheck;
+		return check == null ? null : Duration.ofNanos(check.intervalNanos);
+	}
+	
+	// the caches see writes made through this configuration and the views sharing its tree only, changes made
+	// elsewhere need refresh(). With an interval set, reads compare the tree's revision with a primary key lookup
+	// at most once per interval and refresh when it moved: another process's change is served stale for at most
+	// the interval, writes made here cost one refresh as well. Needs revision tracking, see StorageOptions; null
+	// turns the check off, views created afterwards inherit the setting
+	public void setRevisionCheckInterval(Duration interval) {
+		if (interval == null) {
+			this.revisionCheck = null;
+			return;
+		}
+		
+		long revision = ((DatabaseNodeModel) getModel()).readRevision();
+		if (revision < 0) {
+			throw new ConfigurationRuntimeException("Revision checks need a tree with revision tracking, see StorageOptions");
+		}
+		
+		this.revisionCheck = new RevisionCheck(interval.toNanos(), revision);
+		this.seenGeneration = 0;
+	}
+	
+	// skipped while a write is in progress, the writer's own reads go to the database anyway
+	private void checkRevision() {
+		RevisionCheck check = revisionCheck;
+		if (check == null) {
+			return;
+		}
+		
+		DatabaseNodeModel model = (DatabaseNodeModel) getModel();
+		long now = System.nanoTime();
+		long next = check.nextCheck.get();
+		if (now - next >= 0 && model.tryOptimisticRead() != 0 && check.nextCheck.compareAndSet(next, now + check.intervalNanos)) {
+			long revision = model.readRevision();
+			if (revision != check.revision) {
+				check.revision = revision;
+				check.generation.incrementAndGet();
+			}
+		}
+		
+		int generation = check.generation.get();
+		if (generation != seenGeneration) {
+			seenGeneration = generation;
+			refresh();
+		}
+	}
+	
+	protected void invalidateCaches() {
+		resolvedKeyCache.clear();
+		typedValueCache.clear();
+		keyIndex = null;
+	}
+	
+	// null unless enabled and built since the last write
+	private KeyIndex validKeyIndex() {
+		if (!keyIndexEnabled) {
+			return null;
+		}
+		
+		checkRevision();
+		DatabaseNodeModel model = (DatabaseNodeModel) getModel();
+		KeyIndex current = keyIndex;
+		if (current != null && current.expressionEngine == getExpressionEngine() && model.validate(current.stamp)) {
+			model.getStatistics().cacheHit();
+			return current;
+		}
+		
+		return null;
+	}
+	
+	// same stamp protocol as the caches: built inside a write it serves the writer only
+	private KeyIndex keyIndex() {
+		KeyIndex current = validKeyIndex();
+		if (current != null) {
+			return current;
+		}
+		
+		DatabaseNodeModel model = (DatabaseNodeModel) getModel();
+		long stamp = model.tryOptimisticRead();
+		KeyIndex built = new KeyIndex(stamp, getExpressionEngine(), inMemoryCopy(toImmutableNode()));
+		if (stamp != 0 && model.validate(stamp)) {
+			keyIndex = built;
+		}
+		
+		return built;
+	}
+	
+	@Override
+	protected Iterator<String> getKeysInternal() {
+		return keyIndexEnabled ? Collections.unmodifiableList(keyIndex().keys).iterator() : super.getKeysInternal();
+	}
+	
+	@Override
+	protected Iterator<String> getKeysInternal(String prefix) {
+		return keyIndexEnabled ? keyIndex().keysWithPrefix(prefix) : super.getKeysInternal(prefix);
+	}
+	
+	@Override
+	protected int sizeInternal() {
+		return keyIndexEnabled ? keyIndex().keys.size() : super.sizeInternal();
+	}
+	
+	// a single lookup never builds the index, it only answers from one built for an enumeration already
+	@Override
+	protected boolean isEmptyInternal() {
+		KeyIndex index = validKeyIndex();
+		if (index != null) {
+			return index.snapshot.isEmpty();
+		}
+		
+		NodeHandler<DatabaseNode> handler = getModel().getNodeHandler();
+		return !isDefined(handler.getRootNode(), handler);
+	}
+	
+	// depth first, the first node with a value or attributes ends it; the breadth first walk of the superclass
+	// loads every level above that node. Deferred values are never null, they are not loaded to know that
+	private static boolean isDefined(DatabaseNode node, NodeHandler<DatabaseNode> handler) {
+		if (!node.isValueLoaded() || node.getValue() != null || node.hasAttributes()) {
+			return true;
+		}
+		
+		for (DatabaseNode child : handler.getChildren(node)) {
+			if (isDefined(child, handler)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	// keys spelled as getKeys() returns them are a map lookup, anything else goes through the expression engine
+	@Override
+	protected boolean containsKeyInternal(String key) {
+		KeyIndex index = validKeyIndex();
+		if (index == null) {
+			return super.containsKeyInternal(key);
+		}
+		
+		return index.positions.containsKey(key) || index.snapshot.containsKey(key);
+	}
+	
+	// resolveNodeKey, fetchNodeList and resolveUpdateKey all go through here
+	@Override
+	public List<QueryResult<DatabaseNode>> resolveKey(DatabaseNode root, String key, NodeHandler<DatabaseNode> handler) {
+		Operation operation = beginOperation("resolveKey", key);
+		try {
+			ResolvedKey resolvedKey = new ResolvedKey(getExpressionEngine(), root.getUuidValue(), key);
+			return readThrough(resolvedKeyCache, resolvedKey, k -> Collections.unmodifiableList(super.resolveKey(root, key, handler)));
+		} finally {
+			operation.close();
+		}
+	}
+	
+	private Operation beginOperation(String name, Object subject) {
+		return getStatistics().begin(name, subject);
+	}
+	
+	// statements, rows and cache hits per operation, once OperationStatistics.enable was called for the TransactionManager
+	public OperationStatistics getStatistics() {
+		return ((DatabaseNodeModel) getModel()).getStatistics();
+	}
+	
+	// int.class and Integer.class share an entry, the wrapper is the type values are cast to
+	@SuppressWarnings("unchecked")
+	private <T> T cachedValue(Class<T> type, String key) {
+		Class<?> valueType = ClassUtils.primitiveToWrapper(type);
+		Operation operation = beginOperation("get", key);
+		try {
+			return (T) valueType.cast(cached(new TypedKey(this, key, valueType, false), () -> super.get(type, key, null)));
+		} finally {
+			operation.close();
+		}
+	}
+	
+	private Object cached(TypedKey typedKey, Supplier<Object> loader) {
+		return valueCacheEnabled ? readThrough(typedValueCache, typedKey, k -> loader.get()) : loader.get();
+	}
+	
+	// while a write is in progress the database is read directly, and a value is only cached when no write
+	// started while it was loaded: a cache never holds a value older than the last write it has not seen cleared
+	private <K, V> V readThrough(BoundedCache<K, V> cache, K key, Function<K, V> loader) {
+		checkRevision();
+		DatabaseNodeModel model = (DatabaseNodeModel) getModel();
+		long stamp = model.tryOptimisticRead();
+		if (stamp == 0) {
+			return loader.apply(key);
+		}
+		
+		boolean[] loaded = {false};
+		V result = cache.get(key, k -> {
+			loaded[0] = true;
+			return loader.apply(k);
+		}, () -> model.validate(stamp));
+		if (!loaded[0]) {
+			model.getStatistics().cacheHit();
+		}
+		
+		return result;
+	}
+	
+	// missing and null keys are cached like any other value, the fallback answers them without a second lookup
+	private <T> T cachedGet(Class<T> type, String key, Supplier<T> fallback) {
+		T value = cachedValue(type, key);
+		return value != null ? value : fallback.get();
+	}
+	
+	// what the primitive getters of AbstractConfiguration do for a missing key
+	private static <T> Supplier<T> missing(String key) {
+		return () -> {
+			throw new NoSuchElementException(String.format("Key '%s' does not map to an existing object!", key));
+		};
+	}
+	
+	// and what the object getters do
+	private <T> Supplier<T> missingOrNull(String key) {
+		return isThrowExceptionOnMissing() ? missing(key) : () -> null;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> List<T> cachedList(Class<T> type, String key, Supplier<List<T>> loader) {
+		Operation operation = beginOperation("getList", key);
+		try {
+			List<T> cached = (List<T>) cached(new TypedKey(this, key, type, true), () -> {
+				List<T> loaded = loader.get();
+				return loaded == null ? null : Collections.unmodifiableList(new ArrayList<>(loaded));
+			});
+			
+			// callers are free to modify the list they get
+			return cached == null ? null : new ArrayList<>(cached);
+		} finally {
+			operation.close();
+		}
+	}
+	
+	@Override
+	public <T> T get(Class<T> cls, String key) {
+		return cls.isArray() ? super.get(cls, key) : cachedGet(cls, key, missingOrNull(key));
+	}
+	
+	@Override
+	public <T> T get(Class<T> cls, String key, T defaultValue) {
+		return cls.isArray() ? super.get(cls, key, defaultValue) : cachedGet(cls, key, () -> defaultValue);
+	}
+	
+	@Override
+	public String getString(String key) {
+		return cachedGet(String.class, key, missingOrNull(key));
+	}
+	
+	@Override
+	public String getString(String key, String defaultValue) {
+		return cachedGet(String.class, key, () -> interpolate(defaultValue));
+	}
+	
+	@Override
+	public boolean getBoolean(String key) {
+		return cachedGet(Boolean.class, key, missing(key));
+	}
+	
+	@Override
+	public boolean getBoolean(String key, boolean defaultValue) {
+		return cachedGet(Boolean.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public Boolean getBoolean(String key, Boolean defaultValue) {
+		return cachedGet(Boolean.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public byte getByte(String key) {
+		return cachedGet(Byte.class, key, missing(key));
+	}
+	
+	@Override
+	public byte getByte(String key, byte defaultValue) {
+		return cachedGet(Byte.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public Byte getByte(String key, Byte defaultValue) {
+		return cachedGet(Byte.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public double getDouble(String key) {
+		return cachedGet(Double.class, key, missing(key));
+	}
+	
+	@Override
+	public double getDouble(String key, double defaultValue) {
+		return cachedGet(Double.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public Double getDouble(String key, Double defaultValue) {
+		return cachedGet(Double.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public float getFloat(String key) {
+		return cachedGet(Float.class, key, missing(key));
+	}
+	
+	@Override
+	public float getFloat(String key, float defaultValue) {
+		return cachedGet(Float.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public Float getFloat(String key, Float defaultValue) {
+		return cachedGet(Float.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public int getInt(String key) {
+		return cachedGet(Integer.class, key, missing(key));
+	}
+	
+	@Override
+	public int getInt(String key, int defaultValue) {
+		return cachedGet(Integer.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public Integer getInteger(String key, Integer defaultValue) {
+		return cachedGet(Integer.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public long getLong(String key) {
+		return cachedGet(Long.class, key, missing(key));
+	}
+	
+	@Override
+	public long getLong(String key, long defaultValue) {
+		return cachedGet(Long.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public Long getLong(String key, Long defaultValue) {
+		return cachedGet(Long.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public short getShort(String key) {
+		return cachedGet(Short.class, key, missing(key));
+	}
+	
+	@Override
+	public short getShort(String key, short defaultValue) {
+		return cachedGet(Short.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public Short getShort(String key, Short defaultValue) {
+		return cachedGet(Short.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public BigDecimal getBigDecimal(String key) {
+		return cachedGet(BigDecimal.class, key, missingOrNull(key));
+	}
+	
+	@Override
+	public BigDecimal getBigDecimal(String key, BigDecimal defaultValue) {
+		return cachedGet(BigDecimal.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public BigInteger getBigInteger(String key) {
+		return cachedGet(BigInteger.class, key, missingOrNull(key));
+	}
+	
+	@Override
+	public BigInteger getBigInteger(String key, BigInteger defaultValue) {
+		return cachedGet(BigInteger.class, key, () -> defaultValue);
+	}
+	
+	@Override
+	public List<Object> getList(String key) {
+		List<Object> value = cachedList(Object.class, key, () -> super.getList(key, null));
+		return value != null ? value : new ArrayList<>();
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Object> getList(String key, List<?> defaultValue) {
+		List<Object> value = cachedList(Object.class, key, () -> super.getList(key, null));
+		return value != null ? value : (List<Object>) defaultValue;
+	}
+	
+	@Override
+	public <T> List<T> getList(Class<T> cls, String key) {
+		return getList(cls, key, null);
+	}
+	
+	@Override
+	public <T> List<T> getList(Class<T> cls, String key, List<T> defaultValue) {
+		List<T> value = cachedList(cls, key, () -> super.getList(cls, key, null));
+		return value != null ? value : defaultValue;
+	}
+	
+	@Override
+	public void setExpressionEngine(ExpressionEngine expressionEngine) {
+		super.setExpressionEngine(expressionEngine);
+		invalidateCaches();
+	}
+	
+	@Override
+	public void setConversionHandler(ConversionHandler conversionHandler) {
+		super.setConversionHandler(conversionHandler);
+		invalidateCaches();
+	}
+	
+	@Override
+	public void setListDelimiterHandler(ListDelimiterHandler listDelimiterHandler) {
+		super.setListDelimiterHandler(listDelimiterHandler);
+		invalidateCaches();
 	}
 
 	@Override
@@ -158,7 +1060,114 @@ public class DatabaseHierarchicalConfiguration extends AbstractHierarchicalConfi
 	@Override
 	protected void addPropertyInternal(final String key, final Object value) {
 		checkSupportUpdates();
-		super.addPropertyInternal(key, value);
+		write(() -> {
+			super.addPropertyInternal(key, value);
+			record(ChangeEvent.Kind.PROPERTY_ADDED, key, null, value);
+		});
+	}
+
+	private void write(Runnable mutation) {
+		writeAndReturn(() -> {
+			mutation.run();
+			return null;
+		});
+	}
+	
+	// caches are cleared before the lock is released, the next writer never resolves against stale nodes
+	private <T> T writeAndReturn(Supplier<T> mutation) {
+		return withEvents(() -> ((DatabaseNodeModel) getModel()).executeWrite(() -> {
+			try {
+				return mutation.get();
+			} finally {
+				invalidateCaches();
+			}
+		}));
+	}
+	
+	// events of nested writes wait for the outermost one
+	private <T> T withEvents(Supplier<T> write) {
+		eventBus.begin();
+		boolean committed = false;
+		try {
+			T result = write.get();
+			committed = true;
+			return result;
+		} finally {
+			eventBus.end(committed);
+		}
+	}
+	
+	private void record(ChangeEvent.Kind kind, String key, Object oldValue, Object newValue) {
+		if (eventBus.hasSubscribers()) {
+			eventBus.record(new ChangeEvent(kind, eventKey(key), oldValue, newValue));
+		}
+	}
+	
+	// a key of this configuration as a key of the one owning the event bus
+	private String eventKey(String key) {
+		return viewParent == null ? key : joinKeys(getExpressionEngine(), viewKey(), key);
+	}
+	
+	// read once a view publishes its first event; the path of its root in the parent's tree, with indexes
+	private String viewKey() {
+		String key = viewKey;
+		if (key == null) {
+			NodeHandler<DatabaseNode> handler = viewParent.getModel().getNodeHandler();
+			UUID parentRootUuid = handler.getRootNode().getUuidValue();
+			Deque<DatabaseNode> path = new ArrayDeque<>();
+			for (DatabaseNode node = getModel().getNodeHandler().getRootNode(); !node.getUuidValue().equals(parentRootUuid); node = handler.getParent(node)) {
+				path.push(node);
+			}
+			
+			key = "";
+			for (DatabaseNode node : path) {
+				key = getExpressionEngine().canonicalKey(node, key, handler);
+			}
+			
+			key = viewParent.eventKey(key);
+			viewKey = key;
+		}
+		
+		return key;
+	}
+	
+	private static String joinKeys(ExpressionEngine expressionEngine, String parentKey, String key) {
+		if (StringUtils.isEmpty(key)) {
+			return parentKey;
+		}
+		
+		if (StringUtils.isEmpty(parentKey)) {
+			return key;
+		}
+		
+		if (expressionEngine instanceof XPathExpressionEngine) {
+			return parentKey + "/" + key;
+		}
+		
+		DefaultExpressionEngineSymbols symbols = symbolsOf(expressionEngine);
+		return key.startsWith(symbols.getAttributeStart()) ? parentKey + key : parentKey + symbols.getPropertyDelimiter() + key;
+	}
+	
+	// whether rest, following a key at the start of a longer one, goes on to a child, an attribute or an index of it
+	private static boolean continuesKey(ExpressionEngine expressionEngine, String rest) {
+		if (expressionEngine instanceof XPathExpressionEngine) {
+			return rest.startsWith("/") || rest.startsWith("[");
+		}
+		
+		DefaultExpressionEngineSymbols symbols = symbolsOf(expressionEngine);
+		return rest.startsWith(symbols.getAttributeStart()) || rest.startsWith(symbols.getIndexStart())
+		       || rest.startsWith(symbols.getPropertyDelimiter()) && !rest.startsWith(symbols.getEscapedDelimiter());
+	}
+	
+	// engines other than the two shipped ones are taken to spell keys like the default one
+	private static DefaultExpressionEngineSymbols symbolsOf(ExpressionEngine expressionEngine) {
+		return expressionEngine instanceof DefaultExpressionEngine ? ((DefaultExpressionEngine) expressionEngine).getSymbols()
+		                                                           : DefaultExpressionEngineSymbols.DEFAULT_SYMBOLS;
+	}
+	
+	// read inside the write lock, only when somebody listens
+	private Object valueBeforeChange(String key) {
+		return eventBus.hasSubscribers() ? getProperty(key) : null;
 	}
 
 	private void checkSupportUpdates() {
@@ -170,31 +1179,49 @@ public class DatabaseHierarchicalConfiguration extends AbstractHierarchicalConfi
 	@Override
 	protected void setPropertyInternal(final String key, final Object value) {
 		checkSupportUpdates();
-		super.setPropertyInternal(key, value);
+		write(() -> {
+			Object oldValue = valueBeforeChange(key);
+			super.setPropertyInternal(key, value);
+			record(ChangeEvent.Kind.PROPERTY_SET, key, oldValue, value);
+		});
 	}
 
 	@Override
 	protected void clearPropertyDirect(String key) {
 		checkSupportUpdates();
-		super.clearPropertyDirect(key);
+		write(() -> {
+			Object oldValue = valueBeforeChange(key);
+			super.clearPropertyDirect(key);
+			record(ChangeEvent.Kind.PROPERTY_CLEARED, key, oldValue, null);
+		});
 	}
 
 	@Override
 	protected void clearInternal() {
 		checkSupportUpdates();
-		super.clearInternal();
+		write(() -> {
+			super.clearInternal();
+			record(ChangeEvent.Kind.CLEARED, null, null, null);
+		});
 	}
 
 	@Override
 	protected void addNodesInternal(final String key, final Collection<? extends DatabaseNode> nodes) {
 		checkSupportUpdates();
-		super.addNodesInternal(key, nodes);
+		write(() -> {
+			super.addNodesInternal(key, nodes);
+			record(ChangeEvent.Kind.NODES_ADDED, key, null, new ArrayList<>(nodes));
+		});
 	}
 
 	@Override
 	protected Object clearTreeInternal(final String key) {
 		checkSupportUpdates();
-		return super.clearTreeInternal(key);
+		return writeAndReturn(() -> {
+			Object removed = super.clearTreeInternal(key);
+			record(ChangeEvent.Kind.TREE_CLEARED, key, removed, null);
+			return removed;
+		});
 	}
 	
 	@Override
@@ -0,0 +1,365 @@
+package com.alphawarthog.commons.configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.commons.configuration2.BaseHierarchicalConfiguration;
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+
+/*
+ * Edits are applied to an in-memory copy of the target right away and queued. Queued edits are written to the
+ * database in one transaction per batch: once maxPendingEdits are queued, every flushInterval, on flush() and on
+ * close(). Reads only see the in-memory copy.
+ *
+ * A failed batch is rolled back as a whole and handed to the failure handler, flush() and close() also throw it.
+ * The in-memory copy is then reloaded from the database and the edits queued in the meantime are applied again.
+ * When the database cannot be read either, the batch is queued again ahead of newer edits and retried with the
+ * next flush. Scheduled flushes keep running whatever a batch or the failure handler throws.
+ */
+public class WriteBehindConfiguration extends BaseHierarchicalConfiguration implements AutoCloseable {
+
+	public static final int DEFAULT_MAX_PENDING_EDITS = 1_000;
+	public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(1);
+
+	public static class Builder {
+		private final DatabaseHierarchicalConfiguration target;
+		private int maxPendingEdits = DEFAULT_MAX_PENDING_EDITS;
+		private Duration flushInterval = DEFAULT_FLUSH_INTERVAL;
+		private Consumer<ConfigurationRuntimeException> failureHandler = e -> {};
+
+		public Builder(DatabaseHierarchicalConfiguration target) {
+			this.target = target;
+		}
+
+		public Builder maxPendingEdits(int maxPendingEdits) {
+			this.maxPendingEdits = maxPendingEdits;
+			return this;
+		}
+
+		// zero turns time based flushes off
+		public Builder flushInterval(Duration flushInterval) {
+			this.flushInterval = flushInterval;
+			return this;
+		}
+
+		public Builder failureHandler(Consumer<ConfigurationRuntimeException> failureHandler) {
+			this.failureHandler = failureHandler;
+			return this;
+		}
+
+		public WriteBehindConfiguration build() {
+			return new WriteBehindConfiguration(this);
+		}
+	}
+
+	private enum EditType {
+		ADD_PROPERTY, SET_PROPERTY, CLEAR_PROPERTY, CLEAR_TREE, CLEAR, ADD_NODES
+	}
+
+	private static final class Edit {
+		private final EditType type;
+		private final String key;
+		private final Object value;
+		private final Collection<? extends ImmutableNode> nodes;
+
+		private Edit(EditType type, String key, Object value, Collection<? extends ImmutableNode> nodes) {
+			this.type = type;
+			this.key = key;
+			this.value = value;
+			this.nodes = nodes;
+		}
+	}
+
+	protected final Logger logger = LogManager.getLogger(getClass());
+
+	private final DatabaseHierarchicalConfiguration target;
+	private final int maxPendingEdits;
+	private final Consumer<ConfigurationRuntimeException> failureHandler;
+	private final ScheduledExecutorService flushScheduler;
+	// guards the in-memory copy together with the queue, so both always see edits in the same order
+	private final Object editLock = new Object();
+	// one batch at a time, batches reach the database in the order they were queued
+	private final ReentrantLock flushLock = new ReentrantLock();
+	private List<Edit> pendingEdits = new ArrayList<>();
+	private volatile boolean closed;
+
+	private WriteBehindConfiguration(Builder builder) {
+		this.target = Objects.requireNonNull(builder.target, "Target configuration cannot be null");
+		if (builder.maxPendingEdits < 1) {
+			throw new IllegalArgumentException("Maximum pending edits must be positive");
+		}
+
+		this.maxPendingEdits = builder.maxPendingEdits;
+		this.failureHandler = Objects.requireNonNull(builder.failureHandler, "Failure handler cannot be null");
+		Objects.requireNonNull(builder.flushInterval, "Flush interval cannot be null");
+
+		setExpressionEngine(target.getExpressionEngine());
+		setConversionHandler(target.getConversionHandler());
+		setListDelimiterHandler(target.getListDelimiterHandler());
+		getNodeModel().setRootNode(target.toImmutableNode());
+
+		if (builder.flushInterval.isZero()) {
+			this.flushScheduler = null;
+		} else {
+			this.flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "write-behind-" + target.getRootElementName());
+				thread.setDaemon(true);
+				return thread;
+			});
+			long intervalMillis = builder.flushInterval.toMillis();
+			flushScheduler.scheduleWithFixedDelay(this::scheduledFlush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public void flush() {
+		ConfigurationRuntimeException failure = flushAndReport();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		if (flushScheduler != null) {
+			flushScheduler.shutdown();
+		}
+
+		flush();
+	}
+
+	public int getPendingEditCount() {
+		synchronized (editLock) {
+			return pendingEdits.size();
+		}
+	}
+
+	// an exception escaping a scheduled run would cancel all later ones
+	private void scheduledFlush() {
+		try {
+			flushAndReport();
+		} catch (RuntimeException e) {
+			logger.error("Scheduled flush to {} failed: {}", target.getRootElementName(), e.getMessage(), e);
+		}
+	}
+
+	private ConfigurationRuntimeException flushAndReport() {
+		ConfigurationRuntimeException failure = flushPending();
+		if (failure != null) {
+			failureHandler.accept(failure);
+		}
+
+		return failure;
+	}
+
+	private ConfigurationRuntimeException flushPending() {
+		flushLock.lock();
+		try {
+			List<Edit> batch;
+			synchronized (editLock) {
+				batch = pendingEdits;
+				pendingEdits = new ArrayList<>();
+			}
+
+			if (batch.isEmpty()) {
+				return null;
+			}
+
+			try {
+				target.writeBatch(() -> batch.forEach(this::applyToTarget));
+				logger.debug("{} edits written to {}", batch.size(), target.getRootElementName());
+				return null;
+			} catch (RuntimeException e) {
+				ConfigurationRuntimeException failure = e instanceof ConfigurationRuntimeException ? (ConfigurationRuntimeException) e
+				                                                                                    : new ConfigurationRuntimeException(e.getMessage(), e);
+				logger.error("Batch of {} edits to {} rolled back: {}", batch.size(), target.getRootElementName(), e.getMessage(), e);
+				try {
+					reload();
+				} catch (RuntimeException reloadFailure) {
+					logger.error("Unable to reload {}, batch of {} edits queued again: {}", target.getRootElementName(), batch.size(), reloadFailure.getMessage(), reloadFailure);
+					requeue(batch);
+					failure.addSuppressed(reloadFailure);
+				}
+
+				return failure;
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	// the database without the failed batch, plus whatever was queued while it was being written
+	private void reload() {
+		ImmutableNode stored = target.toImmutableNode();
+		synchronized (editLock) {
+			getNodeModel().setRootNode(stored);
+			pendingEdits.forEach(this::applyLocally);
+		}
+	}
+
+	// the in-memory copy still holds the batch, it goes back ahead of the edits queued after it
+	private void requeue(List<Edit> batch) {
+		synchronized (editLock) {
+			batch.addAll(pendingEdits);
+			pendingEdits = batch;
+		}
+	}
+
+	private Object edit(Edit edit) {
+		if (closed) {
+			throw new ConfigurationRuntimeException(getClass().getSimpleName() + " is closed");
+		}
+
+		Object result;
+		boolean full;
+		synchronized (editLock) {
+			result = applyLocally(edit);
+			pendingEdits.add(edit);
+			full = pendingEdits.size() >= maxPendingEdits;
+		}
+
+		// the edit was accepted, a failure of the batch it completed goes to the failure handler only
+		if (full) {
+			flushAndReport();
+		}
+
+		return result;
+	}
+
+	private Object applyLocally(Edit edit) {
+		switch (edit.type) {
+		case ADD_PROPERTY:
+			super.addPropertyInternal(edit.key, edit.value);
+			break;
+		case SET_PROPERTY:
+			super.setPropertyInternal(edit.key, edit.value);
+			break;
+		case CLEAR_PROPERTY:
+			super.clearPropertyDirect(edit.key);
+			break;
+		case CLEAR_TREE:
+			return super.clearTreeInternal(edit.key);
+		case CLEAR:
+			super.clearInternal();
+			break;
+		case ADD_NODES:
+			super.addNodesInternal(edit.key, edit.nodes);
+			break;
+		}
+
+		return null;
+	}
+
+	private void applyToTarget(Edit edit) {
+		switch (edit.type) {
+		case ADD_PROPERTY:
+			target.addProperty(edit.key, edit.value);
+			break;
+		case SET_PROPERTY:
+			target.setProperty(edit.key, edit.value);
+			break;
+		case CLEAR_PROPERTY:
+			target.clearProperty(edit.key);
+			break;
+		case CLEAR_TREE:
+			target.clearTree(edit.key);
+			break;
+		case CLEAR:
+			target.clear();
+			break;
+		case ADD_NODES:
+			target.addNodes(edit.key, edit.nodes.stream()
+			                                    .map(WriteBehindConfiguration::toDatabaseNode)
+			                                    .collect(Collectors.toList()));
+			break;
+		}
+	}
+
+	// the database model adds nodes one level deep, checked when the edit is made rather than when it is flushed
+	private static DatabaseNode toDatabaseNode(ImmutableNode node) {
+		return new DatabaseNode.Builder().key(node.getNodeName())
+		                                 .value(node.getValue() == null ? null : node.getValue().toString())
+		                                 .attributes(node.getAttributes()
+		                                                 .entrySet()
+		                                                 .stream()
+		                                                 .collect(Collectors.toMap(Map.Entry::getKey, entry -> String.valueOf(entry.getValue()))))
+		                                 .build();
+	}
+
+	@Override
+	protected void addPropertyInternal(String key, Object value) {
+		edit(new Edit(EditType.ADD_PROPERTY, key, value, null));
+	}
+
+	@Override
+	protected void setPropertyInternal(String key, Object value) {
+		edit(new Edit(EditType.SET_PROPERTY, key, value, null));
+	}
+
+	@Override
+	protected void clearPropertyDirect(String key) {
+		edit(new Edit(EditType.CLEAR_PROPERTY, key, null, null));
+	}
+
+	@Override
+	protected Object clearTreeInternal(String key) {
+		return edit(new Edit(EditType.CLEAR_TREE, key, null, null));
+	}
+
+	@Override
+	protected void clearInternal() {
+		edit(new Edit(EditType.CLEAR, null, null, null));
+	}
+
+	@Override
+	protected void addNodesInternal(String key, Collection<? extends ImmutableNode> nodes) {
+		for (ImmutableNode node : nodes) {
+			if (!node.getChildren().isEmpty()) {
+				throw new ConfigurationRuntimeException("Node " + node.getNodeName() + " has children, only leaf nodes can be added");
+			}
+		}
+
+		edit(new Edit(EditType.ADD_NODES, key, null, new ArrayList<>(nodes)));
+	}
+
+	// updatable sub-configurations would edit the in-memory copy without queueing anything
+	@Override
+	public HierarchicalConfiguration<ImmutableNode> configurationAt(String key, boolean supportUpdates) {
+		checkNoUpdates(supportUpdates);
+		return super.configurationAt(key, false);
+	}
+
+	@Override
+	public List<HierarchicalConfiguration<ImmutableNode>> configurationsAt(String key, boolean supportUpdates) {
+		checkNoUpdates(supportUpdates);
+		return super.configurationsAt(key, false);
+	}
+
+	@Override
+	public List<HierarchicalConfiguration<ImmutableNode>> childConfigurationsAt(String key, boolean supportUpdates) {
+		checkNoUpdates(supportUpdates);
+		return super.childConfigurationsAt(key, false);
+	}
+
+	private void checkNoUpdates(boolean supportUpdates) {
+		if (supportUpdates) {
+			throw new ConfigurationRuntimeException(getClass().getSimpleName() + " only takes edits through itself");
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.alphawarthog.commons.configuration.cache;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+// size bounded cache with lock free hits; null values are cached too
+public final class BoundedCache<K, V> {
+
+	private static final Object NULL_VALUE = new Object();
+
+	private final int maxSize;
+	// clear() swaps in a new map: a load that started before the swap can only end up in the discarded map,
+	// so a value read from the database before a write can never survive the invalidation that follows it
+	private volatile Map<K, Object> entries = new ConcurrentHashMap<>();
+
+	public BoundedCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+
+		this.maxSize = maxSize;
+	}
+
+	public V get(K key, Function<? super K, ? extends V> loader) {
+		return get(key, loader, () -> true);
+	}
+
+	// the loaded value is only kept when storeLoaded still holds once loading is over; it is checked again
+	// after storing, so an invalidate() that ran in between either removed the value or is detected here
+	@SuppressWarnings("unchecked")
+	public V get(K key, Function<? super K, ? extends V> loader, BooleanSupplier storeLoaded) {
+		Map<K, Object> current = entries;
+		Object cached = current.get(key);
+		if (cached == null) {
+			V loaded = loader.apply(key);
+			if (!storeLoaded.getAsBoolean()) {
+				return loaded;
+			}
+
+			cached = loaded == null ? NULL_VALUE : loaded;
+			if (current.size() >= maxSize) {
+				evictOne(current);
+			}
+
+			current.put(key, cached);
+			if (!storeLoaded.getAsBoolean()) {
+				current.remove(key, cached);
+			}
+		}
+
+		return cached == NULL_VALUE ? null : (V) cached;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V getIfPresent(K key) {
+		Object cached = entries.get(key);
+		return cached == null || cached == NULL_VALUE ? null : (V) cached;
+	}
+
+	// no recency tracking, an arbitrary entry makes room; hot keys are reloaded once and stay
+	private void evictOne(Map<K, Object> current) {
+		Iterator<K> keys = current.keySet().iterator();
+		if (keys.hasNext()) {
+			keys.next();
+			keys.remove();
+		}
+	}
+
+	public void invalidate(Collection<? extends K> keys) {
+		Map<K, Object> current = entries;
+		keys.forEach(current::remove);
+	}
+
+	public void clear() {
+		entries = new ConcurrentHashMap<>();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+}
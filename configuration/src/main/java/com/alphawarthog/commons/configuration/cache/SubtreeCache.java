@@ -0,0 +1,75 @@
+package com.alphawarthog.commons.configuration.cache;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import org.apache.commons.configuration2.tree.ImmutableNode;
+
+// materialized subtrees by the uuid of their top node, each one dropped as soon as a write touches a node it contains
+public final class SubtreeCache {
+
+	private static final class Entry {
+		private final ImmutableNode subtree;
+		private final Set<UUID> uuids;
+
+		private Entry(ImmutableNode subtree, Set<UUID> uuids) {
+			this.subtree = subtree;
+			this.uuids = uuids;
+		}
+	}
+
+	private final int maxSize;
+	private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+	public SubtreeCache(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+
+		this.maxSize = maxSize;
+	}
+
+	public ImmutableNode get(UUID topUuid) {
+		Entry entry = entries.get(topUuid);
+		return entry == null ? null : entry.subtree;
+	}
+
+	// stored first and checked afterwards: a write either finds the entry and invalidates it or started
+	// after the check, in which case the subtree was read before the write and is dropped here
+	public void put(UUID topUuid, ImmutableNode subtree, Set<UUID> uuids, BooleanSupplier stillValid) {
+		if (entries.size() >= maxSize) {
+			Iterator<UUID> keys = entries.keySet().iterator();
+			if (keys.hasNext()) {
+				keys.next();
+				keys.remove();
+			}
+		}
+
+		Entry entry = new Entry(subtree, uuids);
+		entries.put(topUuid, entry);
+		if (!stillValid.getAsBoolean()) {
+			entries.remove(topUuid, entry);
+		}
+	}
+
+	public void invalidate(Collection<UUID> touched) {
+		entries.values().removeIf(entry -> touched.stream().anyMatch(entry.uuids::contains));
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+}
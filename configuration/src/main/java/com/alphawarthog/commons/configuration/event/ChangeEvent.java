@@ -0,0 +1,55 @@
+package com.alphawarthog.commons.configuration.event;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+// one committed change, keyed like the configuration the writing views were taken from
+public final class ChangeEvent {
+
+	public enum Kind {
+		PROPERTY_ADDED, PROPERTY_SET, PROPERTY_CLEARED, NODES_ADDED, TREE_CLEARED, CLEARED
+	}
+
+	private final Kind kind;
+	private final String key;
+	private final Object oldValue;
+	private final Object newValue;
+
+	public ChangeEvent(Kind kind, String key, Object oldValue, Object newValue) {
+		this.kind = kind;
+		this.key = key == null ? "" : key;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	// empty when the whole configuration was cleared
+	public String getKey() {
+		return key;
+	}
+
+	// as getProperty returned it before the change; the removed nodes for TREE_CLEARED
+	public Object getOldValue() {
+		return oldValue;
+	}
+
+	public Object getNewValue() {
+		return newValue;
+	}
+
+	// removing a tree also changes every key below it
+	boolean affectsDescendants() {
+		return kind == Kind.TREE_CLEARED || kind == Kind.CLEARED;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this).append("kind", kind)
+		                                .append("key", key)
+		                                .append("oldValue", oldValue)
+		                                .append("newValue", newValue)
+		                                .toString();
+	}
+}
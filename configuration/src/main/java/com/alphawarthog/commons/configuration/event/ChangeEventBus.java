@@ -0,0 +1,88 @@
+package com.alphawarthog.commons.configuration.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/*
+ * Hands the changes of committed writes to subscribers. Writes record their events between begin and end,
+ * nested writes join the outermost one; the events are published when it commits and discarded when it fails.
+ * Publishing only copies references into the ring buffers of matching subscriptions.
+ */
+public final class ChangeEventBus {
+
+	public static final int DEFAULT_CAPACITY = 1_024;
+
+	private static final class PendingEvents {
+		private final List<ChangeEvent> events = new ArrayList<>();
+		private int depth;
+	}
+
+	private final List<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<PendingEvents> pending = ThreadLocal.withInitial(PendingEvents::new);
+	private final Predicate<String> continuesKey;
+
+	// continuesKey tells whether what follows a key in a longer one starts a child, attribute or index of it, in
+	// the syntax of the keys recorded
+	public ChangeEventBus(Predicate<String> continuesKey) {
+		this.continuesKey = Objects.requireNonNull(continuesKey, "Key syntax cannot be null");
+	}
+
+	// empty prefix for every key
+	public ChangeSubscription subscribe(String keyPrefix, Consumer<ChangeEvent> listener) {
+		return subscribe(keyPrefix, DEFAULT_CAPACITY, listener);
+	}
+
+	public ChangeSubscription subscribe(String keyPrefix, int capacity, Consumer<ChangeEvent> listener) {
+		Objects.requireNonNull(listener, "Listener cannot be null");
+		ChangeSubscription[] subscription = new ChangeSubscription[1];
+		subscription[0] = new ChangeSubscription(keyPrefix, capacity, listener, () -> subscriptions.remove(subscription[0]));
+		subscriptions.add(subscription[0]);
+		return subscription[0];
+	}
+
+	// writers skip reading old values when nobody listens
+	public boolean hasSubscribers() {
+		return !subscriptions.isEmpty();
+	}
+
+	public void begin() {
+		pending.get().depth++;
+	}
+
+	public void record(ChangeEvent event) {
+		PendingEvents current = pending.get();
+		if (current.depth == 0) {
+			publish(event);
+		} else if (hasSubscribers()) {
+			current.events.add(event);
+		}
+	}
+
+	public void end(boolean committed) {
+		PendingEvents current = pending.get();
+		if (--current.depth > 0) {
+			return;
+		}
+
+		pending.remove();
+		if (committed) {
+			current.events.forEach(this::publish);
+		}
+	}
+
+	private void publish(ChangeEvent event) {
+		for (ChangeSubscription subscription : subscriptions) {
+			if (subscription.accepts(event, continuesKey)) {
+				subscription.offer(event);
+			}
+		}
+	}
+
+	public List<ChangeSubscription> getSubscriptions() {
+		return new ArrayList<>(subscriptions);
+	}
+}
@@ -0,0 +1,166 @@
+package com.alphawarthog.commons.configuration.event;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/*
+ * A listener with its own bounded ring buffer and dispatcher thread. Publishers claim a slot with a CAS on the
+ * tail and never wait: when the buffer is full the event is dropped and counted. The dispatcher is the only
+ * consumer, it hands events to the listener in publication order.
+ */
+public final class ChangeSubscription implements AutoCloseable {
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	protected final Logger logger = LogManager.getLogger(getClass());
+
+	private final String keyPrefix;
+	private final Consumer<ChangeEvent> listener;
+	private final Runnable onClose;
+	private final AtomicReferenceArray<ChangeEvent> slots;
+	private final int mask;
+	// next sequence to claim, advanced by publishers
+	private final AtomicLong tail = new AtomicLong();
+	// next sequence to deliver, advanced by the dispatcher only
+	private volatile long head;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final Thread dispatcher;
+	private volatile boolean closed;
+
+	ChangeSubscription(String keyPrefix, int capacity, Consumer<ChangeEvent> listener, Runnable onClose) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be between 1 and " + (1 << 30) + ": " + capacity);
+		}
+
+		this.keyPrefix = StringUtils.defaultString(keyPrefix);
+		this.listener = listener;
+		this.onClose = onClose;
+		// a power of two, slots are addressed by masking the sequence
+		int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+		this.dispatcher = new Thread(this::dispatch, "configuration-events-" + (this.keyPrefix.isEmpty() ? "all" : this.keyPrefix));
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	// matches the prefix and keys below it, and removals of the prefix or one of its ancestors; db matches db.url
+	// and db[@name] but not dbx.url
+	boolean accepts(ChangeEvent event, Predicate<String> continuesKey) {
+		return isAtOrBelow(event.getKey(), keyPrefix, continuesKey)
+		       || event.affectsDescendants() && isAtOrBelow(keyPrefix, event.getKey(), continuesKey);
+	}
+
+	private static boolean isAtOrBelow(String key, String ancestor, Predicate<String> continuesKey) {
+		if (!StringUtils.startsWithIgnoreCase(key, ancestor)) {
+			return false;
+		}
+
+		String rest = key.substring(ancestor.length());
+		return ancestor.isEmpty() || rest.isEmpty() || continuesKey.test(rest);
+	}
+
+	void offer(ChangeEvent event) {
+		long claimed;
+		do {
+			claimed = tail.get();
+			if (closed || claimed - head >= slots.length()) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!tail.compareAndSet(claimed, claimed + 1));
+
+		slots.set((int) (claimed & mask), event);
+		LockSupport.unpark(dispatcher);
+	}
+
+	private void dispatch() {
+		while (!closed || head != tail.get()) {
+			long next = head;
+			int slot = (int) (next & mask);
+			ChangeEvent event = slots.get(slot);
+			if (event == null) {
+				if (next == tail.get()) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				} else {
+					// claimed, the publisher is about to fill it
+					Thread.yield();
+				}
+
+				continue;
+			}
+
+			slots.set(slot, null);
+			head = next + 1;
+			try {
+				listener.accept(event);
+				delivered.incrementAndGet();
+			} catch (RuntimeException e) {
+				logger.error("Listener for prefix '{}' failed on {}: {}", keyPrefix, event, e.getMessage(), e);
+			}
+		}
+	}
+
+	// no more events are taken, the ones already buffered are still delivered
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			onClose.run();
+			LockSupport.unpark(dispatcher);
+		}
+	}
+
+	// waits until the buffered events have been delivered, false on timeout
+	public boolean awaitDelivery(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		long target = tail.get();
+		while (head < target) {
+			if (System.nanoTime() >= deadline) {
+				return false;
+			}
+
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+
+			Thread.sleep(1);
+		}
+
+		return true;
+	}
+
+	public String getKeyPrefix() {
+		return keyPrefix;
+	}
+
+	public int getCapacity() {
+		return slots.length();
+	}
+
+	// events lost because the buffer was full
+	public long getDroppedEvents() {
+		return dropped.get();
+	}
+
+	public long getDeliveredEvents() {
+		return delivered.get();
+	}
+
+	public int getPendingEvents() {
+		return (int) (tail.get() - head);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+}
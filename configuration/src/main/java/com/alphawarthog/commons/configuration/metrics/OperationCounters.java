@@ -0,0 +1,78 @@
+package com.alphawarthog.commons.configuration.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+// running totals of one operation; an operation includes what the operations it calls cost
+public final class OperationCounters {
+
+	private final String name;
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder statements = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder elapsedNanos = new LongAdder();
+
+	OperationCounters(String name) {
+		this.name = name;
+	}
+
+	void add(long statements, long rows, long cacheHits, long elapsedNanos) {
+		this.calls.increment();
+		this.statements.add(statements);
+		this.rows.add(rows);
+		this.cacheHits.add(cacheHits);
+		this.elapsedNanos.add(elapsedNanos);
+	}
+
+	void reset() {
+		calls.reset();
+		statements.reset();
+		rows.reset();
+		cacheHits.reset();
+		elapsedNanos.reset();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	public long getStatements() {
+		return statements.sum();
+	}
+
+	public long getRows() {
+		return rows.sum();
+	}
+
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos.sum();
+	}
+
+	// what a dashboard plots to spot N+1 regressions
+	public double getStatementsPerCall() {
+		long count = getCalls();
+		return count == 0 ? 0 : (double) getStatements() / count;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this).append("name", name)
+		                                .append("calls", getCalls())
+		                                .append("statements", getStatements())
+		                                .append("rows", getRows())
+		                                .append("cacheHits", getCacheHits())
+		                                .append("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(getElapsedNanos()))
+		                                .toString();
+	}
+}
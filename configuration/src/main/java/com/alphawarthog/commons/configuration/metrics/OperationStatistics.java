@@ -0,0 +1,248 @@
+package com.alphawarthog.commons.configuration.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.alphawarthog.dbutils.StatementObserver;
+import com.alphawarthog.dbutils.TransactionManager;
+
+/*
+ * Statements, rows read, cache hits and elapsed time per operation of the configurations on one TransactionManager.
+ * Models and configurations open an operation around each public call; everything that happens on the calling
+ * thread until it closes counts towards it and towards every operation it is nested in. Totals count each
+ * statement, row and cache hit once, including those of parallel materialization workers, which run outside of
+ * any operation.
+ *
+ * A thread can also trace what its operations do, statement by statement, and dump the trace as text.
+ */
+public class OperationStatistics implements StatementObserver {
+
+	// what models use while no statistics are enabled for their TransactionManager, it records nothing
+	public static final OperationStatistics DISABLED = new OperationStatistics(false);
+
+	static final int MAX_TRACE_ENTRIES = 10_000;
+
+	public final class Operation implements AutoCloseable {
+		private final Operation parent;
+		private final String name;
+		private final long start = System.nanoTime();
+		private final Trace.Entry traceEntry;
+		private long statements;
+		private long rows;
+		private long cacheHits;
+
+		private Operation(Operation parent, String name, Trace.Entry traceEntry) {
+			this.parent = parent;
+			this.name = name;
+			this.traceEntry = traceEntry;
+		}
+
+		@Override
+		public void close() {
+			if (this == noOperation) {
+				return;
+			}
+
+			long elapsed = System.nanoTime() - start;
+			counters(name).add(statements, rows, cacheHits, elapsed);
+			if (parent == null) {
+				current.remove();
+				operations.increment();
+				elapsedNanos.add(elapsed);
+			} else {
+				current.set(parent);
+			}
+
+			if (traceEntry != null) {
+				traceEntry.finish(statements, rows, cacheHits, elapsed);
+			}
+		}
+	}
+
+	private final Operation noOperation = new Operation(null, null, null);
+
+	private final boolean enabled;
+	private final ConcurrentMap<String, OperationCounters> counters = new ConcurrentHashMap<>();
+	// outermost operations only
+	private final LongAdder operations = new LongAdder();
+	private final LongAdder elapsedNanos = new LongAdder();
+	private final LongAdder statements = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final ThreadLocal<Operation> current = new ThreadLocal<>();
+	private final ThreadLocal<Trace> trace = new ThreadLocal<>();
+
+	public OperationStatistics() {
+		this(true);
+	}
+
+	private OperationStatistics(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	// the statistics of txManager, set up on first call; models pick them up for the transactions they begin
+	public static synchronized OperationStatistics enable(TransactionManager txManager) {
+		OperationStatistics existing = of(txManager);
+		if (existing.enabled) {
+			return existing;
+		}
+
+		OperationStatistics result = new OperationStatistics();
+		txManager.setStatementObserver(result);
+		return result;
+	}
+
+	public static synchronized void disable(TransactionManager txManager) {
+		if (of(txManager).enabled) {
+			txManager.setStatementObserver(null);
+		}
+	}
+
+	public static OperationStatistics of(TransactionManager txManager) {
+		StatementObserver observer = txManager.getStatementObserver();
+		return observer instanceof OperationStatistics ? (OperationStatistics) observer : DISABLED;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	// subject is only rendered into the trace, and only while this thread traces
+	public Operation begin(String name, Object subject) {
+		if (!enabled) {
+			return noOperation;
+		}
+
+		Operation parent = current.get();
+		Trace threadTrace = trace.get();
+		Trace.Entry traceEntry = threadTrace == null ? null : threadTrace.operation(depth(parent), subject == null ? name : name + " " + subject);
+		Operation operation = new Operation(parent, name, traceEntry);
+		current.set(operation);
+		return operation;
+	}
+
+	private static int depth(Operation operation) {
+		int result = 0;
+		for (Operation o = operation; o != null; o = o.parent) {
+			result++;
+		}
+
+		return result;
+	}
+
+	private OperationCounters counters(String name) {
+		return counters.computeIfAbsent(name, OperationCounters::new);
+	}
+
+	@Override
+	public void statementExecuted(String statement, long elapsedNanos) {
+		statements.increment();
+		Operation operation = current.get();
+		for (Operation o = operation; o != null; o = o.parent) {
+			o.statements++;
+		}
+
+		Trace threadTrace = trace.get();
+		if (threadTrace != null) {
+			threadTrace.statement(depth(operation), statement, elapsedNanos);
+		}
+	}
+
+	@Override
+	public void rowRead(String statement) {
+		rows.increment();
+		for (Operation o = current.get(); o != null; o = o.parent) {
+			o.rows++;
+		}
+
+		Trace threadTrace = trace.get();
+		if (threadTrace != null) {
+			threadTrace.rowRead();
+		}
+	}
+
+	public void cacheHit() {
+		if (!enabled) {
+			return;
+		}
+
+		cacheHits.increment();
+		for (Operation o = current.get(); o != null; o = o.parent) {
+			o.cacheHits++;
+		}
+	}
+
+	// counters by operation name; a snapshot of the names, the counters keep running
+	public Map<String, OperationCounters> getCounters() {
+		return Collections.unmodifiableMap(new TreeMap<>(counters));
+	}
+
+	public OperationCounters getCounters(String name) {
+		return counters.get(name);
+	}
+
+	public long getOperations() {
+		return operations.sum();
+	}
+
+	public long getStatements() {
+		return statements.sum();
+	}
+
+	public long getRows() {
+		return rows.sum();
+	}
+
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos.sum();
+	}
+
+	public void reset() {
+		counters.values().forEach(OperationCounters::reset);
+		operations.reset();
+		elapsedNanos.reset();
+		statements.reset();
+		rows.reset();
+		cacheHits.reset();
+	}
+
+	// from now on the operations of the calling thread are traced, up to MAX_TRACE_ENTRIES lines
+	public void startTrace() {
+		if (enabled) {
+			trace.set(new Trace(MAX_TRACE_ENTRIES));
+		}
+	}
+
+	// what the calling thread's operations did since startTrace, tracing goes on
+	public String dumpTrace() {
+		Trace threadTrace = trace.get();
+		return threadTrace == null ? "" : threadTrace.toString();
+	}
+
+	public String stopTrace() {
+		String result = dumpTrace();
+		trace.remove();
+		return result;
+	}
+
+	public List<String> getTraceLines() {
+		Trace threadTrace = trace.get();
+		return threadTrace == null ? Collections.emptyList() : new ArrayList<>(threadTrace.lines());
+	}
+
+	@Override
+	public String toString() {
+		return "OperationStatistics[operations=" + getOperations() + ",statements=" + getStatements() + ",rows=" + getRows()
+		       + ",cacheHits=" + getCacheHits() + ",counters=" + getCounters().values() + "]";
+	}
+}
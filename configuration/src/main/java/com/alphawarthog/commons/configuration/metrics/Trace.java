@@ -0,0 +1,103 @@
+package com.alphawarthog.commons.configuration.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+
+// what the operations of one thread did, one entry per operation and per statement, indented by nesting
+final class Trace {
+
+	private static final int MAX_STATEMENT_LENGTH = 120;
+
+	static final class Entry {
+		private final int depth;
+		private final String text;
+		private final boolean operation;
+		private long statements;
+		private long rows;
+		private long cacheHits;
+		private long elapsedNanos = -1;
+
+		private Entry(int depth, String text, boolean operation) {
+			this.depth = depth;
+			this.text = text;
+			this.operation = operation;
+		}
+
+		void finish(long statements, long rows, long cacheHits, long elapsedNanos) {
+			this.statements = statements;
+			this.rows = rows;
+			this.cacheHits = cacheHits;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			String indent = StringUtils.repeat("  ", depth);
+			if (!operation) {
+				return indent + "[" + millis(elapsedNanos) + " ms, " + rows + " rows] " + text;
+			}
+
+			return indent + text + (elapsedNanos < 0 ? " (open)"
+			                                          : " (" + statements + " statements, " + rows + " rows, " + cacheHits + " cache hits, " + millis(elapsedNanos) + " ms)");
+		}
+
+		private static String millis(long nanos) {
+			return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+		}
+	}
+
+	private final int maxEntries;
+	private final List<Entry> entries = new ArrayList<>();
+	private Entry lastStatement;
+	private long dropped;
+
+	Trace(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	// null once the trace is full
+	Entry operation(int depth, String text) {
+		return add(new Entry(depth, text, true));
+	}
+
+	void statement(int depth, String statement, long elapsedNanos) {
+		Entry entry = new Entry(depth, StringUtils.abbreviate(StringUtils.normalizeSpace(statement), MAX_STATEMENT_LENGTH), false);
+		entry.elapsedNanos = elapsedNanos;
+		lastStatement = add(entry);
+	}
+
+	// rows are read after their statement ran, they go to the last one
+	void rowRead() {
+		if (lastStatement != null) {
+			lastStatement.rows++;
+		}
+	}
+
+	private Entry add(Entry entry) {
+		if (entries.size() >= maxEntries) {
+			dropped++;
+			return null;
+		}
+
+		entries.add(entry);
+		return entry;
+	}
+
+	List<String> lines() {
+		List<String> result = entries.stream().map(Entry::toString).collect(Collectors.toList());
+		if (dropped > 0) {
+			result.add(dropped + " more entries dropped");
+		}
+
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return String.join(System.lineSeparator(), lines());
+	}
+}
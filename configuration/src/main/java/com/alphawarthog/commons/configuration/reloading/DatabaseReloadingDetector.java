@@ -0,0 +1,78 @@
+package com.alphawarthog.commons.configuration.reloading;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.reloading.ReloadingDetector;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.alphawarthog.dbutils.Transaction;
+import com.alphawarthog.dbutils.TransactionManager;
+
+/*
+ * Tells a ReloadingController when a configuration changed, with one primary key lookup of its revision per
+ * check. Needs schema version 3, from which on writers track revisions unless StorageOptions.trackRevisions turns
+ * it off; their changes are not seen here. A configuration that disappears counts as changed.
+ *
+ * The revision read when the detector is created counts as loaded: create it together with the configuration, a
+ * change committed in between is only found after the next one.
+ */
+public class DatabaseReloadingDetector implements ReloadingDetector {
+
+	private static final String SELECT_REVISION = "select revision " +
+	                                              "from configuration_root " +
+	                                              "where configuration_name = ? ";
+
+	// no check made yet
+	private static final long UNKNOWN = Long.MIN_VALUE;
+	// configuration_root has no row for the name
+	private static final long MISSING = -1;
+
+	protected final Logger logger = LogManager.getLogger(getClass());
+
+	private final TransactionManager txManager;
+	private final String configurationName;
+	private long loadedRevision;
+	private long checkedRevision = UNKNOWN;
+
+	public DatabaseReloadingDetector(TransactionManager txManager, String configurationName) {
+		this.txManager = Objects.requireNonNull(txManager, "TransactionManager cannot be null");
+		this.configurationName = Objects.requireNonNull(StringUtils.lowerCase(StringUtils.trimToNull(configurationName)), "Configuration name cannot be blank");
+		this.loadedRevision = readRevision();
+	}
+
+	@Override
+	public synchronized boolean isReloadingRequired() {
+		checkedRevision = readRevision();
+		return checkedRevision != loadedRevision;
+	}
+
+	// the revision of the last check is taken as loaded, a change made since then is found by the next check
+	@Override
+	public synchronized void reloadingPerformed() {
+		loadedRevision = checkedRevision == UNKNOWN ? readRevision() : checkedRevision;
+	}
+
+	public long getRevision() {
+		return readRevision();
+	}
+
+	private long readRevision() {
+		try (Transaction tx = txManager.beginTransaction();
+		     ResultSet rs = tx.executeQuery(SELECT_REVISION, configurationName)) {
+			return rs.next() ? rs.getLong("revision") : MISSING;
+		} catch (SQLException e) {
+			String msg = "Unable to read revision of configuration " + configurationName + ": " + e.getMessage();
+			logger.error(msg, e);
+			throw new ConfigurationRuntimeException(msg, e);
+		}
+	}
+
+	public String getConfigurationName() {
+		return configurationName;
+	}
+}
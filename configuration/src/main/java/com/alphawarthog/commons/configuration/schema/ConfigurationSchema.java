@@ -0,0 +1,300 @@
+package com.alphawarthog.commons.configuration.schema;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.alphawarthog.commons.configuration.tree.UuidStorage;
+import com.alphawarthog.dbutils.Transaction;
+import com.alphawarthog.dbutils.TransactionManager;
+
+public class ConfigurationSchema {
+
+	public static final int BASE_VERSION = 1;
+	// adds configuration_root.revision, see StorageOptions.trackRevisions
+	public static final int REVISION_VERSION = 3;
+
+	private static final String VERSION_TABLE = "configuration_schema_version";
+
+	private static final String CREATE_VERSION_TABLE = "create table " + VERSION_TABLE + " (" +
+	                                                   "  version integer not null, " +
+	                                                   "  description varchar(255) not null, " +
+	                                                   "  constraint configuration_schema_version_pk primary key (version)) ";
+
+	private static final String SELECT_VERSION = "select max(version) as version " +
+	                                             "from " + VERSION_TABLE + " ";
+
+	private static final String INSERT_VERSION = "insert into " + VERSION_TABLE + "(version, description) " +
+	                                             "values(?, ?) ";
+
+	// {0} is replaced by the column type of the chosen uuid storage
+	private static final Map<String, String> BASE_TABLES = new LinkedHashMap<>();
+
+	static {
+		BASE_TABLES.put("configuration", "create table configuration (" +
+		                                 "  uuid {0} not null, " +
+		                                 "  parent_uuid {0}, " +
+		                                 "  key varchar(255) not null, " +
+		                                 "  value varchar(4000), " +
+		                                 "  constraint configuration_pk primary key (uuid)) ");
+		BASE_TABLES.put("configuration_root", "create table configuration_root (" +
+		                                      "  configuration_name varchar(255) not null, " +
+		                                      "  root_uuid {0} not null, " +
+		                                      "  constraint configuration_root_pk primary key (configuration_name)) ");
+		// the primary key doubles as the (configuration_uuid, key) lookup index
+		BASE_TABLES.put("configuration_attribute", "create table configuration_attribute (" +
+		                                           "  configuration_uuid {0} not null, " +
+		                                           "  key varchar(255) not null, " +
+		                                           "  value varchar(4000) not null, " +
+		                                           "  constraint configuration_attribute_pk primary key (configuration_uuid, key)) ");
+	}
+
+	// table and column of every uuid column, all of them hold uuids the same way
+	private static final List<String[]> UUID_COLUMNS = Collections.unmodifiableList(Arrays.asList(
+			new String[] {"configuration", "uuid"},
+			new String[] {"configuration", "parent_uuid"},
+			new String[] {"configuration_root", "root_uuid"},
+			new String[] {"configuration_attribute", "configuration_uuid"}));
+
+	private static final List<IndexDefinition> REQUIRED_INDEXES = Collections.unmodifiableList(Arrays.asList(
+			new IndexDefinition("configuration_parent_key_idx", "configuration", "parent_uuid", "key"),
+			new IndexDefinition("configuration_attribute_config_key_idx", "configuration_attribute", "configuration_uuid", "key"),
+			new IndexDefinition("configuration_root_root_uuid_idx", "configuration_root", "root_uuid")));
+
+	// storage changes after the base version are appended here, in version order
+	private static final List<SchemaUpgrade> UPGRADES = Collections.unmodifiableList(Arrays.asList(
+			new SchemaUpgrade(2, "Row version for optimistic writes",
+			                  "alter table configuration add version bigint default 0 not null"),
+			new SchemaUpgrade(REVISION_VERSION, "Configuration revision for reload detection",
+			                  "alter table configuration_root add revision bigint default 0 not null"),
+			// replaces the (parent_uuid, key) index, which the new one covers and which planners would otherwise pick
+			new SchemaUpgrade(4, "Child order index for paged children",
+			                  "create index configuration_parent_key_uuid_idx on configuration(parent_uuid, key, uuid)")
+					.dropIndex("configuration", "configuration_parent_key_idx")));
+
+	protected final Logger logger = LogManager.getLogger(getClass());
+
+	private final TransactionManager txManager;
+	private final UuidStorage uuidStorage;
+
+	public ConfigurationSchema(TransactionManager txManager) {
+		this(txManager, UuidStorage.STRING);
+	}
+
+	public ConfigurationSchema(TransactionManager txManager, UuidStorage uuidStorage) {
+		this.txManager = Objects.requireNonNull(txManager, "TransactionManager cannot be null");
+		this.uuidStorage = Objects.requireNonNull(uuidStorage, "UUID storage cannot be null");
+	}
+
+	public static List<IndexDefinition> getRequiredIndexes() {
+		return REQUIRED_INDEXES;
+	}
+
+	public static int getLatestVersion() {
+		return UPGRADES.isEmpty() ? BASE_VERSION : UPGRADES.get(UPGRADES.size() - 1).getVersion();
+	}
+
+	public int getInstalledVersion() {
+		try (Transaction tx = txManager.beginTransaction()) {
+			return getInstalledVersion(tx);
+		} catch (SQLException e) {
+			String msg = "Unable to read configuration schema version: " + e.getMessage();
+			logger.error(msg, e);
+			throw new ConfigurationRuntimeException(msg, e);
+		}
+	}
+
+	private int getInstalledVersion(Transaction tx) throws SQLException {
+		if (!tableExists(tx.getMetaData(), VERSION_TABLE)) {
+			return 0;
+		}
+
+		try (ResultSet rs = tx.executeQuery(SELECT_VERSION)) {
+			return rs.next() ? rs.getInt("version") : 0;
+		}
+	}
+
+	public int install() {
+		try (Transaction tx = txManager.beginTransaction()) {
+			// checked before anything is written, closing the transaction commits
+			checkUuidStorage(tx.getMetaData());
+			int installedVersion = getInstalledVersion(tx);
+			if (installedVersion < BASE_VERSION) {
+				installBase(tx);
+			}
+
+			for (SchemaUpgrade upgrade : UPGRADES) {
+				if (upgrade.getVersion() > installedVersion) {
+					for (String statement : upgrade.getStatements()) {
+						tx.executeUpdate(statement);
+					}
+
+					for (String[] droppedIndex : upgrade.getDroppedIndexes()) {
+						if (indexExists(tx.getMetaData(), droppedIndex[0], droppedIndex[1])) {
+							tx.executeUpdate("drop index " + droppedIndex[1]);
+						} else {
+							logger.info("Index {} on {} does not exist, nothing to drop", droppedIndex[1], droppedIndex[0]);
+						}
+					}
+
+					tx.executeUpdate(INSERT_VERSION, upgrade.getVersion(), upgrade.getDescription());
+					logger.info("Configuration schema upgraded to {}", upgrade);
+				}
+			}
+
+			return getLatestVersion();
+		} catch (SQLException e) {
+			String msg = "Unable to install configuration schema: " + e.getMessage();
+			logger.error(msg, e);
+			throw new ConfigurationRuntimeException(msg, e);
+		}
+	}
+
+	private void installBase(Transaction tx) throws SQLException {
+		DatabaseMetaData metaData = tx.getMetaData();
+		if (!tableExists(metaData, VERSION_TABLE)) {
+			tx.executeUpdate(CREATE_VERSION_TABLE);
+		}
+
+		// tables may already exist in deployments predating the installer, only the missing parts are created
+		for (Map.Entry<String, String> table : BASE_TABLES.entrySet()) {
+			if (!tableExists(metaData, table.getKey())) {
+				tx.executeUpdate(table.getValue().replace("{0}", uuidStorage.getColumnType()));
+				logger.info("Table {} created with {} uuid columns", table.getKey(), uuidStorage);
+			}
+		}
+
+		for (IndexDefinition index : getMissingIndexes(metaData)) {
+			tx.executeUpdate(index.toCreateStatement());
+			logger.info("Index {} created", index);
+		}
+
+		tx.executeUpdate(INSERT_VERSION, BASE_VERSION, "Base configuration tables and indexes");
+		logger.info("Configuration schema base version {} installed", BASE_VERSION);
+	}
+
+	public List<IndexDefinition> verify() {
+		try (Transaction tx = txManager.beginTransaction()) {
+			checkUuidStorage(tx.getMetaData());
+			int installedVersion = getInstalledVersion(tx);
+			if (installedVersion < getLatestVersion()) {
+				logger.warn("Configuration schema version {} is older than latest version {}", installedVersion, getLatestVersion());
+			}
+
+			List<IndexDefinition> missingIndexes = getMissingIndexes(tx.getMetaData());
+			for (IndexDefinition missingIndex : missingIndexes) {
+				logger.warn("Index {} is missing, lookups on its columns will scan the whole table", missingIndex);
+			}
+
+			return missingIndexes;
+		} catch (SQLException e) {
+			String msg = "Unable to verify configuration schema: " + e.getMessage();
+			logger.error(msg, e);
+			throw new ConfigurationRuntimeException(msg, e);
+		}
+	}
+
+	// existing tables keep the uuid columns they were created with, nothing converts them; reading them with
+	// another storage would fail on every row, so a mismatch is refused up front
+	private void checkUuidStorage(DatabaseMetaData metaData) throws SQLException {
+		for (String[] column : UUID_COLUMNS) {
+			UuidStorage installed = getUuidStorage(metaData, column[0], column[1]);
+			if (installed != null && installed != uuidStorage) {
+				String msg = "Column " + column[0] + "." + column[1] + " holds " + installed + " uuids but " + uuidStorage +
+				             " is configured, configure " + installed + " or convert the existing uuid columns first";
+				logger.error(msg);
+				throw new ConfigurationRuntimeException(msg);
+			}
+		}
+	}
+
+	// null when the column does not exist yet or its type is not one the storages create
+	private UuidStorage getUuidStorage(DatabaseMetaData metaData, String table, String column) throws SQLException {
+		try (ResultSet rs = metaData.getColumns(null, null, toIdentifier(metaData, table), toIdentifier(metaData, column))) {
+			return rs.next() ? UuidStorage.forColumnType(rs.getInt("DATA_TYPE"), rs.getString("TYPE_NAME")) : null;
+		}
+	}
+
+	private List<IndexDefinition> getMissingIndexes(DatabaseMetaData metaData) throws SQLException {
+		List<IndexDefinition> result = new ArrayList<>();
+		for (IndexDefinition required : REQUIRED_INDEXES) {
+			boolean covered = false;
+			for (List<String> indexColumns : getIndexColumns(metaData, required.getTable())) {
+				if (required.isCoveredBy(indexColumns)) {
+					covered = true;
+					break;
+				}
+			}
+
+			if (!covered) {
+				result.add(required);
+			}
+		}
+
+		return result;
+	}
+
+	private List<List<String>> getIndexColumns(DatabaseMetaData metaData, String table) throws SQLException {
+		Map<String, Map<Short, String>> columnsByIndex = new LinkedHashMap<>();
+		try (ResultSet rs = metaData.getIndexInfo(null, null, toIdentifier(metaData, table), false, true)) {
+			while (rs.next()) {
+				String indexName = rs.getString("INDEX_NAME");
+				String columnName = rs.getString("COLUMN_NAME");
+				if (indexName != null && columnName != null) {
+					columnsByIndex.computeIfAbsent(indexName, k -> new TreeMap<>())
+					              .put(rs.getShort("ORDINAL_POSITION"), columnName);
+				}
+			}
+		}
+
+		List<List<String>> result = new ArrayList<>();
+		for (Map<Short, String> columns : columnsByIndex.values()) {
+			result.add(new ArrayList<>(columns.values()));
+		}
+
+		return result;
+	}
+
+	private boolean indexExists(DatabaseMetaData metaData, String table, String indexName) throws SQLException {
+		try (ResultSet rs = metaData.getIndexInfo(null, null, toIdentifier(metaData, table), false, true)) {
+			while (rs.next()) {
+				if (indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private boolean tableExists(DatabaseMetaData metaData, String table) throws SQLException {
+		try (ResultSet rs = metaData.getTables(null, null, toIdentifier(metaData, table), new String[] {"TABLE"})) {
+			return rs.next();
+		}
+	}
+
+	private String toIdentifier(DatabaseMetaData metaData, String name) throws SQLException {
+		if (metaData.storesUpperCaseIdentifiers()) {
+			return StringUtils.upperCase(name);
+		}
+
+		if (metaData.storesLowerCaseIdentifiers()) {
+			return StringUtils.lowerCase(name);
+		}
+
+		return name;
+	}
+}
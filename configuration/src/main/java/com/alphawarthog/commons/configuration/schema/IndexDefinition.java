@@ -0,0 +1,61 @@
+package com.alphawarthog.commons.configuration.schema;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+
+public final class IndexDefinition {
+
+	private final String name;
+	private final String table;
+	private final List<String> columns;
+
+	public IndexDefinition(String name, String table, String... columns) {
+		this.name = Objects.requireNonNull(StringUtils.trimToNull(name), "Index name cannot be blank");
+		this.table = Objects.requireNonNull(StringUtils.trimToNull(table), "Index table cannot be blank");
+		if (columns.length == 0) {
+			throw new IllegalArgumentException("Index " + name + " must have at least one column");
+		}
+
+		this.columns = Collections.unmodifiableList(Arrays.asList(columns));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public List<String> getColumns() {
+		return columns;
+	}
+
+	public String toCreateStatement() {
+		return "create index " + name + " on " + table + "(" + String.join(", ", columns) + ") ";
+	}
+
+	// an existing index covers this definition if its leading columns are the same as this definition's columns
+	boolean isCoveredBy(List<String> indexColumns) {
+		if (indexColumns.size() < columns.size()) {
+			return false;
+		}
+
+		for (int i = 0; i < columns.size(); i++) {
+			if (!columns.get(i).equalsIgnoreCase(indexColumns.get(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return name + " on " + table + columns;
+	}
+}
@@ -0,0 +1,60 @@
+package com.alphawarthog.commons.configuration.schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+public final class SchemaUpgrade {
+
+	private final int version;
+	private final String description;
+	private final List<String> statements;
+	// table and name of each index dropped after the statements ran
+	private final List<String[]> droppedIndexes;
+
+	public SchemaUpgrade(int version, String description, String... statements) {
+		this(version, description, Collections.emptyList(), statements);
+	}
+
+	private SchemaUpgrade(int version, String description, List<String[]> droppedIndexes, String... statements) {
+		if (version < 1) {
+			throw new IllegalArgumentException("Schema version must be positive");
+		}
+
+		this.version = version;
+		this.description = Objects.requireNonNull(description, "Schema upgrade description cannot be null");
+		this.statements = Collections.unmodifiableList(Arrays.asList(statements));
+		this.droppedIndexes = droppedIndexes;
+	}
+
+	// dropped only where it exists, older deployments may never have created it or removed it by hand
+	public SchemaUpgrade dropIndex(String table, String indexName) {
+		List<String[]> dropped = new ArrayList<>(droppedIndexes);
+		dropped.add(new String[] {Objects.requireNonNull(table, "Index table cannot be null"),
+		                          Objects.requireNonNull(indexName, "Index name cannot be null")});
+		return new SchemaUpgrade(version, description, Collections.unmodifiableList(dropped), statements.toArray(new String[0]));
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public List<String> getStatements() {
+		return statements;
+	}
+
+	List<String[]> getDroppedIndexes() {
+		return droppedIndexes;
+	}
+
+	@Override
+	public String toString() {
+		return "v" + version + " (" + description + ")";
+	}
+}
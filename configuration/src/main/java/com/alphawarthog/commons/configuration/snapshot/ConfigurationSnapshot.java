@@ -0,0 +1,411 @@
+package com.alphawarthog.commons.configuration.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+
+/*
+ * Read-only binary image of a configuration tree, mapped into memory so nodes are read straight from the page cache.
+ *
+ * Layout, all integers little endian:
+ *   header      magic, format version, node count, attribute count, string count,
+ *               nodes offset, attributes offset, string index offset, string data offset
+ *   nodes       per node: key string, value string, first child node, child count, first attribute, attribute count
+ *   attributes  per attribute: key string, value string
+ *   string index per string: offset into string data, byte length
+ *   string data UTF-8 bytes of every distinct string
+ *
+ * Nodes are stored breadth first, so the children of a node are contiguous and node 0 is the root.
+ * A string reference of -1 stands for null. The whole layout is validated when the file is opened, a damaged
+ * file is rejected with a ConfigurationRuntimeException rather than failing on some later read.
+ */
+public final class ConfigurationSnapshot {
+
+	public static final int MAGIC = 0x41574353;
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int HEADER_SIZE = 9 * Integer.BYTES;
+	private static final int NODE_SIZE = 6 * Integer.BYTES;
+	private static final int ATTRIBUTE_SIZE = 2 * Integer.BYTES;
+	private static final int STRING_INDEX_SIZE = 2 * Integer.BYTES;
+	private static final int NO_STRING = -1;
+
+	private final Path file;
+	private final MappedByteBuffer buffer;
+	private final int nodeCount;
+	private final int attributeCount;
+	private final int stringCount;
+	private final int nodesOffset;
+	private final int attributesOffset;
+	private final int stringIndexOffset;
+	private final int stringDataOffset;
+
+	private ConfigurationSnapshot(Path file, MappedByteBuffer buffer) {
+		this.file = file;
+		this.buffer = buffer;
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new ConfigurationRuntimeException(file + " is not a configuration snapshot");
+		}
+
+		int version = buffer.getInt(4);
+		if (version != FORMAT_VERSION) {
+			throw new ConfigurationRuntimeException("Snapshot " + file + " has format version " + version + ", version " + FORMAT_VERSION + " expected");
+		}
+
+		this.nodeCount = buffer.getInt(8);
+		this.attributeCount = buffer.getInt(12);
+		this.stringCount = buffer.getInt(16);
+		this.nodesOffset = buffer.getInt(20);
+		this.attributesOffset = buffer.getInt(24);
+		this.stringIndexOffset = buffer.getInt(28);
+		this.stringDataOffset = buffer.getInt(32);
+		validate();
+	}
+
+	// every offset and length is checked once here, reads after that stay inside the mapping
+	private void validate() {
+		if (nodeCount < 1 || attributeCount < 0 || stringCount < 0 || nodesOffset < HEADER_SIZE
+		    || (long) nodesOffset + (long) nodeCount * NODE_SIZE > attributesOffset
+		    || (long) attributesOffset + (long) attributeCount * ATTRIBUTE_SIZE > stringIndexOffset
+		    || (long) stringIndexOffset + (long) stringCount * STRING_INDEX_SIZE > stringDataOffset
+		    || stringDataOffset > buffer.limit()) {
+			throw corrupt("is truncated or its sections overlap");
+		}
+
+		int stringDataLength = buffer.limit() - stringDataOffset;
+		for (int string = 0; string < stringCount; string++) {
+			int position = stringIndexOffset + string * STRING_INDEX_SIZE;
+			int offset = buffer.getInt(position);
+			int length = buffer.getInt(position + Integer.BYTES);
+			if (offset < 0 || length < 0 || (long) offset + length > stringDataLength) {
+				throw corrupt("has string " + string + " outside its string data");
+			}
+		}
+
+		// children come right after the ones of the previous node and always after their parent,
+		// so every node but the root has exactly one parent and there are no cycles
+		long nextChild = 1;
+		long nextAttribute = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			int position = nodesOffset + node * NODE_SIZE;
+			checkStringRef(buffer.getInt(position), "node " + node);
+			checkStringRef(buffer.getInt(position + Integer.BYTES), "node " + node);
+			int firstChild = buffer.getInt(position + 2 * Integer.BYTES);
+			int childCount = buffer.getInt(position + 3 * Integer.BYTES);
+			int firstAttribute = buffer.getInt(position + 4 * Integer.BYTES);
+			int nodeAttributeCount = buffer.getInt(position + 5 * Integer.BYTES);
+			if (childCount < 0 || firstChild != nextChild || (childCount > 0 && firstChild <= node)) {
+				throw corrupt("has invalid children for node " + node);
+			}
+
+			if (nodeAttributeCount < 0 || firstAttribute != nextAttribute) {
+				throw corrupt("has invalid attributes for node " + node);
+			}
+
+			nextChild += childCount;
+			nextAttribute += nodeAttributeCount;
+		}
+
+		if (nextChild != nodeCount || nextAttribute != attributeCount) {
+			throw corrupt("has " + nextChild + " nodes and " + nextAttribute + " attributes referenced, " + nodeCount + " and " + attributeCount + " stored");
+		}
+
+		for (int attribute = 0; attribute < attributeCount; attribute++) {
+			int position = attributesOffset + attribute * ATTRIBUTE_SIZE;
+			checkStringRef(buffer.getInt(position), "attribute " + attribute);
+			checkStringRef(buffer.getInt(position + Integer.BYTES), "attribute " + attribute);
+		}
+	}
+
+	private void checkStringRef(int ref, String owner) {
+		if (ref < NO_STRING || ref >= stringCount) {
+			throw corrupt("refers to unknown string " + ref + " from " + owner);
+		}
+	}
+
+	private ConfigurationRuntimeException corrupt(String reason) {
+		return new ConfigurationRuntimeException("Snapshot " + file + " " + reason);
+	}
+
+	public static ConfigurationSnapshot open(Path file) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed and is released when the buffer is collected
+			return new ConfigurationSnapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} catch (IOException e) {
+			throw new ConfigurationRuntimeException("Unable to open snapshot " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	public static void write(ImmutableNode root, Path file) {
+		Objects.requireNonNull(root, "Snapshot root cannot be null");
+
+		// breadth first numbering keeps children of a node next to each other
+		List<ImmutableNode> nodes = new ArrayList<>();
+		Deque<ImmutableNode> queue = new ArrayDeque<>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			ImmutableNode node = queue.poll();
+			nodes.add(node);
+			queue.addAll(node.getChildren());
+		}
+
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		int totalAttributes = 0;
+		for (ImmutableNode node : nodes) {
+			totalAttributes += node.getAttributes().size();
+		}
+
+		ByteBuffer nodeBuffer = ByteBuffer.allocate(nodes.size() * NODE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer attributeBuffer = ByteBuffer.allocate(totalAttributes * ATTRIBUTE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		int nextChild = 1;
+		int nextAttribute = 0;
+		for (ImmutableNode node : nodes) {
+			nodeBuffer.putInt(stringRef(strings, node.getNodeName()))
+			          .putInt(stringRef(strings, node.getValue()))
+			          .putInt(nextChild)
+			          .putInt(node.getChildren().size())
+			          .putInt(nextAttribute)
+			          .putInt(node.getAttributes().size());
+			nextChild += node.getChildren().size();
+			for (Map.Entry<String, Object> attribute : node.getAttributes().entrySet()) {
+				attributeBuffer.putInt(stringRef(strings, attribute.getKey()))
+				               .putInt(stringRef(strings, attribute.getValue()));
+				nextAttribute++;
+			}
+		}
+
+		List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+		ByteBuffer stringIndexBuffer = ByteBuffer.allocate(strings.size() * STRING_INDEX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		int stringDataLength = 0;
+		for (String string : strings.keySet()) {
+			byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+			encodedStrings.add(encoded);
+			stringIndexBuffer.putInt(stringDataLength).putInt(encoded.length);
+			stringDataLength += encoded.length;
+		}
+
+		int nodesOffset = HEADER_SIZE;
+		int attributesOffset = nodesOffset + nodeBuffer.capacity();
+		int stringIndexOffset = attributesOffset + attributeBuffer.capacity();
+		int stringDataOffset = stringIndexOffset + stringIndexBuffer.capacity();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+		                              .putInt(MAGIC)
+		                              .putInt(FORMAT_VERSION)
+		                              .putInt(nodes.size())
+		                              .putInt(totalAttributes)
+		                              .putInt(strings.size())
+		                              .putInt(nodesOffset)
+		                              .putInt(attributesOffset)
+		                              .putInt(stringIndexOffset)
+		                              .putInt(stringDataOffset);
+
+		// written next to the target and moved over it, readers never see a partial snapshot
+		Path directory = file.toAbsolutePath().getParent();
+		Path tempFile = null;
+		try {
+			tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				for (ByteBuffer section : Arrays.asList(header, nodeBuffer, attributeBuffer, stringIndexBuffer)) {
+					section.flip();
+					writeFully(channel, section);
+				}
+
+				for (byte[] encoded : encodedStrings) {
+					writeFully(channel, ByteBuffer.wrap(encoded));
+				}
+
+				channel.force(true);
+			}
+
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			if (tempFile != null) {
+				try {
+					Files.deleteIfExists(tempFile);
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+
+			throw new ConfigurationRuntimeException("Unable to write snapshot " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static int stringRef(Map<String, Integer> strings, Object value) {
+		if (value == null) {
+			return NO_STRING;
+		}
+
+		return strings.computeIfAbsent(value.toString(), s -> strings.size());
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer source) throws IOException {
+		while (source.hasRemaining()) {
+			channel.write(source);
+		}
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getRoot() {
+		return 0;
+	}
+
+	public String getKey(int node) {
+		return getString(nodeField(node, 0));
+	}
+
+	public String getValue(int node) {
+		return getString(nodeField(node, 1));
+	}
+
+	public int getChildCount(int node) {
+		return nodeField(node, 3);
+	}
+
+	public int getChild(int node, int index) {
+		if (index < 0 || index >= getChildCount(node)) {
+			throw new IndexOutOfBoundsException("Node " + node + " has no child " + index);
+		}
+
+		return nodeField(node, 2) + index;
+	}
+
+	// -1 for the root; first children grow with the node number, the parent is the last node whose children start
+	// at or before node
+	public int getParent(int node) {
+		if (node < 0 || node >= nodeCount) {
+			throw new IndexOutOfBoundsException("Snapshot has no node " + node);
+		}
+
+		if (node == getRoot()) {
+			return -1;
+		}
+
+		int low = 0;
+		int high = node - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (nodeField(middle, 2) <= node) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		return low;
+	}
+
+	public int getAttributeCount(int node) {
+		return nodeField(node, 5);
+	}
+
+	public String getAttributeKey(int node, int index) {
+		return getString(attributeField(node, index, 0));
+	}
+
+	public String getAttributeValue(int node, int index) {
+		return getString(attributeField(node, index, 1));
+	}
+
+	private int nodeField(int node, int field) {
+		if (node < 0 || node >= nodeCount) {
+			throw new IndexOutOfBoundsException("Snapshot has no node " + node);
+		}
+
+		return buffer.getInt(nodesOffset + node * NODE_SIZE + field * Integer.BYTES);
+	}
+
+	private int attributeField(int node, int index, int field) {
+		if (index < 0 || index >= getAttributeCount(node)) {
+			throw new IndexOutOfBoundsException("Node " + node + " has no attribute " + index);
+		}
+
+		int attribute = nodeField(node, 4) + index;
+		return buffer.getInt(attributesOffset + attribute * ATTRIBUTE_SIZE + field * Integer.BYTES);
+	}
+
+	private String getString(int ref) {
+		if (ref == NO_STRING) {
+			return null;
+		}
+
+		if (ref < 0 || ref >= stringCount) {
+			throw corrupt("refers to unknown string " + ref);
+		}
+
+		int indexPosition = stringIndexOffset + ref * STRING_INDEX_SIZE;
+		int offset = buffer.getInt(indexPosition);
+		int length = buffer.getInt(indexPosition + Integer.BYTES);
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position(stringDataOffset + offset);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public ImmutableNode toImmutableNode() {
+		return toImmutableNode(getRoot());
+	}
+
+	// built bottom up rather than recursively, a deep tree cannot exhaust the stack
+	public ImmutableNode toImmutableNode(int node) {
+		List<Integer> subtree = new ArrayList<>();
+		subtree.add(node);
+		for (int i = 0; i < subtree.size(); i++) {
+			for (int child = 0; child < getChildCount(subtree.get(i)); child++) {
+				subtree.add(getChild(subtree.get(i), child));
+			}
+		}
+
+		Map<Integer, ImmutableNode> built = new HashMap<>();
+		for (int i = subtree.size() - 1; i >= 0; i--) {
+			int current = subtree.get(i);
+			ImmutableNode.Builder builder = new ImmutableNode.Builder(getChildCount(current))
+			                                                 .name(getKey(current))
+			                                                 .value(getValue(current));
+			for (int attribute = 0; attribute < getAttributeCount(current); attribute++) {
+				builder.addAttribute(getAttributeKey(current, attribute), getAttributeValue(current, attribute));
+			}
+
+			for (int child = 0; child < getChildCount(current); child++) {
+				builder.addChild(built.remove(getChild(current, child)));
+			}
+
+			built.put(current, builder.create());
+		}
+
+		return built.get(node);
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigurationSnapshot[" + file + ", " + nodeCount + " nodes, " + attributeCount + " attributes, " + stringCount + " strings]";
+	}
+}
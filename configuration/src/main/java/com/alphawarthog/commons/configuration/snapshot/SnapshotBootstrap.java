@@ -0,0 +1,113 @@
+package com.alphawarthog.commons.configuration.snapshot;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.apache.commons.configuration2.ImmutableHierarchicalConfiguration;
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.tree.ExpressionEngine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+
+// serves a configuration from its local snapshot right away while the database copy is loaded in the background;
+// once loaded, the database configuration replaces the snapshot and a fresh snapshot is written for the next start
+public class SnapshotBootstrap {
+
+	protected final Logger logger = LogManager.getLogger(getClass());
+
+	private final Path snapshotFile;
+	private final CompletableFuture<DatabaseHierarchicalConfiguration> reconciliation = new CompletableFuture<>();
+	private volatile ImmutableHierarchicalConfiguration current;
+
+	private SnapshotBootstrap(Path snapshotFile, ExpressionEngine expressionEngine) {
+		this.snapshotFile = Objects.requireNonNull(snapshotFile, "Snapshot file cannot be null");
+		this.current = loadSnapshot(expressionEngine);
+	}
+
+	// the database load starts once the bootstrap is fully built, it never sees a half constructed instance
+	public static SnapshotBootstrap start(Path snapshotFile, Supplier<DatabaseHierarchicalConfiguration> databaseConfiguration, ExpressionEngine expressionEngine, Executor executor) {
+		Objects.requireNonNull(databaseConfiguration, "Database configuration supplier cannot be null");
+		SnapshotBootstrap bootstrap = new SnapshotBootstrap(snapshotFile, expressionEngine);
+		CompletableFuture.supplyAsync(databaseConfiguration, executor)
+		                 .thenApply(bootstrap::reconcile)
+		                 .whenComplete(bootstrap::completeReconciliation);
+		return bootstrap;
+	}
+
+	private void completeReconciliation(DatabaseHierarchicalConfiguration databaseConfig, Throwable e) {
+		if (e == null) {
+			reconciliation.complete(databaseConfig);
+			return;
+		}
+
+		logger.error("Unable to reconcile configuration with the database, {} keeps being served: {}",
+		             current == null ? "nothing" : "snapshot " + snapshotFile, e.getMessage(), e);
+		reconciliation.completeExceptionally(e);
+	}
+
+	private ImmutableHierarchicalConfiguration loadSnapshot(ExpressionEngine expressionEngine) {
+		if (!Files.isReadable(snapshotFile)) {
+			logger.info("No snapshot found at {}, configuration will be served once loaded from the database", snapshotFile);
+			return null;
+		}
+
+		try {
+			// reads are served from the mapping, nothing is decoded onto the heap up front
+			SnapshotConfiguration snapshotConfig = new SnapshotConfiguration(ConfigurationSnapshot.open(snapshotFile));
+			if (expressionEngine != null) {
+				snapshotConfig.setExpressionEngine(expressionEngine);
+			}
+
+			logger.info("Configuration served from {}", snapshotConfig.getSnapshot());
+			return snapshotConfig;
+		} catch (RuntimeException e) {
+			// a damaged snapshot only costs the fast start, the database is still the source of truth
+			logger.warn("Snapshot {} ignored: {}", snapshotFile, e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private DatabaseHierarchicalConfiguration reconcile(DatabaseHierarchicalConfiguration databaseConfig) {
+		this.current = databaseConfig;
+		try {
+			databaseConfig.writeSnapshot(snapshotFile);
+			logger.info("Configuration reconciled with the database, snapshot {} refreshed", snapshotFile);
+		} catch (ConfigurationRuntimeException e) {
+			logger.warn("Unable to refresh snapshot {}: {}", snapshotFile, e.getMessage(), e);
+		}
+
+		return databaseConfig;
+	}
+
+	public ImmutableHierarchicalConfiguration getConfiguration() {
+		ImmutableHierarchicalConfiguration result = current;
+		if (result != null) {
+			return result;
+		}
+
+		// without a usable snapshot the caller has to wait for the database
+		try {
+			return reconciliation.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConfigurationRuntimeException("Interrupted while loading configuration from the database", e);
+		} catch (ExecutionException e) {
+			throw new ConfigurationRuntimeException("Unable to load configuration from the database: " + e.getCause().getMessage(), e.getCause());
+		}
+	}
+
+	public boolean isReconciled() {
+		return reconciliation.isDone() && !reconciliation.isCompletedExceptionally();
+	}
+
+	public CompletableFuture<DatabaseHierarchicalConfiguration> getReconciliation() {
+		return reconciliation;
+	}
+}
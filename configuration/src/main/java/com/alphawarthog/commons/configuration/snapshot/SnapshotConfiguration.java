@@ -0,0 +1,128 @@
+package com.alphawarthog.commons.configuration.snapshot;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.commons.configuration2.AbstractHierarchicalConfiguration;
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.ImmutableHierarchicalConfiguration;
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.tree.NodeModel;
+import org.apache.commons.configuration2.tree.QueryResult;
+
+/*
+ * Read-only configuration answered straight from a mapped snapshot. Lookups walk the node array and decode only
+ * the strings they compare or return, nothing is copied onto the heap up front. Sub-configurations are views of
+ * the same snapshot rooted at another node.
+ */
+public class SnapshotConfiguration extends AbstractHierarchicalConfiguration<Integer> {
+
+	public SnapshotConfiguration(ConfigurationSnapshot snapshot) {
+		this(snapshot, snapshot.getRoot());
+	}
+
+	private SnapshotConfiguration(ConfigurationSnapshot snapshot, int root) {
+		super(new SnapshotNodeModel(snapshot, root));
+	}
+
+	public ConfigurationSnapshot getSnapshot() {
+		return ((SnapshotNodeModel) getModel()).getSnapshot();
+	}
+
+	private SnapshotConfiguration view(Integer node) {
+		SnapshotConfiguration result = new SnapshotConfiguration(getSnapshot(), node);
+		result.setExpressionEngine(getExpressionEngine());
+		result.setConversionHandler(getConversionHandler());
+		result.setListDelimiterHandler(getListDelimiterHandler());
+		return result;
+	}
+
+	private List<Integer> nodesAt(String key) {
+		return fetchNodeList(key).stream()
+		                         .filter(result -> !result.isAttributeResult())
+		                         .map(QueryResult::getNode)
+		                         .collect(Collectors.toList());
+	}
+
+	private Integer nodeAt(String key) {
+		List<Integer> nodes = nodesAt(key);
+		if (nodes.size() != 1) {
+			throw new ConfigurationRuntimeException("Passed in key must select exactly one node (found " + nodes.size() + "): " + key);
+		}
+
+		return nodes.get(0);
+	}
+
+	// supportUpdates has nothing to track, a snapshot does not change
+	@Override
+	public HierarchicalConfiguration<Integer> configurationAt(String key, boolean supportUpdates) {
+		return view(nodeAt(key));
+	}
+
+	@Override
+	public HierarchicalConfiguration<Integer> configurationAt(String key) {
+		return configurationAt(key, false);
+	}
+
+	@Override
+	public List<HierarchicalConfiguration<Integer>> configurationsAt(String key) {
+		return configurationsAt(key, false);
+	}
+
+	@Override
+	public List<HierarchicalConfiguration<Integer>> configurationsAt(String key, boolean supportUpdates) {
+		return nodesAt(key).stream()
+		                   .map(this::view)
+		                   .collect(Collectors.toList());
+	}
+
+	@Override
+	public List<HierarchicalConfiguration<Integer>> childConfigurationsAt(String key) {
+		return childConfigurationsAt(key, false);
+	}
+
+	@Override
+	public List<HierarchicalConfiguration<Integer>> childConfigurationsAt(String key, boolean supportUpdates) {
+		List<Integer> nodes = nodesAt(key);
+		if (nodes.size() != 1) {
+			return Collections.emptyList();
+		}
+
+		return getModel().getNodeHandler()
+		                 .getChildren(nodes.get(0))
+		                 .stream()
+		                 .map(this::view)
+		                 .collect(Collectors.toList());
+	}
+
+	@Override
+	public ImmutableHierarchicalConfiguration immutableConfigurationAt(String key, boolean supportUpdates) {
+		return view(nodeAt(key));
+	}
+
+	@Override
+	public ImmutableHierarchicalConfiguration immutableConfigurationAt(String key) {
+		return immutableConfigurationAt(key, false);
+	}
+
+	@Override
+	public List<ImmutableHierarchicalConfiguration> immutableConfigurationsAt(String key) {
+		return nodesAt(key).stream()
+		                   .map(this::view)
+		                   .collect(Collectors.toList());
+	}
+
+	@Override
+	public List<ImmutableHierarchicalConfiguration> immutableChildConfigurationsAt(String key) {
+		return childConfigurationsAt(key).stream()
+		                                 .map(ImmutableHierarchicalConfiguration.class::cast)
+		                                 .collect(Collectors.toList());
+	}
+
+	@Override
+	protected NodeModel<Integer> cloneNodeModel() {
+		SnapshotNodeModel model = (SnapshotNodeModel) getModel();
+		return new SnapshotNodeModel(model.getSnapshot(), model.getNodeHandler().getRootNode());
+	}
+}
@@ -0,0 +1,127 @@
+package com.alphawarthog.commons.configuration.snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.commons.configuration2.tree.NodeHandler;
+import org.apache.commons.configuration2.tree.NodeMatcher;
+
+// nodes are positions in the snapshot, everything is read from the mapping when asked for
+class SnapshotNodeHandler implements NodeHandler<Integer> {
+
+	private final ConfigurationSnapshot snapshot;
+	private final Integer root;
+
+	SnapshotNodeHandler(ConfigurationSnapshot snapshot, int root) {
+		this.snapshot = Objects.requireNonNull(snapshot, "Snapshot cannot be null");
+		this.root = root;
+	}
+
+	ConfigurationSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public String nodeName(Integer node) {
+		return snapshot.getKey(node);
+	}
+
+	public Object getValue(Integer node) {
+		return snapshot.getValue(node);
+	}
+
+	// the root of a sub-configuration has no parent within it
+	public Integer getParent(Integer node) {
+		return node.equals(root) ? null : snapshot.getParent(node);
+	}
+
+	public List<Integer> getChildren(Integer node) {
+		int childCount = snapshot.getChildCount(node);
+		if (childCount == 0) {
+			return Collections.emptyList();
+		}
+
+		List<Integer> result = new ArrayList<>(childCount);
+		for (int i = 0; i < childCount; i++) {
+			result.add(snapshot.getChild(node, i));
+		}
+
+		return result;
+	}
+
+	// keys are compared ignoring case, as the database configuration the snapshot was taken from does
+	public List<Integer> getChildren(Integer node, String name) {
+		List<Integer> result = new ArrayList<>();
+		for (int i = 0; i < snapshot.getChildCount(node); i++) {
+			int child = snapshot.getChild(node, i);
+			if (name.equalsIgnoreCase(snapshot.getKey(child))) {
+				result.add(child);
+			}
+		}
+
+		return result;
+	}
+
+	public <C> List<Integer> getMatchingChildren(Integer node, NodeMatcher<C> matcher, C criterion) {
+		List<Integer> result = new ArrayList<>();
+		for (Integer child : getChildren(node)) {
+			if (matcher.matches(child, this, criterion)) {
+				result.add(child);
+			}
+		}
+
+		return result;
+	}
+
+	public Integer getChild(Integer node, int index) {
+		return snapshot.getChild(node, index);
+	}
+
+	public int indexOfChild(Integer parent, Integer child) {
+		int childCount = snapshot.getChildCount(parent);
+		int index = childCount == 0 ? -1 : child - snapshot.getChild(parent, 0);
+		return index >= 0 && index < childCount ? index : -1;
+	}
+
+	public int getChildrenCount(Integer node, String name) {
+		return name == null ? snapshot.getChildCount(node) : getChildren(node, name).size();
+	}
+
+	public <C> int getMatchingChildrenCount(Integer node, NodeMatcher<C> matcher, C criterion) {
+		return getMatchingChildren(node, matcher, criterion).size();
+	}
+
+	public Set<String> getAttributes(Integer node) {
+		Set<String> result = new LinkedHashSet<>();
+		for (int i = 0; i < snapshot.getAttributeCount(node); i++) {
+			result.add(snapshot.getAttributeKey(node, i));
+		}
+
+		return result;
+	}
+
+	public boolean hasAttributes(Integer node) {
+		return snapshot.getAttributeCount(node) > 0;
+	}
+
+	public Object getAttributeValue(Integer node, String name) {
+		for (int i = 0; i < snapshot.getAttributeCount(node); i++) {
+			if (name.equals(snapshot.getAttributeKey(node, i))) {
+				return snapshot.getAttributeValue(node, i);
+			}
+		}
+
+		return null;
+	}
+
+	public boolean isDefined(Integer node) {
+		return snapshot.getValue(node) != null || hasAttributes(node) || snapshot.getChildCount(node) > 0;
+	}
+
+	public Integer getRootNode() {
+		return root;
+	}
+}
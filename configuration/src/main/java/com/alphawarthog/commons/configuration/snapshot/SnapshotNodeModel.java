@@ -0,0 +1,73 @@
+package com.alphawarthog.commons.configuration.snapshot;
+
+import java.util.Collection;
+
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+import org.apache.commons.configuration2.tree.NodeHandler;
+import org.apache.commons.configuration2.tree.NodeKeyResolver;
+import org.apache.commons.configuration2.tree.NodeModel;
+
+// a snapshot is never changed in place, it is replaced by writing a new one
+class SnapshotNodeModel implements NodeModel<Integer> {
+
+	private final SnapshotNodeHandler nodeHandler;
+
+	SnapshotNodeModel(ConfigurationSnapshot snapshot, int root) {
+		this.nodeHandler = new SnapshotNodeHandler(snapshot, root);
+	}
+
+	ConfigurationSnapshot getSnapshot() {
+		return nodeHandler.getSnapshot();
+	}
+
+	@Override
+	public NodeHandler<Integer> getNodeHandler() {
+		return nodeHandler;
+	}
+
+	@Override
+	public void setRootNode(Integer root) {
+		throw readOnly();
+	}
+
+	@Override
+	public void addProperty(String key, Iterable<?> values, NodeKeyResolver<Integer> resolver) {
+		throw readOnly();
+	}
+
+	@Override
+	public void addNodes(String key, Collection<? extends Integer> nodes, NodeKeyResolver<Integer> resolver) {
+		throw readOnly();
+	}
+
+	@Override
+	public void setProperty(String key, Object value, NodeKeyResolver<Integer> resolver) {
+		throw readOnly();
+	}
+
+	@Override
+	public Object clearTree(String key, NodeKeyResolver<Integer> resolver) {
+		throw readOnly();
+	}
+
+	@Override
+	public void clearProperty(String key, NodeKeyResolver<Integer> resolver) {
+		throw readOnly();
+	}
+
+	@Override
+	public void clear(NodeKeyResolver<Integer> resolver) {
+		throw readOnly();
+	}
+
+	// a heap copy of the subtree, only for callers that ask for one
+	@Override
+	public ImmutableNode getInMemoryRepresentation() {
+		return getSnapshot().toImmutableNode(nodeHandler.getRootNode());
+	}
+
+	private ConfigurationRuntimeException readOnly() {
+		return new ConfigurationRuntimeException("Snapshot " + getSnapshot().getFile() + " is read-only");
+	}
+}
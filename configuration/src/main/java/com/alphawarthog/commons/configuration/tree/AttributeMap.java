@@ -0,0 +1,104 @@
+package com.alphawarthog.commons.configuration.tree;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+// read-only map view over the sorted, interleaved attribute array of a DatabaseNode
+final class AttributeMap extends AbstractMap<String, String> {
+
+	private final String[] entries;
+
+	AttributeMap(String[] entries) {
+		this.entries = entries;
+	}
+
+	static String get(String[] entries, String key) {
+		int index = indexOf(entries, StringUtils.lowerCase(key));
+		return index < 0 ? null : entries[index + 1];
+	}
+
+	static boolean contains(String[] entries, String key) {
+		return indexOf(entries, StringUtils.lowerCase(key)) >= 0;
+	}
+
+	private static int indexOf(String[] entries, String key) {
+		if (key == null) {
+			return -1;
+		}
+
+		int low = 0;
+		int high = entries.length / 2 - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = entries[mid * 2].compareTo(key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid * 2;
+			}
+		}
+
+		return -1;
+	}
+
+	@Override
+	public int size() {
+		return entries.length / 2;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof String && indexOf(entries, (String) key) >= 0;
+	}
+
+	@Override
+	public String get(Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+
+		int index = indexOf(entries, (String) key);
+		return index < 0 ? null : entries[index + 1];
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		return new AbstractSet<Entry<String, String>>() {
+
+			@Override
+			public Iterator<Entry<String, String>> iterator() {
+				return new Iterator<Entry<String, String>>() {
+					private int index;
+
+					@Override
+					public boolean hasNext() {
+						return index < entries.length;
+					}
+
+					@Override
+					public Entry<String, String> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(entries[index], entries[index + 1]);
+						index += 2;
+						return entry;
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return AttributeMap.this.size();
+			}
+		};
+	}
+}
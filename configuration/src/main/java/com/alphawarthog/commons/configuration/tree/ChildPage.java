@@ -0,0 +1,73 @@
+package com.alphawarthog.commons.configuration.tree;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+// children of a node in (key, uuid) order, one page at a time; the token resumes after the last node of the page
+public final class ChildPage {
+
+	private static final char SEPARATOR = '/';
+
+	private final List<DatabaseNode> nodes;
+	private final String continuationToken;
+
+	ChildPage(List<DatabaseNode> nodes, boolean hasMore) {
+		this.nodes = Collections.unmodifiableList(nodes);
+		this.continuationToken = hasMore ? toToken(nodes.get(nodes.size() - 1)) : null;
+	}
+
+	public List<DatabaseNode> getNodes() {
+		return nodes;
+	}
+
+	// null on the last page
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+
+	public boolean hasMore() {
+		return continuationToken != null;
+	}
+
+	private static String toToken(DatabaseNode last) {
+		String position = last.getUuid() + SEPARATOR + last.getKey();
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// uuid first, it has a fixed length and keys may contain the separator
+	static UUID tokenUuid(String continuationToken) {
+		String position = decode(continuationToken);
+		return UUID.fromString(position.substring(0, position.indexOf(SEPARATOR)));
+	}
+
+	static String tokenKey(String continuationToken) {
+		String position = decode(continuationToken);
+		return position.substring(position.indexOf(SEPARATOR) + 1);
+	}
+
+	private static String decode(String continuationToken) {
+		try {
+			String position = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8);
+			if (position.indexOf(SEPARATOR) < 0) {
+				throw new IllegalArgumentException("separator missing");
+			}
+
+			return position;
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationRuntimeException("Invalid continuation token " + continuationToken + ": " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this).append("nodes", nodes.size())
+		                                .append("continuationToken", continuationToken)
+		                                .toString();
+	}
+}
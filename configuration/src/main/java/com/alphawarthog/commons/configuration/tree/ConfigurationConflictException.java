@@ -0,0 +1,13 @@
+package com.alphawarthog.commons.configuration.tree;
+
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+
+// a versioned write found a row changed since it was read, nothing of the write was applied
+public class ConfigurationConflictException extends ConfigurationRuntimeException {
+
+	private static final long serialVersionUID = -3172865519834220417L;
+
+	public ConfigurationConflictException(String message) {
+		super(message);
+	}
+}
@@ -2,9 +2,11 @@ package com.alphawarthog.commons.configuration.tree;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.UUID;
@@ -18,21 +20,39 @@ import org.apache.logging.log4j.Logger;
 
 public class DatabaseNode {
 	
-	protected final Logger logger = LogManager.getLogger(getClass());
+	// one logger for all nodes, large cached trees hold millions of instances
+	private static final Logger LOGGER = LogManager.getLogger(DatabaseNode.class);
+	
+	private static final String[] NO_ATTRIBUTES = new String[0];
 	
 	public static class Builder {
-		private String uuid;
-		private String parentUuid;
+		private UUID uuid;
+		private UUID parentUuid;
 		private String key;
 		private String value;
 		private Map<String, String> attributes;
+		private long version;
+		private DeferredLoader loader;
+		private boolean valueDeferred;
+		private boolean attributesDeferred;
+		private Set<String> deferredAttributeKeys;
 		
 		public Builder uuid(String uuid) {
+			this.uuid = uuid == null ? null : UUID.fromString(uuid);
+			return this;
+		}
+		
+		public Builder uuid(UUID uuid) {
 			this.uuid = uuid;
 			return this;
 		}
 		
 		public Builder parentUuid(String parentUuid) {
+			this.parentUuid = parentUuid == null ? null : UUID.fromString(parentUuid);
+			return this;
+		}
+		
+		public Builder parentUuid(UUID parentUuid) {
 			this.parentUuid = parentUuid;
 			return this;
 		}
@@ -52,58 +72,169 @@ public class DatabaseNode {
 			return this;
 		}
 		
+		public Builder version(long version) {
+			this.version = version;
+			return this;
+		}
+		
+		// value and attributes set to be deferred are read through loader on first access
+		Builder deferredLoader(DeferredLoader loader) {
+			this.loader = loader;
+			return this;
+		}
+		
+		Builder valueDeferred(boolean valueDeferred) {
+			this.valueDeferred = valueDeferred;
+			return this;
+		}
+		
+		// none of the attributes were read
+		Builder attributesDeferred(boolean attributesDeferred) {
+			this.attributesDeferred = attributesDeferred;
+			return this;
+		}
+		
+		// the attribute exists, its value was not read
+		Builder deferredAttribute(String attributeKey) {
+			if (deferredAttributeKeys == null) {
+				deferredAttributeKeys = new HashSet<>();
+			}
+			
+			deferredAttributeKeys.add(attributeKey);
+			return this;
+		}
+		
 		public DatabaseNode build() {
 			return new DatabaseNode(this);
 		}
 	}
 
-	private final String uuid;
-	private final String parentUuid;
+	// uuids are kept as their two halves, string forms are only built on request
+	private final long uuidMostSigBits;
+	private final long uuidLeastSigBits;
+	private final boolean hasParent;
+	private final long parentUuidMostSigBits;
+	private final long parentUuidLeastSigBits;
 	private final String key;
-	private final String value;
-	private final SortedMap<String, String> attributes;
-	private final String asString;
-	private final int hashCode;
+	// value and attributes are filled in once on first access when deferred, the volatile flags publish them
+	private String value;
+	// attribute keys and values interleaved, sorted by key; null while none were read, a null value while that
+	// value was not read
+	private String[] attributes;
+	// row version as read, only maintained by versioned storage
+	private final long version;
+	// null unless something was deferred
+	private final DeferredLoader loader;
+	private volatile boolean valueDeferred;
+	private volatile boolean attributesDeferred;
 	
 	private DatabaseNode(Builder builder) {
-		this.uuid = builder.uuid == null ? UUID.randomUUID().toString() : UUID.fromString(builder.uuid).toString();
-		this.parentUuid = builder.parentUuid == null ? null : UUID.fromString(builder.parentUuid).toString();
-		this.key = Objects.requireNonNull(StringUtils.lowerCase(StringUtils.trimToNull(builder.key)), "Configuration must have a key");
+		UUID nodeUuid = builder.uuid == null ? UUID.randomUUID() : builder.uuid;
+		this.uuidMostSigBits = nodeUuid.getMostSignificantBits();
+		this.uuidLeastSigBits = nodeUuid.getLeastSignificantBits();
+		this.hasParent = builder.parentUuid != null;
+		this.parentUuidMostSigBits = hasParent ? builder.parentUuid.getMostSignificantBits() : 0L;
+		this.parentUuidLeastSigBits = hasParent ? builder.parentUuid.getLeastSignificantBits() : 0L;
+		// keys repeat across siblings and subtrees, interning lets all nodes share one instance per key
+		this.key = Objects.requireNonNull(StringUtils.lowerCase(StringUtils.trimToNull(builder.key)), "Configuration must have a key").intern();
 		this.value = builder.value;
+		this.version = builder.version;
+		boolean someAttributesDeferred = builder.deferredAttributeKeys != null;
+		boolean deferring = builder.loader != null && (builder.valueDeferred || builder.attributesDeferred || someAttributesDeferred);
+		this.loader = deferring ? builder.loader : null;
+		this.valueDeferred = deferring && builder.valueDeferred;
+		if (deferring && builder.attributesDeferred) {
+			this.attributes = null;
+		} else if (deferring && someAttributesDeferred) {
+			this.attributes = toAttributeArray(builder.attributes, builder.deferredAttributeKeys);
+		} else {
+			this.attributes = toAttributeArray(builder.attributes, Collections.emptySet());
+		}
 		
-		SortedMap<String, String> sortedMap = new TreeMap<>();
-		if (MapUtils.isNotEmpty(builder.attributes)) {
-			for (Entry<String, String> attributeEntry : builder.attributes.entrySet()) {
-				String lowerAttributeKey = Objects.requireNonNull(StringUtils.lowerCase(StringUtils.trimToNull(attributeEntry.getKey())), "Attribute key cannot be null");
-				if (sortedMap.containsKey(lowerAttributeKey)) {
-					throw new ConfigurationRuntimeException("Duplicate attribute key: " + lowerAttributeKey);
-				}
-				
-				if (StringUtils.isBlank(attributeEntry.getValue())) {
-					throw new ConfigurationRuntimeException("Atribute value cannot be blank");
+		this.attributesDeferred = deferring && (builder.attributesDeferred || someAttributesDeferred);
+		
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Database node {} created", this);
+		}
+	}
+	
+	// deferred keys get a null value, which no attribute read from the database can have
+	private static String[] toAttributeArray(Map<String, String> attributeMap, Set<String> deferredAttributeKeys) {
+		if (MapUtils.isNotEmpty(attributeMap) || !deferredAttributeKeys.isEmpty()) {
+			SortedMap<String, String> sortedMap = new TreeMap<>();
+			if (attributeMap != null) {
+				for (Entry<String, String> attributeEntry : attributeMap.entrySet()) {
+					if (StringUtils.isBlank(attributeEntry.getValue())) {
+						throw new ConfigurationRuntimeException("Atribute value cannot be blank");
+					}
+					
+					putAttribute(sortedMap, attributeEntry.getKey(), StringUtils.trimToEmpty(attributeEntry.getValue()));
 				}
-				
-				sortedMap.put(lowerAttributeKey, StringUtils.trimToEmpty(attributeEntry.getValue()));
 			}
+			
+			for (String deferredAttributeKey : deferredAttributeKeys) {
+				putAttribute(sortedMap, deferredAttributeKey, null);
+			}
+			
+			String[] result = new String[sortedMap.size() * 2];
+			int i = 0;
+			for (Entry<String, String> attributeEntry : sortedMap.entrySet()) {
+				result[i++] = attributeEntry.getKey().intern();
+				result[i++] = attributeEntry.getValue();
+			}
+			
+			return result;
 		}
 		
-		this.attributes = Collections.unmodifiableSortedMap(sortedMap);
+		return NO_ATTRIBUTES;
+	}
+	
+	private static void putAttribute(SortedMap<String, String> sortedMap, String attributeKey, String attributeValue) {
+		String lowerAttributeKey = Objects.requireNonNull(StringUtils.lowerCase(StringUtils.trimToNull(attributeKey)), "Attribute key cannot be null");
+		if (sortedMap.containsKey(lowerAttributeKey)) {
+			throw new ConfigurationRuntimeException("Duplicate attribute key: " + lowerAttributeKey);
+		}
 		
-		this.asString = new ToStringBuilder(this).append("parentUuid", this.parentUuid)
-				                                 .append("key", this.key)
-				                                 .append("value", this.value)
-				                                 .append("attributes", this.attributes)
-				                                 .toString();
-		this.hashCode = this.uuid.hashCode();
-		logger.debug("Database node {} created", this);
+		sortedMap.put(lowerAttributeKey, attributeValue);
+	}
+	
+	private synchronized void loadValue() {
+		if (valueDeferred) {
+			value = loader.loadValue(this);
+			valueDeferred = false;
+		}
+	}
+	
+	private synchronized void loadAttributes() {
+		if (attributesDeferred) {
+			attributes = toAttributeArray(loader.loadAttributes(this), Collections.emptySet());
+			attributesDeferred = false;
+		}
+	}
+	
+	// false while the value is still in the database
+	public boolean isValueLoaded() {
+		return !valueDeferred;
+	}
+	
+	public boolean isAttributesLoaded() {
+		return !attributesDeferred;
 	}
 	
 	public String getUuid() {
-		return uuid;
+		return getUuidValue().toString();
+	}
+	
+	public UUID getUuidValue() {
+		return new UUID(uuidMostSigBits, uuidLeastSigBits);
 	}
 	
 	public String getParentUuid() {
-		return parentUuid;
+		return hasParent ? getParentUuidValue().toString() : null;
+	}
+	
+	public UUID getParentUuidValue() {
+		return hasParent ? new UUID(parentUuidMostSigBits, parentUuidLeastSigBits) : null;
 	}
 	
 	public String getKey() {
@@ -111,21 +242,68 @@ public class DatabaseNode {
 	}
 	
 	public String getValue() {
+		if (valueDeferred) {
+			loadValue();
+		}
+		
 		return value;
 	}
 	
 	public Map<String, String> getAttributes() {
+		if (attributesDeferred) {
+			loadAttributes();
+		}
+		
+		return attributes.length == 0 ? Collections.emptyMap() : new AttributeMap(attributes);
+	}
+	
+	// names only, deferred values stay in the database
+	public Set<String> getAttributeKeys() {
+		String[] known = knownAttributes();
+		return known.length == 0 ? Collections.emptySet() : new AttributeMap(known).keySet();
+	}
+	
+	public String getAttributeValue(String attributeKey) {
+		String[] known = knownAttributes();
+		String attributeValue = AttributeMap.get(known, attributeKey);
+		if (attributeValue == null && attributesDeferred && AttributeMap.contains(known, attributeKey)) {
+			loadAttributes();
+			attributeValue = AttributeMap.get(attributes, attributeKey);
+		}
+		
+		return attributeValue;
+	}
+	
+	public boolean hasAttributes() {
+		return knownAttributes().length > 0;
+	}
+	
+	// keys are known unless no attribute was read, values may still be deferred
+	private String[] knownAttributes() {
+		if (attributesDeferred && attributes == null) {
+			loadAttributes();
+		}
+		
 		return attributes;
 	}
 	
+	public long getVersion() {
+		return version;
+	}
+	
 	@Override
 	public String toString() {
-		return asString; 
+		return new ToStringBuilder(this).append("parentUuid", getParentUuid())
+				                        .append("key", this.key)
+				                        .append("value", valueDeferred ? "(deferred)" : this.value)
+				                        .append("attributes", attributes == null ? "(deferred)" : new AttributeMap(attributes))
+				                        .toString();
 	}
 	
 	@Override
 	public int hashCode() {
-		return hashCode;
+		long bits = uuidMostSigBits ^ uuidLeastSigBits;
+		return (int) (bits >> 32) ^ (int) bits;
 	}
 	
 	@Override
@@ -136,17 +314,18 @@ public class DatabaseNode {
 		
 		if (obj != null && obj.getClass() == DatabaseNode.class) {
 			DatabaseNode other = (DatabaseNode) obj;
-			return getUuid().equals(other.getUuid());
+			return uuidMostSigBits == other.uuidMostSigBits && uuidLeastSigBits == other.uuidLeastSigBits;
 		}
 		
 		return false;
 	}
 
 	public Builder toBuilder() {
-		return new Builder().uuid(this.uuid)
-				            .parentUuid(this.parentUuid)
+		return new Builder().uuid(getUuidValue())
+				            .parentUuid(getParentUuidValue())
 				            .key(this.key)
-				            .value(this.value)
-				            .attributes(new HashMap<>(this.attributes));
+				            .value(getValue())
+				            .attributes(new HashMap<>(getAttributes()))
+				            .version(this.version);
 	}
 }
@@ -26,7 +26,7 @@ public class DatabaseNodeHandler implements NodeHandler<DatabaseNode> {
 	}
 
 	public DatabaseNode getParent(DatabaseNode node) {
-		return node.getParentUuid() == null ? null : nodeModel.getNode(node.getParentUuid());
+		return node.getParentUuid() == null ? null : nodeModel.getNode(node.getParentUuidValue());
 	}
 
 	public List<DatabaseNode> getChildren(DatabaseNode node) {
@@ -64,19 +64,19 @@ public class DatabaseNodeHandler implements NodeHandler<DatabaseNode> {
 	}
 
 	public Set<String> getAttributes(DatabaseNode node) {
-		return node.getAttributes().keySet();
+		return node.getAttributeKeys();
 	}
 
 	public boolean hasAttributes(DatabaseNode node) {
-		return !node.getAttributes().isEmpty();
+		return node.hasAttributes();
 	}
 
 	public Object getAttributeValue(DatabaseNode node, String name) {
-		return node.getAttributes().get(StringUtils.lowerCase(name));
+		return node.getAttributeValue(name);
 	}
 
 	public boolean isDefined(DatabaseNode node) {
-		return StringUtils.isNotBlank(node.getValue()) || !getChildren(node).isEmpty() || !getAttributes(node).isEmpty();
+		return StringUtils.isNotBlank(node.getValue()) || node.hasAttributes() || !getChildren(node).isEmpty();
 	}
 
 	public DatabaseNode getRootNode() {
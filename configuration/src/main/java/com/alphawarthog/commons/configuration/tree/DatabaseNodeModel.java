@@ -1,20 +1,41 @@
 package com.alphawarthog.commons.configuration.tree;
 
+import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.IteratorUtils;
 import org.apache.commons.configuration2.XMLConfiguration;
 import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.tree.DefaultExpressionEngine;
+import org.apache.commons.configuration2.tree.DefaultExpressionEngineSymbols;
+import org.apache.commons.configuration2.tree.ExpressionEngine;
 import org.apache.commons.configuration2.tree.ImmutableNode;
 import org.apache.commons.configuration2.tree.NodeAddData;
 import org.apache.commons.configuration2.tree.NodeHandler;
@@ -22,10 +43,14 @@ import org.apache.commons.configuration2.tree.NodeKeyResolver;
 import org.apache.commons.configuration2.tree.NodeModel;
 import org.apache.commons.configuration2.tree.NodeUpdateData;
 import org.apache.commons.configuration2.tree.QueryResult;
+import org.apache.commons.configuration2.tree.xpath.XPathExpressionEngine;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.alphawarthog.commons.configuration.cache.BoundedCache;
+import com.alphawarthog.commons.configuration.metrics.OperationStatistics;
+import com.alphawarthog.commons.configuration.metrics.OperationStatistics.Operation;
 import com.alphawarthog.dbutils.Transaction;
 import com.alphawarthog.dbutils.TransactionManager;
 
@@ -39,22 +64,84 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 	private static final String WHERE_CONFIG_UUID_CLAUSE = "where configuration_uuid = ? ";
 	private static final String AND_KEY_CLAUSE = "and key = ? ";
 	
-	private static final String SELECT_ROOT = "select cfg.uuid, cfg.key, null as parent_uuid, cfg.value " +
+	// replaced by the version column, or a constant 0 when storage is not versioned
+	private static final String VERSION_COLUMN = "{version}";
+	
+	// replaced by the value and a value_deferred flag, values above the lazy load threshold are left out
+	private static final String VALUE_COLUMNS = "{value}";
+	
+	// replaced by the attribute value, or null when it is above the lazy load threshold
+	private static final String ATTRIBUTE_VALUE_COLUMN = "{attribute_value}";
+	
+	private static final String EAGER_VALUE_COLUMNS = "cfg.value, 0 as value_deferred";
+	
+	private static final String SELECT_ROOT = "select cfg.uuid, cfg.key, null as parent_uuid, " + VALUE_COLUMNS + ", " + VERSION_COLUMN + " " +
 	                                          "from configuration cfg, configuration_root root " +
 			                                  "where root.configuration_name = ? " +
 	                                          "  and cfg.uuid = root.root_uuid ";
 	
+	// expanded to one parameter per element of an in list
+	private static final String IN_PARAMETERS = "{in}";
+	
+	// roots of many configurations with their attributes
+	
+	private static final String SELECT_ROOTS_WITH_ATTRIBUTES = "select root.configuration_name, cfg.uuid, cfg.key, null as parent_uuid, " + VALUE_COLUMNS + ", " + VERSION_COLUMN + ", attr.key as attribute_key, " + ATTRIBUTE_VALUE_COLUMN + " " +
+	                                                           "from configuration_root root " +
+	                                                           "join configuration cfg on cfg.uuid = root.root_uuid " +
+	                                                           "left join configuration_attribute attr on attr.configuration_uuid = cfg.uuid " +
+	                                                           "where root.configuration_name in (" + IN_PARAMETERS + ") " +
+	                                                           "order by cfg.uuid ";
+	
+	// children of many parents, rows of the same node are adjacent
+	private static final String SELECT_BY_PARENTS_WITH_ATTRIBUTES = "select cfg.uuid, cfg.key, cfg.parent_uuid, " + VALUE_COLUMNS + ", " + VERSION_COLUMN + ", attr.key as attribute_key, " + ATTRIBUTE_VALUE_COLUMN + " " +
+	                                                                "from configuration cfg " +
+	                                                                "left join configuration_attribute attr on attr.configuration_uuid = cfg.uuid " +
+	                                                                "where cfg.parent_uuid in (" + IN_PARAMETERS + ") " +
+	                                                                "order by cfg.parent_uuid, cfg.key, cfg.value, cfg.uuid ";
+	
+	// bulk loads are split so the number of distinct statements stays small
+	private static final int MAX_IN_PARAMETERS = 100;
+	// parallel materialization does not split a level below this many parents, smaller chunks cost more queries than
+	// the workers save
+	private static final int MIN_FORKED_PARENTS = 16;
+	
+	// one pool per parallelism, shared by every model; idle workers end on their own
+	private static final ConcurrentMap<Integer, ForkJoinPool> MATERIALIZERS = new ConcurrentHashMap<>();
+	
+	private static final String SELECT_VALUE = "select cfg.value " +
+	                                           "from configuration cfg " +
+	                                           WHERE_UUID_CLAUSE;
+	
+	// keyset pages of children, resumed after the (key, uuid) of the last node of the previous page; ordered like
+	// the (parent_uuid, key, uuid) index of schema version 4 so a page is read off the index without sorting
+	private static final String SELECT_CHILDREN_PAGE = "select cfg.uuid, cfg.key, cfg.parent_uuid, " + VALUE_COLUMNS + ", " + VERSION_COLUMN + " " +
+	                                                   "from configuration cfg " +
+	                                                   "where cfg.parent_uuid = ? " +
+	                                                   "order by cfg.parent_uuid, cfg.key, cfg.uuid ";
+	
+	private static final String SELECT_CHILDREN_NEXT_PAGE = "select cfg.uuid, cfg.key, cfg.parent_uuid, " + VALUE_COLUMNS + ", " + VERSION_COLUMN + " " +
+	                                                        "from configuration cfg " +
+	                                                        "where cfg.parent_uuid = ? " +
+	                                                        "  and cfg.key >= ? and (cfg.key > ? or cfg.uuid > ?) " +
+	                                                        "order by cfg.parent_uuid, cfg.key, cfg.uuid ";
+	
+	private static final String SELECT_ATTRIBUTES_OF_NODES = "select attr.configuration_uuid, attr.key as attribute_key, " + ATTRIBUTE_VALUE_COLUMN + " " +
+	                                                         "from configuration_attribute attr " +
+	                                                         "where attr.configuration_uuid in (" + IN_PARAMETERS + ") ";
+	
 	private static final String SELECT_ATTRIBUTES = "select attr.key, attr.value " +
 	                                                "from configuration_attribute attr " +
 			                                        "where attr.configuration_uuid = ? ";
 	
-	private static final String SELECT_BY_PARENT = "select uuid, key, parent_uuid, value " +
-	                                               "from configuration " +
-	                                               "where parent_uuid = ? " +
-			                                       "order by key, value ";
+	// children together with their attributes in one round trip, rows of the same node are adjacent
+	private static final String SELECT_BY_PARENT_WITH_ATTRIBUTES = "select cfg.uuid, cfg.key, cfg.parent_uuid, " + VALUE_COLUMNS + ", " + VERSION_COLUMN + ", attr.key as attribute_key, " + ATTRIBUTE_VALUE_COLUMN + " " +
+	                                                               "from configuration cfg " +
+	                                                               "left join configuration_attribute attr on attr.configuration_uuid = cfg.uuid " +
+	                                                               "where cfg.parent_uuid = ? " +
+	                                                               "order by cfg.key, cfg.value, cfg.uuid ";
 	
-	private static final String SELECT_BY_UUID = "select uuid, key, parent_uuid, value " +
-	                                             "from configuration " +
+	private static final String SELECT_BY_UUID = "select cfg.uuid, cfg.key, cfg.parent_uuid, " + VALUE_COLUMNS + ", " + VERSION_COLUMN + " " +
+	                                             "from configuration cfg " +
 			                                     WHERE_UUID_CLAUSE;
 	
 	private static final String INSERT_CONFIG = "insert into configuration(uuid, parent_uuid, key, value) " +
@@ -92,11 +179,60 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 	                                           "set value = ? " +
 			                                   WHERE_UUID_CLAUSE;
 	
+	private static final String AND_VERSION_CLAUSE = "and version = ? ";
+	
+	private static final String UPDATE_VALUE_VERSIONED = "update configuration " +
+	                                                     "set value = ?, version = version + 1 " +
+	                                                     WHERE_UUID_CLAUSE +
+	                                                     AND_VERSION_CLAUSE;
+	
+	private static final String CLEAR_CONFIGURATION_VALUE_VERSIONED = "update configuration " +
+	                                                                  "set value = null, version = version + 1 " +
+	                                                                  WHERE_UUID_CLAUSE +
+	                                                                  AND_VERSION_CLAUSE;
+	
+	private static final String INCREMENT_REVISION = "update configuration_root " +
+	                                                 "set revision = revision + 1 " +
+	                                                 "where root_uuid = ? ";
+	
+	private static final String SELECT_REVISION = "select revision " +
+	                                              "from configuration_root " +
+	                                              "where root_uuid = ? ";
+	
+	private static final String INCREMENT_VERSION = "update configuration " +
+	                                                "set version = version + 1 " +
+	                                                WHERE_UUID_CLAUSE +
+	                                                AND_VERSION_CLAUSE;
+	
+	private static final String BUMP_VERSION = "update configuration " +
+	                                           "set version = version + 1 " +
+	                                           WHERE_UUID_CLAUSE;
+
+	
 	protected final Logger logger = LogManager.getLogger(getClass());
 	
 	private final DatabaseNodeHandler nodeHandler;
 	private final TransactionManager txManager;
-	private DatabaseNode root;
+	private final StorageOptions options;
+	private final UuidStorage uuidStorage;
+	private final String selectRoot;
+	private final String selectByParentWithAttributes;
+	private final String selectByUuid;
+	private final String selectRootsWithAttributes;
+	private final String selectByParentsWithAttributes;
+	private final String selectChildrenPage;
+	private final String selectChildrenNextPage;
+	private final String selectAttributesOfNodes;
+	private final ThreadLocal<Map<UUID, List<DatabaseNode>>> childrenMemo;
+	// children by parent uuid, shared with the models of other trees; null when children are always read
+	private final BoundedCache<UUID, List<DatabaseNode>> childrenCache;
+	// writers hold the lock shared by all models of the tree, readers only ever see a complete root
+	private final TreeLock lock;
+	// reads the values and attributes nodes were loaded without
+	private final DeferredLoader deferredLoader;
+	private volatile DatabaseNode root;
+	// root of the whole tree, whose configuration_root row carries the revision; root differs for views
+	private volatile UUID treeRootUuid;
 	
 	public DatabaseNodeModel(TransactionManager txManager, DatabaseNode rootNode) {
 		this(txManager, null, rootNode);
@@ -107,12 +243,17 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 	}
 	
 	public DatabaseNodeModel(TransactionManager txManager, String configurationName, XMLConfiguration xmlSource) {
-		this(txManager);
+		this(txManager, configurationName, xmlSource, StorageOptions.DEFAULT);
+	}
+	
+	public DatabaseNodeModel(TransactionManager txManager, String configurationName, XMLConfiguration xmlSource, StorageOptions options) {
+		this(txManager, options);
 		
 		String configName = Objects.requireNonNull(StringUtils.lowerCase(StringUtils.trimToNull(configurationName)), "Configuration name cannot be blank");
 		try (Transaction tx = txManager.beginTransaction()) {
 			this.root = createTree(tx, xmlSource.getNodeModel().getRootNode(), null);
-			tx.executeUpdate(INSERT_CONFIG_ROOT, configName, this.root.getUuid());
+			this.treeRootUuid = this.root.getUuidValue();
+			tx.executeUpdate(INSERT_CONFIG_ROOT, configName, uuidParameter(this.root));
 		} catch (SQLException e) {
 			String msg = "Unable to load configuration " + configurationName + " from XMLConfiguration " + xmlSource + ": " + e.getMessage();
 			logger.error(msg, e);
@@ -120,19 +261,112 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 		}
 	}
 	
-	private DatabaseNodeModel(TransactionManager txManager) {
+	private DatabaseNodeModel(TransactionManager txManager, StorageOptions options) {
+		this(txManager, withSchemaDefaults(txManager, options), new TreeLock(), new ThreadLocal<>(), null);
+	}
+	
+	// revisions are tracked unless the options say otherwise, once the schema has them: a reloading detector or
+	// revision check elsewhere would otherwise miss this model's writes
+	private static StorageOptions withSchemaDefaults(TransactionManager txManager, StorageOptions options) {
+		if (options.isTrackRevisionsSet()) {
+			return options;
+		}
+		
+		try (Transaction tx = txManager.beginTransaction()) {
+			DatabaseMetaData metaData = tx.getMetaData();
+			boolean upperCase = metaData.storesUpperCaseIdentifiers();
+			try (ResultSet rs = metaData.getColumns(null, null, upperCase ? "CONFIGURATION_ROOT" : "configuration_root", upperCase ? "REVISION" : "revision")) {
+				return options.toBuilder()
+				              .trackRevisions(rs.next())
+				              .build();
+			}
+		} catch (SQLException e) {
+			String msg = "Unable to find out whether configuration revisions are stored: " + e.getMessage();
+			LogManager.getLogger(DatabaseNodeModel.class).error(msg, e);
+			throw new ConfigurationRuntimeException(msg, e);
+		}
+	}
+	
+	private DatabaseNodeModel(TransactionManager txManager, StorageOptions options, TreeLock lock, ThreadLocal<Map<UUID, List<DatabaseNode>>> childrenMemo,
+	                          BoundedCache<UUID, List<DatabaseNode>> childrenCache) {
 		this.txManager = Objects.requireNonNull(txManager, "TransactionManager cannot be null");
+		this.options = Objects.requireNonNull(options, "StorageOptions cannot be null");
+		this.uuidStorage = options.getUuidStorage();
+		String versionColumn = options.isVersioned() ? "cfg.version" : "0 as version";
+		int threshold = options.getLazyLoadThreshold();
+		String valueColumns = options.isLazyLoading() ? "case when length(cfg.value) > " + threshold + " then null else cfg.value end as value, " +
+		                                                "case when length(cfg.value) > " + threshold + " then 1 else 0 end as value_deferred"
+		                                              : EAGER_VALUE_COLUMNS;
+		String attributeValueColumn = options.isLazyLoading() ? "case when length(attr.value) > " + threshold + " then null else attr.value end as attribute_value"
+		                                                      : "attr.value as attribute_value";
+		this.selectRoot = SELECT_ROOT.replace(VERSION_COLUMN, versionColumn)
+		                             .replace(VALUE_COLUMNS, valueColumns);
+		this.selectByParentWithAttributes = SELECT_BY_PARENT_WITH_ATTRIBUTES.replace(VERSION_COLUMN, versionColumn)
+		                                                                    .replace(VALUE_COLUMNS, valueColumns)
+		                                                                    .replace(ATTRIBUTE_VALUE_COLUMN, attributeValueColumn);
+		this.selectByUuid = SELECT_BY_UUID.replace(VERSION_COLUMN, versionColumn)
+		                                  .replace(VALUE_COLUMNS, valueColumns);
+		this.selectRootsWithAttributes = SELECT_ROOTS_WITH_ATTRIBUTES.replace(VERSION_COLUMN, versionColumn)
+		                                                             .replace(VALUE_COLUMNS, valueColumns)
+		                                                             .replace(ATTRIBUTE_VALUE_COLUMN, attributeValueColumn);
+		this.selectChildrenPage = SELECT_CHILDREN_PAGE.replace(VERSION_COLUMN, versionColumn)
+		                                              .replace(VALUE_COLUMNS, valueColumns);
+		this.selectChildrenNextPage = SELECT_CHILDREN_NEXT_PAGE.replace(VERSION_COLUMN, versionColumn)
+		                                                       .replace(VALUE_COLUMNS, valueColumns);
+		this.selectAttributesOfNodes = SELECT_ATTRIBUTES_OF_NODES.replace(ATTRIBUTE_VALUE_COLUMN, attributeValueColumn);
+		// whole subtrees are read to be materialized or compared, every value is needed
+		this.selectByParentsWithAttributes = SELECT_BY_PARENTS_WITH_ATTRIBUTES.replace(VERSION_COLUMN, versionColumn)
+		                                                                      .replace(VALUE_COLUMNS, EAGER_VALUE_COLUMNS)
+		                                                                      .replace(ATTRIBUTE_VALUE_COLUMN, "attr.value as attribute_value");
+		this.lock = lock;
+		this.childrenMemo = childrenMemo;
+		this.childrenCache = childrenCache;
 		this.nodeHandler = new DatabaseNodeHandler(this);
+		this.deferredLoader = new DeferredLoader() {
+			
+			@Override
+			public String loadValue(DatabaseNode node) {
+				Operation operation = beginOperation("loadValue", node.getKey());
+				try (Transaction tx = txManager.beginTransaction();
+				     ResultSet rs = tx.executeQuery(SELECT_VALUE, uuidParameter(node))) {
+					return rs.next() ? rs.getString("value") : null;
+				} catch (SQLException e) {
+					String msg = "Unable to load value of node " + node.getUuid() + ": " + e.getMessage();
+					logger.error(msg, e);
+					throw new ConfigurationRuntimeException(msg, e);
+				} finally {
+					operation.close();
+				}
+			}
+			
+			@Override
+			public Map<String, String> loadAttributes(DatabaseNode node) {
+				Operation operation = beginOperation("loadAttributes", node.getKey());
+				try (Transaction tx = txManager.beginTransaction()) {
+					return readAttributes(tx, node.getUuidValue());
+				} catch (SQLException e) {
+					String msg = "Unable to load attributes of node " + node.getUuid() + ": " + e.getMessage();
+					logger.error(msg, e);
+					throw new ConfigurationRuntimeException(msg, e);
+				} finally {
+					operation.close();
+				}
+			}
+		};
 	}
 	
 	public DatabaseNodeModel(TransactionManager txManager, String configurationName, DatabaseNode rootNode) {
-		this(txManager);
+		this(txManager, configurationName, rootNode, StorageOptions.DEFAULT);
+	}
+	
+	public DatabaseNodeModel(TransactionManager txManager, String configurationName, DatabaseNode rootNode, StorageOptions options) {
+		this(txManager, options);
 		
 		if (StringUtils.isNotBlank(configurationName)) {
 			String configName = StringUtils.lowerCase(configurationName.trim());
 			try (Transaction tx = txManager.beginTransaction();
 			     // check if configuration name already exists
-				 ResultSet rs = txManager.executeQuery(SELECT_ROOT, configName)) {
+				 ResultSet rs = tx.executeQuery(selectRoot, configName)) {
 				List<DatabaseNode> nodes = getNodes(tx, rs);
 				if (!nodes.isEmpty()) {
 					if (rootNode != null) {
@@ -142,6 +376,7 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 					
 					// assign root node from database
 					this.root = nodes.get(0);
+					this.treeRootUuid = this.root.getUuidValue();
 				} else {
 					// configuration doesn't exist, create new configuration and its root
 					DatabaseNode toInsert = rootNode.getParentUuid() == null ? rootNode : new DatabaseNode.Builder()
@@ -150,7 +385,8 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 	                        																			  .attributes(rootNode.getAttributes())
 	                        																			  .build();
 					this.root = createNode(tx, toInsert);
-					tx.executeUpdate(INSERT_CONFIG_ROOT, configName, this.root.getUuid());
+					this.treeRootUuid = this.root.getUuidValue();
+					tx.executeUpdate(INSERT_CONFIG_ROOT, configName, uuidParameter(this.root));
 				}
 			} catch (SQLException e) {
 				String msg = "Unable to create database node model for configuration " + configurationName + " with root " + rootNode + ": " + e.getMessage();
@@ -159,64 +395,324 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 			}
 		} else {
 			// load root node
-			this.root = getNode(rootNode.getUuid());
+			this.root = getNode(rootNode.getUuidValue());
 			if (this.root == null) {
 				throw new ConfigurationRuntimeException(rootNode + " is not a valid node");
 			}
+			
+			if (options.isTrackRevisions()) {
+				DatabaseNode treeRoot = this.root;
+				while (treeRoot != null && treeRoot.getParentUuidValue() != null) {
+					treeRoot = getNode(treeRoot.getParentUuidValue());
+				}
+				
+				this.treeRootUuid = treeRoot == null ? null : treeRoot.getUuidValue();
+			}
 		}
 	}
 	
 	public DatabaseNodeModel duplicate() {
-		return new DatabaseNodeModel(this.txManager, this.root);
+		DatabaseNodeModel duplicate = new DatabaseNodeModel(this.txManager, this.options, this.lock, this.childrenMemo, this.childrenCache);
+		duplicate.root = getNode(this.root.getUuidValue());
+		duplicate.treeRootUuid = this.treeRootUuid;
+		if (duplicate.root == null) {
+			throw new ConfigurationRuntimeException(this.root + " is not a valid node");
+		}
+		
+		return duplicate;
+	}
+	
+	// model of the subtree below a node that is already loaded, sharing everything with this model but its root
+	public DatabaseNodeModel view(DatabaseNode viewRoot) {
+		DatabaseNodeModel view = new DatabaseNodeModel(this.txManager, this.options, this.lock, this.childrenMemo, this.childrenCache);
+		view.root = Objects.requireNonNull(viewRoot, "View root cannot be null");
+		view.treeRootUuid = this.treeRootUuid;
+		return view;
+	}
+	
+	// models of existing configurations by name, roots read in bulk; names not found are left out. The models
+	// share childrenCache, each one drops what its writes touch
+	public static Map<String, DatabaseNodeModel> load(TransactionManager txManager, Collection<String> configurationNames, StorageOptions options,
+	                                                  BoundedCache<UUID, List<DatabaseNode>> childrenCache) {
+		List<String> names = configurationNames.stream()
+		                                       .map(name -> StringUtils.lowerCase(StringUtils.trimToNull(name)))
+		                                       .filter(Objects::nonNull)
+		                                       .distinct()
+		                                       .collect(Collectors.toList());
+		DatabaseNodeModel template = new DatabaseNodeModel(txManager, options);
+		Map<String, DatabaseNodeModel> result = new HashMap<>();
+		for (int from = 0; from < names.size(); from += MAX_IN_PARAMETERS) {
+			List<String> chunk = names.subList(from, Math.min(from + MAX_IN_PARAMETERS, names.size()));
+			Operation operation = template.beginOperation("load", chunk);
+			try (Transaction tx = txManager.beginTransaction();
+			     ResultSet rs = tx.executeQuery(expandIn(template.selectRootsWithAttributes, chunk.size()), chunk.toArray())) {
+				Map<UUID, String> rootNames = new HashMap<>();
+				for (DatabaseNode rootNode : template.getNodesWithAttributes(rs, rootNames)) {
+					DatabaseNodeModel model = new DatabaseNodeModel(txManager, template.options, new TreeLock(), new ThreadLocal<>(), childrenCache);
+					model.root = rootNode;
+					model.treeRootUuid = rootNode.getUuidValue();
+					if (childrenCache != null) {
+						model.lock.addChangeListener(childrenCache::invalidate);
+					}
+					
+					result.put(rootNames.get(rootNode.getUuidValue()), model);
+				}
+			} catch (SQLException e) {
+				String msg = "Unable to load configurations " + chunk + ": " + e.getMessage();
+				template.logger.error(msg, e);
+				throw new ConfigurationRuntimeException(msg, e);
+			} finally {
+				operation.close();
+			}
+		}
+		
+		return result;
+	}
+	
+	private static String expandIn(String statement, int parameterCount) {
+		return statement.replace(IN_PARAMETERS, String.join(", ", Collections.nCopies(parameterCount, "?")));
+	}
+	
+	public <T> T executeWrite(Supplier<T> write) {
+		lock.lockWrite();
+		try {
+			return write.get();
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+	
+	// the root is held rather than cached, a write that touched it reads it again before releasing the lock
+	private void unlockWriteWithCurrentRoot() {
+		try {
+			if (lock.isChanged(root.getUuidValue())) {
+				reloadRoot();
+			}
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+	
+	private boolean reloadRoot() {
+		DatabaseNode current = getNode(root.getUuidValue());
+		if (current != null) {
+			this.root = current;
+		}
+		
+		return current != null;
+	}
+	
+	// reads root again but keeps the children cached so far, unlike refresh(); false when root no longer exists
+	public boolean refreshRoot() {
+		lock.lockWrite();
+		try {
+			return reloadRoot();
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+	
+	// the writes of batch share one transaction, a failing one rolls them all back
+	public <T> T executeBatch(Supplier<T> batch) {
+		lock.lockWrite();
+		try {
+			return txManager.inTransaction(batch);
+		} catch (SQLException e) {
+			String msg = "Unable to commit batch of writes: " + e.getMessage();
+			logger.error(msg, e);
+			reloadRoot();
+			throw new ConfigurationRuntimeException(msg, e);
+		} catch (RuntimeException e) {
+			// the root may have been read again inside the rolled back transaction
+			reloadRoot();
+			throw e;
+		} finally {
+			lock.unlockWrite();
+		}
+	}
+	
+	// true inside executeBatch, whose writes commit or roll back together
+	public boolean isBatchInProgress() {
+		return txManager.hasBoundTransaction();
+	}
+	
+	// notified inside the write lock with the uuids of the nodes a write changed, removed or added children to,
+	// and of the parents of changed and removed nodes;
+	// listeners are shared by all models of the tree
+	public void addChangeListener(Consumer<Set<UUID>> listener) {
+		lock.addChangeListener(listener);
+	}
+	
+	// optimistic read stamp, 0 while a write is in progress
+	public long tryOptimisticRead() {
+		return lock.tryOptimisticRead();
+	}
+	
+	public boolean validate(long stamp) {
+		return lock.validate(stamp);
+	}
+	
+	// the statistics enabled for the TransactionManager, OperationStatistics.DISABLED when there are none
+	public OperationStatistics getStatistics() {
+		return OperationStatistics.of(txManager);
+	}
+	
+	private Operation beginOperation(String name, Object subject) {
+		return getStatistics().begin(name, subject);
+	}
+	
+	public StorageOptions getStorageOptions() {
+		return options;
+	}
+	
+	// one more revision per write transaction; a detached root has no row and nothing is counted
+	private void bumpRevision(Transaction tx) throws SQLException {
+		if (options.isTrackRevisions() && treeRootUuid != null) {
+			tx.executeUpdate(INCREMENT_REVISION, uuidStorage.toParameter(treeRootUuid));
+		}
+	}
+	
+	// revision of the tree in the database, -1 when it has none; needs schema version 3 and revision tracking
+	public long readRevision() {
+		if (treeRootUuid == null) {
+			return -1;
+		}
+		
+		try (Transaction tx = txManager.beginTransaction();
+		     ResultSet rs = tx.executeQuery(SELECT_REVISION, uuidStorage.toParameter(treeRootUuid))) {
+			return rs.next() ? rs.getLong("revision") : -1;
+		} catch (SQLException e) {
+			String msg = "Unable to read revision of tree " + treeRootUuid + ": " + e.getMessage();
+			logger.error(msg, e);
+			throw new ConfigurationRuntimeException(msg, e);
+		}
+	}
+	
+	// drops everything read so far and reads root again, for changes made by other processes
+	public void refresh() {
+		Operation operation = beginOperation("refresh", null);
+		try {
+			lock.lockWrite();
+			try {
+				DatabaseNode reloaded = getNode(root.getUuidValue());
+				if (reloaded == null) {
+					throw new ConfigurationRuntimeException(root + " no longer exists");
+				}
+			
+				this.root = reloaded;
+				if (childrenCache != null) {
+					childrenCache.clear();
+				}
+			} finally {
+				lock.unlockWrite();
+			}
+		} finally {
+			operation.close();
+		}
+	}
+	
+	private Object uuidParameter(DatabaseNode node) {
+		return uuidStorage.toParameter(node.getUuidValue());
 	}
 	
 	private List<DatabaseNode> getNodes(Transaction tx, ResultSet rs) throws SQLException {
 		List<DatabaseNode> result = new ArrayList<>();
 		while (rs.next()) {
-			String uuid = rs.getString("uuid");
+			UUID uuid = uuidStorage.read(rs, "uuid");
 			DatabaseNode.Builder builder = new DatabaseNode.Builder()
 														   .uuid(uuid)
-														   .key(rs.getString("key"));
-			String parentUuid = rs.getString("parent_uuid");
-			if (!rs.wasNull()) {
-				builder = builder.value(parentUuid);
-			}
+														   .key(rs.getString("key"))
+														   .parentUuid(uuidStorage.read(rs, "parent_uuid"))
+														   .version(rs.getLong("version"))
+														   .deferredLoader(deferredLoader)
+														   .valueDeferred(rs.getInt("value_deferred") == 1);
 		               									   
 			String value = rs.getString("value");
 			if (!rs.wasNull()) {
 				builder = builder.value(value);
 			}
 			
-			Map<String, String> attributes = new HashMap<>();
-			try (ResultSet rs2 = tx.executeQuery(SELECT_ATTRIBUTES, uuid)) {
-				while (rs2.next()) {
-					attributes.put(rs2.getString("key"), rs2.getString("value"));
-				}
+			// lazy loading saves the attribute query per node until the attributes are asked for
+			if (options.isLazyLoading()) {
+				builder = builder.attributesDeferred(true);
+			} else {
+				builder = builder.attributes(readAttributes(tx, uuid));
 			}
 			
-			result.add(builder.attributes(attributes)
-					          .build());
+			result.add(builder.build());
 		}
 		
 		return result;
 	}
 	
-	private DatabaseNode createTree(Transaction tx, ImmutableNode sourceNode, DatabaseNode parentTargetNode) throws SQLException {
-		Map<String, String> targetAttributes = sourceNode.getAttributes()
-				                                         .entrySet()
-				                                         .stream()
-				                                         .filter(entry -> entry.getValue() != null)
-				                                         .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().toString()));
+	private Map<String, String> readAttributes(Transaction tx, UUID uuid) throws SQLException {
+		Map<String, String> attributes = new HashMap<>();
+		try (ResultSet rs = tx.executeQuery(SELECT_ATTRIBUTES, uuidStorage.toParameter(uuid))) {
+			while (rs.next()) {
+				attributes.put(rs.getString("key"), rs.getString("value"));
+			}
+		}
 		
-		DatabaseNode.Builder targetNodeBuilder = new DatabaseNode.Builder()
-				                                         		 .key(sourceNode.getNodeName())
-				                                         		 .value(sourceNode.getValue() == null ? null : sourceNode.getValue().toString())
-				                                         		 .attributes(targetAttributes);
-		if (parentTargetNode != null) {
-			targetNodeBuilder.parentUuid(parentTargetNode.getUuid());
+		return attributes;
+	}
+	
+	private List<DatabaseNode> getNodesWithAttributes(ResultSet rs) throws SQLException {
+		return getNodesWithAttributes(rs, null);
+	}
+	
+	// configurationNames collects the configuration name of each node when the rows carry one
+	private List<DatabaseNode> getNodesWithAttributes(ResultSet rs, Map<UUID, String> configurationNames) throws SQLException {
+		List<DatabaseNode> result = new ArrayList<>();
+		DatabaseNode.Builder builder = null;
+		UUID currentUuid = null;
+		Map<String, String> attributes = null;
+		while (rs.next()) {
+			UUID uuid = uuidStorage.read(rs, "uuid");
+			if (!uuid.equals(currentUuid)) {
+				if (builder != null) {
+					result.add(builder.attributes(attributes).build());
+				}
+				
+				currentUuid = uuid;
+				attributes = new HashMap<>();
+				if (configurationNames != null) {
+					configurationNames.put(uuid, rs.getString("configuration_name"));
+				}
+				
+				builder = new DatabaseNode.Builder()
+				                          .uuid(uuid)
+				                          .key(rs.getString("key"))
+				                          .parentUuid(uuidStorage.read(rs, "parent_uuid"))
+				                          .version(rs.getLong("version"))
+				                          .deferredLoader(deferredLoader)
+				                          .valueDeferred(rs.getInt("value_deferred") == 1);
+				String value = rs.getString("value");
+				if (!rs.wasNull()) {
+					builder = builder.value(value);
+				}
+			}
+			
+			String attributeKey = rs.getString("attribute_key");
+			if (attributeKey != null) {
+				// attribute values are never null, a null one was above the lazy load threshold
+				String attributeValue = rs.getString("attribute_value");
+				if (attributeValue == null) {
+					builder = builder.deferredAttribute(attributeKey);
+				} else {
+					attributes.put(attributeKey, attributeValue);
+				}
+			}
 		}
 		
-	    DatabaseNode insertedNode = createNode(tx, targetNodeBuilder.build());
+		if (builder != null) {
+			result.add(builder.attributes(attributes).build());
+		}
+		
+		return result;
+	}
+	
+	private DatabaseNode createTree(Transaction tx, ImmutableNode sourceNode, DatabaseNode parentTargetNode) throws SQLException {
+	    DatabaseNode insertedNode = createNode(tx, toDatabaseNode(sourceNode, parentTargetNode == null ? null : parentTargetNode.getUuidValue()));
 	    
 	    for (ImmutableNode childSource : sourceNode.getChildren()) {
 	    	createTree(tx, childSource, insertedNode);
@@ -225,22 +721,50 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 	    return insertedNode;
 	}
 
+	// the parent's list of children holds the node, it goes stale too
+	private void touch(DatabaseNode node) {
+		lock.change(node.getUuidValue());
+		lock.touch(node.getParentUuidValue());
+	}
+
+	private static DatabaseNode toDatabaseNode(ImmutableNode sourceNode, UUID parentUuid) {
+		Map<String, String> targetAttributes = sourceNode.getAttributes()
+				                                         .entrySet()
+				                                         .stream()
+				                                         .filter(entry -> entry.getValue() != null)
+				                                         .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().toString()));
+		
+		return new DatabaseNode.Builder()
+		                       .parentUuid(parentUuid)
+		                       .key(sourceNode.getNodeName())
+		                       .value(sourceNode.getValue() == null ? null : sourceNode.getValue().toString())
+		                       .attributes(targetAttributes)
+		                       .build();
+	}
+
 	private DatabaseNode createNode(Transaction tx, DatabaseNode node) throws SQLException {
-		tx.executeQuery(INSERT_CONFIG, node.getUuid(), node.getParentUuid(), node.getKey(), node.getValue());
+		Object uuid = uuidParameter(node);
+		lock.touch(node.getParentUuidValue());
+		tx.executeUpdate(INSERT_CONFIG, uuid, uuidStorage.toParameter(node.getParentUuidValue()), node.getKey(), node.getValue());
 		for (Entry<String, String> attribute : node.getAttributes().entrySet()) {
-			tx.executeQuery(INSERT_ATTRIBUTE, node.getUuid(), attribute.getKey(), attribute.getValue());
+			tx.executeUpdate(INSERT_ATTRIBUTE, uuid, attribute.getKey(), attribute.getValue());
 		}
 		
 		return node;
 	}
 
 	public void setRootNode(DatabaseNode newRoot) {
-		DatabaseNode checkedRoot = getNode(newRoot.getUuid());
-		if (checkedRoot == null) {
-			throw new ConfigurationRuntimeException(newRoot + " is not a valid node");
-		}
+		lock.lockWrite();
+		try {
+			DatabaseNode checkedRoot = getNode(newRoot.getUuidValue());
+			if (checkedRoot == null) {
+				throw new ConfigurationRuntimeException(newRoot + " is not a valid node");
+			}
 		
-		this.root = checkedRoot;
+			this.root = checkedRoot;
+		} finally {
+			lock.unlockWrite();
+		}
 	}
 	
 	protected DatabaseNode getRootNode() {
@@ -252,34 +776,215 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 	}
 
 	public void addProperty(String key, Iterable<?> values, NodeKeyResolver<DatabaseNode> resolver) {
-		if (!IteratorUtils.isEmpty(values.iterator())) {
-			NodeAddData<DatabaseNode> nodeAddData = resolver.resolveAddKey(root, StringUtils.lowerCase(key), nodeHandler);
+		Operation operation = beginOperation("addProperty", key);
+		try {
+			lock.lockWrite();
+			try {
+				if (!IteratorUtils.isEmpty(values.iterator())) {
+					try (Transaction tx = txManager.beginTransaction()) {
+						bumpRevision(tx);
+						addProperty(tx, key, values, resolver, new HashSet<>());
+					} catch (SQLException e) {
+						String msg = "Unable to add property at key " + key + ": " + e.getMessage();
+						logger.error(msg, e);
+						throw new ConfigurationRuntimeException(msg, e);
+					}
+				}
+			} finally {
+				unlockWriteWithCurrentRoot();
+			}
+		} finally {
+			operation.close();
+		}
+	}
+	
+	private void addProperty(Transaction tx, String key, Iterable<?> values, NodeKeyResolver<DatabaseNode> resolver, Set<UUID> claimed) throws SQLException {
+		if (IteratorUtils.isEmpty(values.iterator())) {
+			return;
+		}
+		
+		NodeAddData<DatabaseNode> nodeAddData = resolver.resolveAddKey(root, StringUtils.lowerCase(key), nodeHandler);
+		bumpVersion(tx, nodeAddData.getParent(), claimed);
+		// add required paths first
+		DatabaseNode newNode = createPath(nodeAddData.getParent(), nodeAddData.getPathNodes(), null, tx);
+		if (nodeAddData.isAttribute()) {
+			touch(newNode);
+			tx.executeUpdate(INSERT_ATTRIBUTE, uuidParameter(newNode), nodeAddData.getNewNodeName(), values.iterator().next());
+		} else {
+			for (Object value : values) {
+				createNode(tx, new DatabaseNode.Builder()
+						                       .parentUuid(newNode.getUuidValue())
+						                       .key(nodeAddData.getNewNodeName())
+						                       .value(value.toString())
+						                       .build());
+			}
+		}
+	}
+	
+	// children fetched inside the supplier are remembered until it returns, nested calls share the outer memo
+	public <T> T withChildrenMemo(Supplier<T> batch) {
+		if (childrenMemo.get() != null) {
+			return batch.get();
+		}
+		
+		childrenMemo.set(new HashMap<>());
+		try {
+			return batch.get();
+		} finally {
+			childrenMemo.remove();
+		}
+	}
+	
+	/*
+	 * At most pageSize children of parent, starting after the position in continuationToken or at the first child
+	 * when it is null. Pages are read straight from the database and never cached: two queries per page, plus one
+	 * more per hundred nodes for their attributes. Children added or removed between pages are seen or not
+	 * depending on their position, none is returned twice.
+	 */
+	public ChildPage getChildPage(DatabaseNode parent, String continuationToken, int pageSize) {
+		Operation operation = beginOperation("getChildPage", parent.getKey());
+		try {
+			if (pageSize < 1) {
+				throw new IllegalArgumentException("Page size must be positive");
+			}
+		
 			try (Transaction tx = txManager.beginTransaction()) {
-				// add required paths first
-				DatabaseNode newNode = createPath(nodeAddData.getParent(), nodeAddData.getPathNodes(), null, tx);
-				if (nodeAddData.isAttribute()) {
-					tx.executeUpdate(INSERT_ATTRIBUTE, newNode.getUuid(), nodeAddData.getNewNodeName(), values.iterator().next());
-				} else {
-					for (Object value : values) {
-						createNode(tx, new DatabaseNode.Builder()
-								                       .parentUuid(newNode.getUuid())
-								                       .key(nodeAddData.getNewNodeName())
-								                       .value(value.toString())
-								                       .build());
+				Map<UUID, DatabaseNode.Builder> builders = new LinkedHashMap<>();
+				try (ResultSet rs = continuationToken == null ? tx.executeQuery(pageSize + 1, selectChildrenPage, uuidParameter(parent))
+				                                              : tx.executeQuery(pageSize + 1, selectChildrenNextPage, uuidParameter(parent),
+				                                                                ChildPage.tokenKey(continuationToken), ChildPage.tokenKey(continuationToken),
+				                                                                uuidStorage.toParameter(ChildPage.tokenUuid(continuationToken)))) {
+					while (rs.next() && builders.size() < pageSize + 1) {
+						UUID uuid = uuidStorage.read(rs, "uuid");
+						DatabaseNode.Builder builder = new DatabaseNode.Builder()
+						                                               .uuid(uuid)
+						                                               .key(rs.getString("key"))
+						                                               .parentUuid(uuidStorage.read(rs, "parent_uuid"))
+						                                               .version(rs.getLong("version"))
+						                                               .deferredLoader(deferredLoader)
+						                                               .valueDeferred(rs.getInt("value_deferred") == 1);
+						String value = rs.getString("value");
+						if (!rs.wasNull()) {
+							builder = builder.value(value);
+						}
+					
+						builders.put(uuid, builder);
+					}
+				}
+			
+				// one row more than asked for tells whether another page follows
+				boolean hasMore = builders.size() > pageSize;
+				List<UUID> uuids = new ArrayList<>(builders.keySet()).subList(0, Math.min(pageSize, builders.size()));
+				Map<UUID, Map<String, String>> attributes = new HashMap<>();
+				for (int from = 0; from < uuids.size(); from += MAX_IN_PARAMETERS) {
+					List<UUID> chunk = uuids.subList(from, Math.min(from + MAX_IN_PARAMETERS, uuids.size()));
+					Object[] params = chunk.stream().map(uuidStorage::toParameter).toArray();
+					try (ResultSet rs = tx.executeQuery(expandIn(selectAttributesOfNodes, chunk.size()), params)) {
+						while (rs.next()) {
+							UUID uuid = uuidStorage.read(rs, "configuration_uuid");
+							String attributeKey = rs.getString("attribute_key");
+							String attributeValue = rs.getString("attribute_value");
+							if (attributeValue == null) {
+								builders.get(uuid).deferredAttribute(attributeKey);
+							} else {
+								attributes.computeIfAbsent(uuid, u -> new HashMap<>()).put(attributeKey, attributeValue);
+							}
+						}
 					}
 				}
+			
+				List<DatabaseNode> nodes = new ArrayList<>(uuids.size());
+				for (UUID uuid : uuids) {
+					nodes.add(builders.get(uuid).attributes(attributes.get(uuid)).build());
+				}
+			
+				return new ChildPage(nodes, hasMore);
 			} catch (SQLException e) {
-				String msg = "Unable to add property at key " + key + ": " + e.getMessage();
+				String msg = "Unable to get page of children of node " + parent + ": " + e.getMessage();
 				logger.error(msg, e);
 				throw new ConfigurationRuntimeException(msg, e);
 			}
+		} finally {
+			operation.close();
 		}
 	}
 	
+	// all children of parent, read one page at a time as the iterator advances; memory is bounded by pageSize
+	public Iterator<DatabaseNode> iterateChildren(DatabaseNode parent, int pageSize) {
+		return new Iterator<DatabaseNode>() {
+			private ChildPage page;
+			private int index;
+			
+			@Override
+			public boolean hasNext() {
+				if (page == null) {
+					page = getChildPage(parent, null, pageSize);
+				}
+				
+				while (index == page.getNodes().size() && page.hasMore()) {
+					page = getChildPage(parent, page.getContinuationToken(), pageSize);
+					index = 0;
+				}
+				
+				return index < page.getNodes().size();
+			}
+			
+			@Override
+			public DatabaseNode next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				
+				return page.getNodes().get(index++);
+			}
+		};
+	}
+	
 	protected List<DatabaseNode> getChildren(DatabaseNode parentNode) {
+		Operation operation = beginOperation("getChildren", parentNode.getKey());
+		try {
+			Map<UUID, List<DatabaseNode>> memo = childrenMemo.get();
+			if (memo == null) {
+				return cachedChildren(parentNode);
+			}
+			
+			List<DatabaseNode> result = memo.get(parentNode.getUuidValue());
+			if (result != null) {
+				getStatistics().cacheHit();
+				return result;
+			}
+			
+			result = cachedChildren(parentNode);
+			memo.put(parentNode.getUuidValue(), result);
+			return result;
+		} finally {
+			operation.close();
+		}
+	}
+	
+	// same stamp protocol as the configuration caches: writers read the database, loads overlapping a write are not kept
+	private List<DatabaseNode> cachedChildren(DatabaseNode parentNode) {
+		long stamp = childrenCache == null ? 0 : lock.tryOptimisticRead();
+		if (stamp == 0) {
+			return loadChildren(parentNode);
+		}
+		
+		boolean[] loaded = {false};
+		List<DatabaseNode> result = childrenCache.get(parentNode.getUuidValue(), uuid -> {
+			loaded[0] = true;
+			return Collections.unmodifiableList(loadChildren(parentNode));
+		}, () -> lock.validate(stamp));
+		if (!loaded[0]) {
+			getStatistics().cacheHit();
+		}
+		
+		return result;
+	}
+	
+	private List<DatabaseNode> loadChildren(DatabaseNode parentNode) {
 		try (Transaction tx = txManager.beginTransaction();
-			 ResultSet rs = tx.executeQuery(SELECT_BY_PARENT, parentNode.getUuid())) {
-			return getNodes(tx, rs);
+			 ResultSet rs = tx.executeQuery(selectByParentWithAttributes, uuidParameter(parentNode))) {
+			return getNodesWithAttributes(rs);
 		} catch (SQLException e) {
 			String msg = "Unable to get children of node " + parentNode + ": " + e.getMessage();
 			logger.error(msg, e);
@@ -293,7 +998,7 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 		if (CollectionUtils.isNotEmpty(paths)) {
 			for (String path : paths) {
 				newNode = new DatabaseNode.Builder()
-				                          .parentUuid(newNode.getUuid())
+				                          .parentUuid(newNode.getUuidValue())
 				                          .key(path)
 				                          .build();
 				createNode(tx, newNode);
@@ -302,7 +1007,7 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 		
 		if (StringUtils.isNotBlank(newNodeName)) {
 			newNode = new DatabaseNode.Builder()
-					                  .parentUuid(newNode.getUuid())
+					                  .parentUuid(newNode.getUuidValue())
 					                  .key(newNodeName)
 					                  .build();
 			createNode(tx, newNode);
@@ -312,105 +1017,190 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 	}
 
 	public void addNodes(String key, Collection<? extends DatabaseNode> nodes, NodeKeyResolver<DatabaseNode> resolver) {
-		if (CollectionUtils.isNotEmpty(nodes)) {
-			NodeAddData<DatabaseNode> nodeAddData = resolver.resolveAddKey(root, StringUtils.lowerCase(key), nodeHandler);
-			if (nodeAddData.isAttribute()) {
-				throw new ConfigurationRuntimeException("Nodes cannot be added to an attribute, key " + key + " resolves to an attribute");
-			}
+		Operation operation = beginOperation("addNodes", key);
+		try {
+			lock.lockWrite();
+			try {
+				if (CollectionUtils.isNotEmpty(nodes)) {
+					NodeAddData<DatabaseNode> nodeAddData = resolver.resolveAddKey(root, StringUtils.lowerCase(key), nodeHandler);
+					if (nodeAddData.isAttribute()) {
+						throw new ConfigurationRuntimeException("Nodes cannot be added to an attribute, key " + key + " resolves to an attribute");
+					}
 			
-			try (Transaction tx = txManager.beginTransaction()) {
-				DatabaseNode newParent = createPath(nodeAddData.getParent(), nodeAddData.getPathNodes(), nodeAddData.getNewNodeName(), tx);
-				for (DatabaseNode node : nodes) {
-					createNode(tx, new DatabaseNode.Builder()
-							                       .uuid(node.getUuid())
-			                                       .parentUuid(newParent.getUuid())
-			                                       .key(node.getKey())
-			                                       .value(node.getValue())
-			                                       .attributes(node.getAttributes())
-			                                       .build());		                 
+					try (Transaction tx = txManager.beginTransaction()) {
+						bumpRevision(tx);
+						bumpVersion(tx, nodeAddData.getParent(), new HashSet<>());
+						DatabaseNode newParent = createPath(nodeAddData.getParent(), nodeAddData.getPathNodes(), nodeAddData.getNewNodeName(), tx);
+						for (DatabaseNode node : nodes) {
+							createNode(tx, new DatabaseNode.Builder()
+									                       .uuid(node.getUuidValue())
+					                                       .parentUuid(newParent.getUuidValue())
+					                                       .key(node.getKey())
+					                                       .value(node.getValue())
+					                                       .attributes(node.getAttributes())
+					                                       .build());		                 
+						}
+					} catch (SQLException e) {
+						String msg = "Unable to add nodes " + nodes + " at key " + key + ": " + e.getMessage();
+						logger.error(msg, e);
+						throw new ConfigurationRuntimeException(msg, e);
+					}
 				}
-			} catch (SQLException e) {
-				String msg = "Unable to add nodes " + nodes + " at key " + key + ": " + e.getMessage();
-				logger.error(msg, e);
-				throw new ConfigurationRuntimeException(msg, e);
+			} finally {
+				unlockWriteWithCurrentRoot();
 			}
+		} finally {
+			operation.close();
 		}
 	}
 
 	public void setProperty(String key, Object value, NodeKeyResolver<DatabaseNode> resolver) {
-		NodeUpdateData<DatabaseNode> nodeUpdateData = resolver.resolveUpdateKey(root, StringUtils.lowerCase(key), value, nodeHandler);
-		try (Transaction tx = txManager.beginTransaction()) {
-			// delete items
-			deleteProperty(tx, nodeUpdateData);
+		Operation operation = beginOperation("setProperty", key);
+		try {
+			lock.lockWrite();
+			try {
+				NodeUpdateData<DatabaseNode> nodeUpdateData = resolver.resolveUpdateKey(root, StringUtils.lowerCase(key), value, nodeHandler);
+				try (Transaction tx = txManager.beginTransaction()) {
+					bumpRevision(tx);
+					Set<UUID> claimed = new HashSet<>();
+					// delete items
+					deleteProperty(tx, nodeUpdateData, claimed);
 			
-			// update items
-			updateProperty(tx, nodeUpdateData);
+					// update items
+					updateProperty(tx, nodeUpdateData, claimed);
 			
-			// add items
-			addProperty(nodeUpdateData.getKey(), nodeUpdateData.getNewValues(), resolver);
-		} catch (SQLException e) {
-			String msg = "Unable to set property " + value + " at key " + key + ": " + e.getMessage();
-			logger.error(msg, e);
-			throw new ConfigurationRuntimeException(msg, e);
+					// add items
+					addProperty(tx, nodeUpdateData.getKey(), nodeUpdateData.getNewValues(), resolver, claimed);
+				} catch (SQLException e) {
+					String msg = "Unable to set property " + value + " at key " + key + ": " + e.getMessage();
+					logger.error(msg, e);
+					throw new ConfigurationRuntimeException(msg, e);
+				}
+			} finally {
+				unlockWriteWithCurrentRoot();
+			}
+		} finally {
+			operation.close();
 		}
 	}
 
-	private void updateProperty(Transaction tx, NodeUpdateData<DatabaseNode> nodeUpdateData) throws SQLException {
+	private void updateProperty(Transaction tx, NodeUpdateData<DatabaseNode> nodeUpdateData, Set<UUID> claimed) throws SQLException {
 		for (Entry<QueryResult<DatabaseNode>, Object> toUpdate : nodeUpdateData.getChangedValues().entrySet()) {
 			QueryResult<DatabaseNode> updateKey = toUpdate.getKey();
 			Object updateValue = toUpdate.getValue();
+			touch(updateKey.getNode());
 			if (updateKey.isAttributeResult()) {
+				claimNode(tx, updateKey.getNode(), claimed);
 				if (updateValue == null) {
-					tx.executeQuery(DELETE_ATTRIBUTE, updateKey.getNode().getUuid(), updateKey.getAttributeName());
+					tx.executeUpdate(DELETE_ATTRIBUTE, uuidParameter(updateKey.getNode()), updateKey.getAttributeName());
 				} else {
-					tx.executeQuery(UPDATE_ATTRIBUTE, updateValue.toString(), updateKey.getNode().getUuid(), updateKey.getAttributeName());
+					tx.executeUpdate(UPDATE_ATTRIBUTE, updateValue.toString(), uuidParameter(updateKey.getNode()), updateKey.getAttributeName());
 				}
 			} else {
-				if (updateValue == null) {
-					tx.executeQuery(CLEAR_CONFIGURATION_VALUE, updateKey.getNode().getUuid());
-				} else {
-					tx.executeQuery(UPDATE_VALUE, updateValue.toString(), updateKey.getNode().getUuid());
-				}
+				updateValue(tx, updateKey.getNode(), updateValue == null ? null : updateValue.toString(), claimed);
 			}
 		}
 	}
+	
+	/*
+	 * Versioned storage checks the version a node was read with on the first statement a transaction runs
+	 * against it and increments it. The transaction keeps the row locked from then on, so later statements
+	 * on the same node need no check. A failed check rolls the whole transaction back; a joined transaction is
+	 * left to the batch that began it, which rolls back when the conflict reaches it.
+	 */
+	private boolean claim(DatabaseNode node, Set<UUID> claimed) {
+		return options.isVersioned() && claimed.add(node.getUuidValue());
+	}
+	
+	private void checkVersion(Transaction tx, DatabaseNode node, int affectedRows) throws SQLException {
+		if (affectedRows == 0) {
+			if (!tx.isJoined()) {
+				tx.rollback();
+			}
+			
+			throw new ConfigurationConflictException(node + " was changed or removed after version " + node.getVersion() + " was read");
+		}
+	}
+	
+	private void claimNode(Transaction tx, DatabaseNode node, Set<UUID> claimed) throws SQLException {
+		if (claim(node, claimed)) {
+			lock.change(node.getUuidValue());
+			checkVersion(tx, node, tx.executeUpdate(INCREMENT_VERSION, uuidParameter(node), node.getVersion()));
+		}
+	}
+	
+	// adding children changes the parent without a check: writers still holding its old version conflict, while
+	// writers adding other children below it do not
+	private void bumpVersion(Transaction tx, DatabaseNode node, Set<UUID> claimed) throws SQLException {
+		if (claim(node, claimed)) {
+			lock.change(node.getUuidValue());
+			tx.executeUpdate(BUMP_VERSION, uuidParameter(node));
+		}
+	}
+	
+	private void updateValue(Transaction tx, DatabaseNode node, String value, Set<UUID> claimed) throws SQLException {
+		if (claim(node, claimed)) {
+			checkVersion(tx, node, value == null ? tx.executeUpdate(CLEAR_CONFIGURATION_VALUE_VERSIONED, uuidParameter(node), node.getVersion())
+			                                     : tx.executeUpdate(UPDATE_VALUE_VERSIONED, value, uuidParameter(node), node.getVersion()));
+		} else if (value == null) {
+			tx.executeUpdate(CLEAR_CONFIGURATION_VALUE, uuidParameter(node));
+		} else {
+			tx.executeUpdate(UPDATE_VALUE, value, uuidParameter(node));
+		}
+	}
 
-	private void deleteProperty(Transaction tx, NodeUpdateData<DatabaseNode> nodeUpdateData) throws SQLException {
+	private void deleteProperty(Transaction tx, NodeUpdateData<DatabaseNode> nodeUpdateData, Set<UUID> claimed) throws SQLException {
 		for (QueryResult<DatabaseNode> toRemove : nodeUpdateData.getRemovedNodes()) {
 			if (toRemove.isAttributeResult()) {
-				tx.executeUpdate(DELETE_ATTRIBUTE, toRemove.getNode().getUuid(), toRemove.getAttributeName());
+				touch(toRemove.getNode());
+				claimNode(tx, toRemove.getNode(), claimed);
+				tx.executeUpdate(DELETE_ATTRIBUTE, uuidParameter(toRemove.getNode()), toRemove.getAttributeName());
 			} else {
-				deleteNode(toRemove.getNode(), tx);
+				deleteNode(toRemove.getNode(), tx, claimed);
 			}
 		}
 	}
 
 	public Object clearTree(String key, NodeKeyResolver<DatabaseNode> resolver) {
-		List<ImmutableNode> result = new ArrayList<>();
-		try (Transaction tx = txManager.beginTransaction()) {
-			for (DatabaseNode nodeToClear : resolver.resolveNodeKey(root, StringUtils.lowerCase(key), nodeHandler)) {
-				result.add(deleteNode(nodeToClear, tx));
+		Operation operation = beginOperation("clearTree", key);
+		try {
+			lock.lockWrite();
+			try {
+				List<ImmutableNode> result = new ArrayList<>();
+				try (Transaction tx = txManager.beginTransaction()) {
+					bumpRevision(tx);
+					Set<UUID> claimed = new HashSet<>();
+					for (DatabaseNode nodeToClear : resolver.resolveNodeKey(root, StringUtils.lowerCase(key), nodeHandler)) {
+						result.add(deleteNode(nodeToClear, tx, claimed));
+					}
+				} catch (SQLException e) {
+					String msg = "Unable to clear tree at " + key + ": " + e.getMessage();
+					logger.error(msg, e);
+					throw new ConfigurationRuntimeException(msg, e);
+				}
+		
+				return result;
+			} finally {
+				unlockWriteWithCurrentRoot();
 			}
-		} catch (SQLException e) {
-			String msg = "Unable to clear tree at " + key + ": " + e.getMessage();
-			logger.error(msg, e);
-			throw new ConfigurationRuntimeException(msg, e);
+		} finally {
+			operation.close();
 		}
-		
-		return result;
 	}
 	
-	private ImmutableNode deleteNode(DatabaseNode node, Transaction tx) throws SQLException {
+	private ImmutableNode deleteNode(DatabaseNode node, Transaction tx, Set<UUID> claimed) throws SQLException {
 		ImmutableNode result = getInMemoryRepresentation(node); 
 		
-		String uuid = node.getUuid();
+		Object uuid = uuidParameter(node);
+		touch(node);
+		claimNode(tx, node, claimed);
 		
 		// delete attributes first
 		tx.executeUpdate(DELETE_ATTRIBUTES, uuid);
 		
 		// delete children one by one
 		for (DatabaseNode childNode : getChildren(node)) {
-			deleteNode(childNode, tx);
+			deleteNode(childNode, tx, claimed);
 		}
 		
 		// delete root if the node is a root node
@@ -423,45 +1213,448 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 	}
 
 	public void clearProperty(String key, NodeKeyResolver<DatabaseNode> resolver) {
-		List<QueryResult<DatabaseNode>> toClearList = resolver.resolveKey(root, StringUtils.lowerCase(key), nodeHandler);
-		if (CollectionUtils.isNotEmpty(toClearList)) {
-			try (Transaction tx = txManager.beginTransaction()) {
-				for (QueryResult<DatabaseNode> toClear : toClearList) {
-					if (toClear.isAttributeResult()) {
-						tx.executeUpdate(DELETE_ATTRIBUTE, toClear.getNode().getUuid(), toClear.getAttributeName());
-					} else {
-						tx.executeUpdate(CLEAR_CONFIGURATION_VALUE, toClear.getNode().getUuid());
+		Operation operation = beginOperation("clearProperty", key);
+		try {
+			lock.lockWrite();
+			try {
+				List<QueryResult<DatabaseNode>> toClearList = resolver.resolveKey(root, StringUtils.lowerCase(key), nodeHandler);
+				if (CollectionUtils.isNotEmpty(toClearList)) {
+					try (Transaction tx = txManager.beginTransaction()) {
+						bumpRevision(tx);
+						Set<UUID> claimed = new HashSet<>();
+						for (QueryResult<DatabaseNode> toClear : toClearList) {
+							touch(toClear.getNode());
+							if (toClear.isAttributeResult()) {
+								claimNode(tx, toClear.getNode(), claimed);
+								tx.executeUpdate(DELETE_ATTRIBUTE, uuidParameter(toClear.getNode()), toClear.getAttributeName());
+							} else {
+								updateValue(tx, toClear.getNode(), null, claimed);
+							}
+						}
+					} catch (SQLException e) {
+						String msg = "Unable to clear property for key " + key + ": " + e.getMessage();
+						logger.error(msg, e);
+						throw new ConfigurationRuntimeException(msg, e);
+					}
+				}
+			} finally {
+				unlockWriteWithCurrentRoot();
+			}
+		} finally {
+			operation.close();
+		}
+	}
+
+	public void clear(NodeKeyResolver<DatabaseNode> resolver) {
+		Operation operation = beginOperation("clear", null);
+		try {
+			lock.lockWrite();
+			try {
+				try (Transaction tx = txManager.beginTransaction()) {
+					bumpRevision(tx);
+					deleteNode(root, tx, new HashSet<>());
+				} catch (SQLException e) {
+					String msg = "Unable to clear tree at root " + root + ": " + e.getMessage();
+					logger.error(msg, e);
+					throw new ConfigurationRuntimeException(msg, e);
+				}
+			} finally {
+				unlockWriteWithCurrentRoot();
+			}
+		} finally {
+			operation.close();
+		}
+	}
+	
+	/*
+	 * Brings the tree below root in line with source, writing only what differs. The stored tree is read one level
+	 * at a time and compared in memory; the changes are sent as statement batches in one transaction. Children are
+	 * matched by name; among siblings sharing a name, identical ones are paired first and the rest in order. The
+	 * name of root itself is kept. Keys in the report are spelled for expressionEngine.
+	 */
+	public ImportReport importTree(ImmutableNode source, ExpressionEngine expressionEngine) {
+		Operation operation = beginOperation("importTree", null);
+		try {
+			lock.lockWrite();
+			try {
+				try (Transaction tx = txManager.beginTransaction()) {
+					Map<UUID, List<DatabaseNode>> storedChildren = loadDescendants(tx, root);
+					Map<String, List<Object[]>> statements = new LinkedHashMap<>();
+					// claims first so a conflict is found before anything changes, deletes before inserts
+					for (String statement : Arrays.asList(INCREMENT_VERSION, DELETE_ATTRIBUTE, DELETE_ATTRIBUTES, DELETE_CONFIGURATION_ROOT, DELETE_CONFIGURATION,
+					                                      UPDATE_VALUE, CLEAR_CONFIGURATION_VALUE, UPDATE_ATTRIBUTE, INSERT_CONFIG, INSERT_ATTRIBUTE)) {
+						statements.put(statement, new ArrayList<>());
+					}
+				
+					ImportReport report = new ImportReport();
+					diffNode(root, source, "", expressionEngine, storedChildren, statements, report);
+					if (report.hasChanges()) {
+						bumpRevision(tx);
+					}
+				
+					for (Entry<String, List<Object[]>> statement : statements.entrySet()) {
+						executeImportBatch(tx, statement.getKey(), statement.getValue());
+					}
+				
+					logger.info("Import into {} done: {}", root, report);
+					return report;
+				} catch (SQLException e) {
+					String msg = "Unable to import tree into " + root + ": " + e.getMessage();
+					logger.error(msg, e);
+					throw new ConfigurationRuntimeException(msg, e);
+				}
+			} finally {
+				unlockWriteWithCurrentRoot();
+			}
+		} finally {
+			operation.close();
+		}
+	}
+	
+	private void executeImportBatch(Transaction tx, String statement, List<Object[]> batch) throws SQLException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		
+		for (Object[] params : batch) {
+			tx.addBatch(statement, params);
+		}
+		
+		int[] affectedRows = tx.executeBatch(statement);
+		if (statement.equals(INCREMENT_VERSION)) {
+			for (int i = 0; i < affectedRows.length; i++) {
+				if (affectedRows[i] == 0) {
+					tx.rollback();
+					throw new ConfigurationConflictException("Node " + batch.get(i)[0] + " was changed or removed after version " + batch.get(i)[1] + " was read");
+				}
+			}
+		}
+	}
+	
+	// children lists by parent uuid for every node below parent
+	private Map<UUID, List<DatabaseNode>> loadDescendants(Transaction tx, DatabaseNode parent) throws SQLException {
+		Map<UUID, List<DatabaseNode>> result = new HashMap<>();
+		List<DatabaseNode> level = Collections.singletonList(parent);
+		while (!level.isEmpty()) {
+			List<DatabaseNode> nextLevel = new ArrayList<>();
+			for (int from = 0; from < level.size(); from += MAX_IN_PARAMETERS) {
+				List<DatabaseNode> chunk = level.subList(from, Math.min(from + MAX_IN_PARAMETERS, level.size()));
+				try (ResultSet rs = tx.executeQuery(expandIn(selectByParentsWithAttributes, chunk.size()), chunk.stream().map(this::uuidParameter).toArray())) {
+					for (DatabaseNode child : getNodesWithAttributes(rs)) {
+						result.computeIfAbsent(child.getParentUuidValue(), uuid -> new ArrayList<>()).add(child);
+						nextLevel.add(child);
 					}
 				}
+			}
+			
+			level = nextLevel;
+		}
+		
+		return result;
+	}
+	
+	// same as loadDescendants; each chunk of parents is read in its own transaction on the materializer pool and
+	// the children it returns are forked again, so sibling subtrees are read side by side
+	private Map<UUID, List<DatabaseNode>> loadDescendantsInParallel(DatabaseNode parent) {
+		Map<UUID, List<DatabaseNode>> result = new ConcurrentHashMap<>();
+		materializer().invoke(new LoadChildren(Collections.singletonList(parent), result));
+		return result;
+	}
+	
+	private ForkJoinPool materializer() {
+		return MATERIALIZERS.computeIfAbsent(options.getMaterializationParallelism(), parallelism -> new ForkJoinPool(parallelism, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("configuration-materializer-" + thread.getPoolIndex());
+			thread.setDaemon(true);
+			return thread;
+		}, null, false));
+	}
+	
+	private final class LoadChildren extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final List<DatabaseNode> parents;
+		private final Map<UUID, List<DatabaseNode>> result;
+		
+		private LoadChildren(List<DatabaseNode> parents, Map<UUID, List<DatabaseNode>> result) {
+			this.parents = parents;
+			this.result = result;
+		}
+		
+		@Override
+		protected void compute() {
+			// the connection goes back to the pool before the children are forked
+			List<DatabaseNode> children;
+			try (Transaction tx = txManager.beginTransaction();
+			     ResultSet rs = tx.executeQuery(expandIn(selectByParentsWithAttributes, parents.size()), parents.stream().map(DatabaseNodeModel.this::uuidParameter).toArray())) {
+				children = getNodesWithAttributes(rs);
 			} catch (SQLException e) {
-				String msg = "Unable to clear property for key " + key + ": " + e.getMessage();
+				String msg = "Unable to read children of " + parents.size() + " nodes: " + e.getMessage();
 				logger.error(msg, e);
 				throw new ConfigurationRuntimeException(msg, e);
 			}
+			
+			// all children of a parent come from the same query, in the order loadDescendants reads them
+			Map<UUID, List<DatabaseNode>> byParent = new HashMap<>();
+			for (DatabaseNode child : children) {
+				byParent.computeIfAbsent(child.getParentUuidValue(), uuid -> new ArrayList<>()).add(child);
+			}
+			
+			result.putAll(byParent);
+			if (!children.isEmpty()) {
+				invokeAll(split(children));
+			}
+		}
+		
+		// one chunk per worker where the level is large enough, none larger than an in list may be
+		private List<LoadChildren> split(List<DatabaseNode> children) {
+			int parallelism = materializer().getParallelism();
+			int chunkSize = Math.min(MAX_IN_PARAMETERS, Math.max(MIN_FORKED_PARENTS, (children.size() + parallelism - 1) / parallelism));
+			List<LoadChildren> chunks = new ArrayList<>();
+			for (int from = 0; from < children.size(); from += chunkSize) {
+				chunks.add(new LoadChildren(children.subList(from, Math.min(from + chunkSize, children.size())), result));
+			}
+			
+			return chunks;
 		}
 	}
-
-	public void clear(NodeKeyResolver<DatabaseNode> resolver) {
-		try (Transaction tx = txManager.beginTransaction()) {
-			deleteNode(root, tx);
-		} catch (SQLException e) {
-			String msg = "Unable to clear tree at root " + root + ": " + e.getMessage();
-			logger.error(msg, e);
-			throw new ConfigurationRuntimeException(msg, e);
+	
+	private void diffNode(DatabaseNode target, ImmutableNode source, String key, ExpressionEngine expressionEngine, Map<UUID, List<DatabaseNode>> storedChildren,
+	                      Map<String, List<Object[]>> statements, ImportReport report) {
+		report.nodeCompared();
+		DatabaseNode incoming = toDatabaseNode(source, target.getParentUuidValue());
+		Object uuid = uuidParameter(target);
+		boolean changed = false;
+		if (!Objects.equals(target.getValue(), incoming.getValue())) {
+			if (incoming.getValue() == null) {
+				statements.get(CLEAR_CONFIGURATION_VALUE).add(new Object[] {uuid});
+			} else {
+				statements.get(UPDATE_VALUE).add(new Object[] {incoming.getValue(), uuid});
+			}
+			
+			report.add(ImportReport.ChangeType.VALUE_CHANGED, key, target.getValue(), incoming.getValue());
+			changed = true;
+		}
+		
+		for (Entry<String, String> attribute : incoming.getAttributes().entrySet()) {
+			String oldValue = target.getAttributeValue(attribute.getKey());
+			if (oldValue == null) {
+				statements.get(INSERT_ATTRIBUTE).add(new Object[] {uuid, attribute.getKey(), attribute.getValue()});
+				report.add(ImportReport.ChangeType.ATTRIBUTE_ADDED, expressionEngine.attributeKey(key, attribute.getKey()), null, attribute.getValue());
+				changed = true;
+			} else if (!oldValue.equals(attribute.getValue())) {
+				statements.get(UPDATE_ATTRIBUTE).add(new Object[] {attribute.getValue(), uuid, attribute.getKey()});
+				report.add(ImportReport.ChangeType.ATTRIBUTE_CHANGED, expressionEngine.attributeKey(key, attribute.getKey()), oldValue, attribute.getValue());
+				changed = true;
+			}
+		}
+		
+		for (Entry<String, String> attribute : target.getAttributes().entrySet()) {
+			if (incoming.getAttributeValue(attribute.getKey()) == null) {
+				statements.get(DELETE_ATTRIBUTE).add(new Object[] {uuid, attribute.getKey()});
+				report.add(ImportReport.ChangeType.ATTRIBUTE_REMOVED, expressionEngine.attributeKey(key, attribute.getKey()), attribute.getValue(), null);
+				changed = true;
+			}
+		}
+		
+		if (changed) {
+			claimForImport(target, statements);
+		}
+		
+		diffChildren(target, source, key, expressionEngine, storedChildren, statements, report);
+	}
+	
+	private void diffChildren(DatabaseNode target, ImmutableNode source, String key, ExpressionEngine expressionEngine, Map<UUID, List<DatabaseNode>> storedChildren,
+	                          Map<String, List<Object[]>> statements, ImportReport report) {
+		Map<String, List<DatabaseNode>> targetsByName = new LinkedHashMap<>();
+		for (DatabaseNode child : storedChildren.getOrDefault(target.getUuidValue(), Collections.emptyList())) {
+			targetsByName.computeIfAbsent(child.getKey(), name -> new ArrayList<>()).add(child);
+		}
+		
+		Map<String, List<ImmutableNode>> sourcesByName = new LinkedHashMap<>();
+		for (ImmutableNode child : source.getChildren()) {
+			sourcesByName.computeIfAbsent(StringUtils.lowerCase(StringUtils.trim(child.getNodeName())), name -> new ArrayList<>()).add(child);
+		}
+		
+		for (Entry<String, List<ImmutableNode>> sourceGroup : sourcesByName.entrySet()) {
+			String name = sourceGroup.getKey();
+			List<ImmutableNode> sources = sourceGroup.getValue();
+			List<DatabaseNode> targets = targetsByName.getOrDefault(name, Collections.emptyList());
+			boolean indexed = Math.max(sources.size(), targets.size()) > 1;
+			
+			// identical siblings first: reordered list items are not rewritten
+			DatabaseNode[] pairs = new DatabaseNode[sources.size()];
+			Map<List<Object>, Deque<DatabaseNode>> unpaired = new HashMap<>();
+			for (DatabaseNode candidate : targets) {
+				unpaired.computeIfAbsent(Arrays.asList(candidate.getValue(), candidate.getAttributes()), signature -> new ArrayDeque<>()).add(candidate);
+			}
+			
+			DatabaseNode[] incoming = new DatabaseNode[sources.size()];
+			for (int i = 0; i < sources.size(); i++) {
+				incoming[i] = toDatabaseNode(sources.get(i), target.getUuidValue());
+				Deque<DatabaseNode> identical = unpaired.get(Arrays.asList(incoming[i].getValue(), incoming[i].getAttributes()));
+				pairs[i] = identical == null ? null : identical.poll();
+			}
+			
+			Set<DatabaseNode> paired = new HashSet<>(Arrays.asList(pairs));
+			pairSimilar(incoming, pairs, targets, paired);
+			// what is left is paired in order unless attributes tell the nodes apart, those are replaced
+			Iterator<DatabaseNode> remaining = targets.stream().filter(candidate -> !paired.contains(candidate) && !candidate.hasAttributes()).iterator();
+			for (int i = 0; i < sources.size(); i++) {
+				String childKey = childKey(expressionEngine, key, incoming[i], indexed ? i : -1);
+				if (pairs[i] == null && !incoming[i].hasAttributes() && remaining.hasNext()) {
+					pairs[i] = remaining.next();
+				}
+				
+				if (pairs[i] == null) {
+					insertSubtree(target.getUuidValue(), sources.get(i), statements, report);
+					report.add(ImportReport.ChangeType.NODE_ADDED, childKey, null, null);
+				} else {
+					diffNode(pairs[i], sources.get(i), childKey, expressionEngine, storedChildren, statements, report);
+				}
+			}
+			
+			int index = sources.size();
+			Set<DatabaseNode> kept = new HashSet<>(Arrays.asList(pairs));
+			for (DatabaseNode leftover : targets) {
+				if (!kept.contains(leftover)) {
+					deleteSubtree(leftover, storedChildren, statements, report);
+					report.add(ImportReport.ChangeType.NODE_REMOVED, childKey(expressionEngine, key, leftover, indexed ? index++ : -1), null, null);
+				}
+			}
+		}
+		
+		for (Entry<String, List<DatabaseNode>> targetGroup : targetsByName.entrySet()) {
+			if (!sourcesByName.containsKey(targetGroup.getKey())) {
+				List<DatabaseNode> targets = targetGroup.getValue();
+				for (int i = 0; i < targets.size(); i++) {
+					deleteSubtree(targets.get(i), storedChildren, statements, report);
+					report.add(ImportReport.ChangeType.NODE_REMOVED, childKey(expressionEngine, key, targets.get(i), targets.size() > 1 ? i : -1), null, null);
+				}
+			}
+		}
+	}
+	
+	// then the closest one by shared attributes and value, e.g. the sibling with the same name attribute
+	private static void pairSimilar(DatabaseNode[] incoming, DatabaseNode[] pairs, List<DatabaseNode> targets, Set<DatabaseNode> paired) {
+		for (int i = 0; i < incoming.length; i++) {
+			if (pairs[i] != null) {
+				continue;
+			}
+			
+			int bestScore = 0;
+			for (DatabaseNode candidate : targets) {
+				int score = paired.contains(candidate) ? 0 : similarity(incoming[i], candidate);
+				if (score > bestScore) {
+					bestScore = score;
+					pairs[i] = candidate;
+				}
+			}
+			
+			paired.add(pairs[i]);
+		}
+	}
+	
+	private static int similarity(DatabaseNode incoming, DatabaseNode stored) {
+		int score = stored.getValue() != null && stored.getValue().equals(incoming.getValue()) ? 1 : 0;
+		for (Entry<String, String> attribute : incoming.getAttributes().entrySet()) {
+			if (attribute.getValue().equals(stored.getAttributeValue(attribute.getKey()))) {
+				score++;
+			}
+		}
+		
+		return score;
+	}
+	
+	private void insertSubtree(UUID parentUuid, ImmutableNode source, Map<String, List<Object[]>> statements, ImportReport report) {
+		DatabaseNode node = toDatabaseNode(source, parentUuid);
+		Object uuid = uuidParameter(node);
+		lock.touch(parentUuid);
+		statements.get(INSERT_CONFIG).add(new Object[] {uuid, uuidStorage.toParameter(parentUuid), node.getKey(), node.getValue()});
+		for (Entry<String, String> attribute : node.getAttributes().entrySet()) {
+			statements.get(INSERT_ATTRIBUTE).add(new Object[] {uuid, attribute.getKey(), attribute.getValue()});
+		}
+		
+		report.nodesInserted(1);
+		for (ImmutableNode child : source.getChildren()) {
+			insertSubtree(node.getUuidValue(), child, statements, report);
+		}
+	}
+	
+	private void deleteSubtree(DatabaseNode node, Map<UUID, List<DatabaseNode>> storedChildren, Map<String, List<Object[]>> statements, ImportReport report) {
+		for (DatabaseNode child : storedChildren.getOrDefault(node.getUuidValue(), Collections.emptyList())) {
+			deleteSubtree(child, storedChildren, statements, report);
+		}
+		
+		Object uuid = uuidParameter(node);
+		claimForImport(node, statements);
+		statements.get(DELETE_ATTRIBUTES).add(new Object[] {uuid});
+		statements.get(DELETE_CONFIGURATION_ROOT).add(new Object[] {uuid});
+		statements.get(DELETE_CONFIGURATION).add(new Object[] {uuid});
+		report.nodesDeleted(1);
+	}
+	
+	private void claimForImport(DatabaseNode node, Map<String, List<Object[]>> statements) {
+		touch(node);
+		if (options.isVersioned()) {
+			statements.get(INCREMENT_VERSION).add(new Object[] {uuidParameter(node), node.getVersion()});
 		}
 	}
 	
+	// expression engines have no notion of an index of their own, the two shipped ones spell it differently
+	private String childKey(ExpressionEngine expressionEngine, String parentKey, DatabaseNode child, int index) {
+		String key = expressionEngine.nodeKey(child, parentKey, getNodeHandler());
+		if (index < 0) {
+			return key;
+		}
+		
+		if (expressionEngine instanceof XPathExpressionEngine) {
+			return key + "[" + (index + 1) + "]";
+		}
+		
+		DefaultExpressionEngineSymbols symbols = expressionEngine instanceof DefaultExpressionEngine ? ((DefaultExpressionEngine) expressionEngine).getSymbols()
+		                                                                                             : DefaultExpressionEngineSymbols.DEFAULT_SYMBOLS;
+		return key + symbols.getIndexStart() + index + symbols.getIndexEnd();
+	}
+	
 	private ImmutableNode getInMemoryRepresentation(DatabaseNode node) {
+		return getInMemoryRepresentation(node, new HashSet<>());
+	}
+	
+	// subtree below node, collecting the uuids of every node it is made of; read one level at a time, or in parallel
+	// when the options allow it and no transaction is bound to the calling thread, whose changes the workers could not see
+	public ImmutableNode getInMemoryRepresentation(DatabaseNode node, Set<UUID> subtreeUuids) {
+		Operation operation = beginOperation("materialize", node.getKey());
+		try {
+			if (options.isParallelMaterialization() && !txManager.hasBoundTransaction()) {
+				return getInMemoryRepresentation(node, loadDescendantsInParallel(node), subtreeUuids);
+			}
+		
+			try (Transaction tx = txManager.beginTransaction()) {
+				return getInMemoryRepresentation(node, loadDescendants(tx, node), subtreeUuids);
+			} catch (SQLException e) {
+				String msg = "Unable to read subtree of node " + node + ": " + e.getMessage();
+				logger.error(msg, e);
+				throw new ConfigurationRuntimeException(msg, e);
+			}
+		} finally {
+			operation.close();
+		}
+	}
+	
+	private ImmutableNode getInMemoryRepresentation(DatabaseNode node, Map<UUID, List<DatabaseNode>> descendants, Set<UUID> subtreeUuids) {
+		subtreeUuids.add(node.getUuidValue());
 		ImmutableNode.Builder builder = new ImmutableNode.Builder()
 														 .name(node.getKey())
 														 .value(node.getValue());
 
-		for (String attributeKey : nodeHandler.getAttributes(node)) {
-			builder.addAttribute(attributeKey, nodeHandler.getAttributeValue(node, attributeKey));
+		for (Entry<String, String> attribute : node.getAttributes().entrySet()) {
+			builder.addAttribute(attribute.getKey(), attribute.getValue());
 		}
 
-		for (DatabaseNode childNode : nodeHandler.getChildren(node)) {
-			builder.addChild(getInMemoryRepresentation(childNode));
+		for (DatabaseNode childNode : descendants.getOrDefault(node.getUuidValue(), Collections.emptyList())) {
+			builder.addChild(getInMemoryRepresentation(childNode, descendants, subtreeUuids));
 		}
 
 		return builder.create();
@@ -472,8 +1665,13 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 	}
 
 	protected DatabaseNode getNode(String uuid) {
+		return getNode(UUID.fromString(uuid));
+	}
+	
+	protected DatabaseNode getNode(UUID uuid) {
+		Operation operation = beginOperation("getNode", uuid);
 		try (Transaction tx = txManager.beginTransaction();
-			 ResultSet rs = txManager.executeQuery(SELECT_BY_UUID, uuid)) {
+			 ResultSet rs = tx.executeQuery(selectByUuid, uuidStorage.toParameter(uuid))) {
 			List<DatabaseNode> nodes = getNodes(tx, rs);
 			if (nodes.isEmpty()) {
 				return null;
@@ -484,6 +1682,8 @@ public class DatabaseNodeModel implements NodeModel<DatabaseNode> {
 			String msg = "Unable to get node " + uuid + ": " + e.getMessage();
 			logger.error(msg, e);
 			throw new ConfigurationRuntimeException(msg, e);
+		} finally {
+			operation.close();
 		}
 	}
 }
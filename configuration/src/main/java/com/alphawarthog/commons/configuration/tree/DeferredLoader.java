@@ -0,0 +1,11 @@
+package com.alphawarthog.commons.configuration.tree;
+
+import java.util.Map;
+
+// reads what a node left in the database when it was loaded
+interface DeferredLoader {
+
+	String loadValue(DatabaseNode node);
+
+	Map<String, String> loadAttributes(DatabaseNode node);
+}
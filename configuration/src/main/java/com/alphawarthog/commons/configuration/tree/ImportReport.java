@@ -0,0 +1,113 @@
+package com.alphawarthog.commons.configuration.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+// what an import changed, one entry per changed value or attribute and per added or removed subtree
+public final class ImportReport {
+
+	public enum ChangeType {
+		NODE_ADDED, NODE_REMOVED, VALUE_CHANGED, ATTRIBUTE_ADDED, ATTRIBUTE_REMOVED, ATTRIBUTE_CHANGED
+	}
+
+	public static final class Change {
+		private final ChangeType type;
+		private final String key;
+		private final String oldValue;
+		private final String newValue;
+
+		private Change(ChangeType type, String key, String oldValue, String newValue) {
+			this.type = type;
+			this.key = key;
+			this.oldValue = oldValue;
+			this.newValue = newValue;
+		}
+
+		public ChangeType getType() {
+			return type;
+		}
+
+		// in the syntax of the configuration's expression engine, an index is added when siblings share a name
+		public String getKey() {
+			return key;
+		}
+
+		public String getOldValue() {
+			return oldValue;
+		}
+
+		public String getNewValue() {
+			return newValue;
+		}
+
+		@Override
+		public String toString() {
+			return type + " " + key + (oldValue == null && newValue == null ? "" : ": " + oldValue + " -> " + newValue);
+		}
+	}
+
+	private final List<Change> changes = new ArrayList<>();
+	private int insertedNodes;
+	private int deletedNodes;
+	private int comparedNodes;
+
+	void add(ChangeType type, String key, String oldValue, String newValue) {
+		changes.add(new Change(type, key, oldValue, newValue));
+	}
+
+	void nodesInserted(int count) {
+		insertedNodes += count;
+	}
+
+	void nodesDeleted(int count) {
+		deletedNodes += count;
+	}
+
+	void nodeCompared() {
+		comparedNodes++;
+	}
+
+	public List<Change> getChanges() {
+		return Collections.unmodifiableList(changes);
+	}
+
+	public boolean hasChanges() {
+		return !changes.isEmpty();
+	}
+
+	// rows inserted and deleted, a subtree counts all of its nodes
+	public int getInsertedNodes() {
+		return insertedNodes;
+	}
+
+	public int getDeletedNodes() {
+		return deletedNodes;
+	}
+
+	public int getComparedNodes() {
+		return comparedNodes;
+	}
+
+	public Map<ChangeType, Integer> getChangeCounts() {
+		Map<ChangeType, Integer> result = new TreeMap<>();
+		for (Change change : changes) {
+			result.merge(change.getType(), 1, Integer::sum);
+		}
+
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this).append("comparedNodes", comparedNodes)
+		                                .append("insertedNodes", insertedNodes)
+		                                .append("deletedNodes", deletedNodes)
+		                                .append("changes", getChangeCounts())
+		                                .toString();
+	}
+}
@@ -0,0 +1,130 @@
+package com.alphawarthog.commons.configuration.tree;
+
+import java.util.Objects;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+public final class StorageOptions {
+
+	public static final StorageOptions DEFAULT = new Builder().build();
+
+	public static class Builder {
+		private UuidStorage uuidStorage = UuidStorage.STRING;
+		private boolean versioned;
+		private Boolean trackRevisions;
+		private int lazyLoadThreshold;
+		private int materializationParallelism = 1;
+
+		public Builder uuidStorage(UuidStorage uuidStorage) {
+			this.uuidStorage = uuidStorage;
+			return this;
+		}
+
+		// needs schema version 2, which adds the version column
+		public Builder versioned(boolean versioned) {
+			this.versioned = versioned;
+			return this;
+		}
+
+		// needs schema version 3; every write bumps the revision of the configuration, which reloading detectors poll.
+		// Unless set, revisions are tracked once the schema has them. The revision is one configuration_root row per
+		// tree: writers in other processes queue on its row lock until the writing transaction ends, versioned
+		// writes included
+		public Builder trackRevisions(boolean trackRevisions) {
+			this.trackRevisions = trackRevisions;
+			return this;
+		}
+
+		// values and attribute values longer than this many characters are read on first access, together with the
+		// attributes of nodes read one at a time; 0 reads everything right away
+		public Builder lazyLoadThreshold(int lazyLoadThreshold) {
+			this.lazyLoadThreshold = lazyLoadThreshold;
+			return this;
+		}
+
+		// subtrees are read on up to this many connections at once, each in its own transaction; keep it below the
+		// size of the connection pool. 1 reads them on the calling thread
+		public Builder materializationParallelism(int materializationParallelism) {
+			this.materializationParallelism = materializationParallelism;
+			return this;
+		}
+
+		public StorageOptions build() {
+			return new StorageOptions(this);
+		}
+	}
+
+	private final UuidStorage uuidStorage;
+	private final boolean versioned;
+	private final Boolean trackRevisions;
+	private final int lazyLoadThreshold;
+	private final int materializationParallelism;
+
+	private StorageOptions(Builder builder) {
+		this.uuidStorage = Objects.requireNonNull(builder.uuidStorage, "UUID storage cannot be null");
+		this.versioned = builder.versioned;
+		this.trackRevisions = builder.trackRevisions;
+		if (builder.lazyLoadThreshold < 0) {
+			throw new IllegalArgumentException("Lazy load threshold cannot be negative");
+		}
+
+		this.lazyLoadThreshold = builder.lazyLoadThreshold;
+		if (builder.materializationParallelism < 1) {
+			throw new IllegalArgumentException("Materialization parallelism must be positive");
+		}
+
+		this.materializationParallelism = builder.materializationParallelism;
+	}
+
+	public UuidStorage getUuidStorage() {
+		return uuidStorage;
+	}
+
+	public boolean isVersioned() {
+		return versioned;
+	}
+
+	// false as long as it is left to the schema, DatabaseNodeModel decides it when it starts
+	public boolean isTrackRevisions() {
+		return Boolean.TRUE.equals(trackRevisions);
+	}
+
+	public boolean isTrackRevisionsSet() {
+		return trackRevisions != null;
+	}
+
+	public int getLazyLoadThreshold() {
+		return lazyLoadThreshold;
+	}
+
+	public boolean isLazyLoading() {
+		return lazyLoadThreshold > 0;
+	}
+
+	public int getMaterializationParallelism() {
+		return materializationParallelism;
+	}
+
+	public boolean isParallelMaterialization() {
+		return materializationParallelism > 1;
+	}
+
+	public Builder toBuilder() {
+		Builder builder = new Builder().uuidStorage(this.uuidStorage)
+		                               .versioned(this.versioned)
+		                               .lazyLoadThreshold(this.lazyLoadThreshold)
+		                               .materializationParallelism(this.materializationParallelism);
+		builder.trackRevisions = this.trackRevisions;
+		return builder;
+	}
+
+	@Override
+	public String toString() {
+		return new ToStringBuilder(this).append("uuidStorage", uuidStorage)
+				                        .append("versioned", versioned)
+				                        .append("trackRevisions", trackRevisions)
+				                        .append("lazyLoadThreshold", lazyLoadThreshold)
+				                        .append("materializationParallelism", materializationParallelism)
+				                        .toString();
+	}
+}
@@ -0,0 +1,86 @@
+package com.alphawarthog.commons.configuration.tree;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+// serializes the writers of a tree, lets readers detect a write that overlapped them and reports what writes touched
+final class TreeLock {
+
+	private final ReentrantLock writers = new ReentrantLock();
+	// held in write mode for the whole outermost write, readers never block on it, they only validate stamps
+	private final StampedLock sequence = new StampedLock();
+	private final List<Consumer<Set<UUID>>> changeListeners = new CopyOnWriteArrayList<>();
+	// guarded by writers
+	private final Set<UUID> touched = new HashSet<>();
+	private final Set<UUID> changedRows = new HashSet<>();
+	private long writeStamp;
+
+	void lockWrite() {
+		writers.lock();
+		if (writers.getHoldCount() == 1) {
+			writeStamp = sequence.writeLock();
+		}
+	}
+
+	void unlockWrite() {
+		try {
+			if (writers.getHoldCount() == 1) {
+				changedRows.clear();
+			}
+			
+			if (writers.getHoldCount() == 1 && !touched.isEmpty()) {
+				Set<UUID> changed = Collections.unmodifiableSet(new HashSet<>(touched));
+				touched.clear();
+				for (Consumer<Set<UUID>> listener : changeListeners) {
+					listener.accept(changed);
+				}
+			}
+		} finally {
+			if (writers.getHoldCount() == 1) {
+				sequence.unlockWrite(writeStamp);
+			}
+
+			writers.unlock();
+		}
+	}
+
+	// nodes created while building a new tree outside of a write have nobody to notify
+	void touch(UUID uuid) {
+		if (uuid != null && writers.isHeldByCurrentThread()) {
+			touched.add(uuid);
+		}
+	}
+
+	// the node's own row changed, not only its list of children
+	void change(UUID uuid) {
+		if (uuid != null && writers.isHeldByCurrentThread()) {
+			touched.add(uuid);
+			changedRows.add(uuid);
+		}
+	}
+
+	// whether the write in progress changed the node so far
+	boolean isChanged(UUID uuid) {
+		return writers.isHeldByCurrentThread() && changedRows.contains(uuid);
+	}
+
+	void addChangeListener(Consumer<Set<UUID>> listener) {
+		changeListeners.add(listener);
+	}
+
+	// 0 while a write is in progress
+	long tryOptimisticRead() {
+		return sequence.tryOptimisticRead();
+	}
+
+	boolean validate(long stamp) {
+		return sequence.validate(stamp);
+	}
+}
@@ -0,0 +1,104 @@
+package com.alphawarthog.commons.configuration.tree;
+
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.UUID;
+
+import org.apache.commons.lang3.StringUtils;
+
+public enum UuidStorage {
+
+	// 36 character canonical form, the original layout of the configuration tables
+	STRING("varchar(36)") {
+		@Override
+		public Object toParameter(UUID uuid) {
+			return uuid == null ? null : uuid.toString();
+		}
+
+		@Override
+		public UUID read(ResultSet rs, String column) throws SQLException {
+			String uuid = rs.getString(column);
+			return uuid == null ? null : UUID.fromString(uuid);
+		}
+	},
+
+	// 16 bytes, most significant bits first
+	BINARY("binary(16)") {
+		@Override
+		public Object toParameter(UUID uuid) {
+			if (uuid == null) {
+				return null;
+			}
+
+			return ByteBuffer.allocate(16)
+					         .putLong(uuid.getMostSignificantBits())
+					         .putLong(uuid.getLeastSignificantBits())
+					         .array();
+		}
+
+		@Override
+		public UUID read(ResultSet rs, String column) throws SQLException {
+			byte[] bytes = rs.getBytes(column);
+			if (bytes == null) {
+				return null;
+			}
+
+			if (bytes.length != 16) {
+				throw new SQLException("Column " + column + " holds " + bytes.length + " bytes, 16 bytes expected");
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			return new UUID(buffer.getLong(), buffer.getLong());
+		}
+	},
+
+	// database native uuid type, e.g. PostgreSQL and H2 uuid columns
+	NATIVE("uuid") {
+		@Override
+		public Object toParameter(UUID uuid) {
+			return uuid;
+		}
+
+		@Override
+		public UUID read(ResultSet rs, String column) throws SQLException {
+			return rs.getObject(column, UUID.class);
+		}
+	};
+
+	private final String columnType;
+
+	private UuidStorage(String columnType) {
+		this.columnType = columnType;
+	}
+
+	public String getColumnType() {
+		return columnType;
+	}
+
+	// the storage whose columns have the given JDBC type, null for types none of them creates;
+	// drivers report native uuid columns as binary or other, only the type name tells them apart
+	public static UuidStorage forColumnType(int jdbcType, String typeName) {
+		if (StringUtils.containsIgnoreCase(typeName, "uuid")) {
+			return NATIVE;
+		}
+
+		switch (jdbcType) {
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+			return STRING;
+		case Types.BINARY:
+		case Types.VARBINARY:
+			return BINARY;
+		default:
+			return null;
+		}
+	}
+
+	public abstract Object toParameter(UUID uuid);
+
+	public abstract UUID read(ResultSet rs, String column) throws SQLException;
+}
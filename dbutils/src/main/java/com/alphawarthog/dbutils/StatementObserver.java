@@ -0,0 +1,11 @@
+package com.alphawarthog.dbutils;
+
+// told about every statement run through a TransactionManager it is set on, on the thread that runs it
+public interface StatementObserver {
+	
+	// a batch counts as one statement
+	void statementExecuted(String statement, long elapsedNanos);
+	
+	// once per row a query returns, as the caller moves to it
+	void rowRead(String statement);
+}
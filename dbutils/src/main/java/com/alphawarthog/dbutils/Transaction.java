@@ -1,6 +1,9 @@
 package com.alphawarthog.dbutils;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -18,16 +21,40 @@ public class Transaction implements AutoCloseable {
 	protected final Logger logger = LogManager.getLogger(getClass());
 	
 	private final Connection conn;
-	private final Map<String, PreparedStatement> statementMap = new HashMap<>();
+	private final Map<String, PreparedStatement> statementMap;
+	// a joined transaction runs on the connection of the one bound to the thread, which commits
+	private final boolean joined;
+	// null when nobody counts statements, which then run without any timing
+	private final StatementObserver observer;
 
 	protected Transaction(DataSource ds) throws SQLException {
+		this(ds, null);
+	}
+	
+	protected Transaction(DataSource ds, StatementObserver observer) throws SQLException {
 		this.conn = ds.getConnection();
 		this.conn.setAutoCommit(false);
+		this.statementMap = new HashMap<>();
+		this.joined = false;
+		this.observer = observer;
 		logger.debug("Transaction started");
 	}
 	
+	protected Transaction(Transaction outer) {
+		this.conn = outer.conn;
+		this.statementMap = outer.statementMap;
+		this.joined = true;
+		this.observer = outer.observer;
+		logger.debug("Transaction joined");
+	}
+	
 	@Override
 	public void close() throws SQLException {
+		if (joined) {
+			logger.debug("Joined transaction left");
+			return;
+		}
+		
 		try {
 			conn.commit();
 			logger.debug("Transaction committed");
@@ -46,6 +73,17 @@ public class Transaction implements AutoCloseable {
 		} 
 	}
 	
+	// discards the work done so far, closing the transaction afterwards commits nothing; a joined transaction
+	// discards the work of the whole bound transaction
+	public void rollback() throws SQLException {
+		conn.rollback();
+		logger.debug("Transaction rolled back");
+	}
+	
+	public boolean isJoined() {
+		return joined;
+	}
+	
 	private PreparedStatement prepareStatement(String statement, Object... params) throws SQLException {
 		PreparedStatement ps = statementMap.computeIfAbsent(statement, t -> {
 			try {
@@ -75,7 +113,9 @@ public class Transaction implements AutoCloseable {
 			throw new SQLException("Statement " + statement + " has not been prepared");
 		}
 		
+		long start = System.nanoTime();
 		int[] result = ps.executeBatch();
+		executed(statement, start);
 		logger.debug("{} rows affected by batch execution of statement {}", () -> Arrays.stream(result).sum(), () -> statement);
 		return result;
 	}
@@ -88,15 +128,62 @@ public class Transaction implements AutoCloseable {
 	
 	public int executeUpdate(String statement, Object... params) throws SQLException {
 		PreparedStatement ps = prepareStatement(statement, params);
+		long start = System.nanoTime();
 		int result = ps.executeUpdate();
+		executed(statement, start);
 		logger.debug("{} rows affected by executing statement {}", result, statement);
 		return result;
 	}
 	
 	public ResultSet executeQuery(String statement, Object... params) throws SQLException {
 		PreparedStatement ps = prepareStatement(statement, params);
+		long start = System.nanoTime();
 		ResultSet rs = ps.executeQuery();
+		executed(statement, start);
 		logger.debug("Query {} executed", statement);
-		return rs;
+		return observed(statement, rs);
+	}
+	
+	// at most maxRows rows, 0 for all; the limit stays with the statement, which should only be run through here
+	public ResultSet executeQuery(int maxRows, String statement, Object... params) throws SQLException {
+		PreparedStatement ps = prepareStatement(statement, params);
+		ps.setMaxRows(maxRows);
+		long start = System.nanoTime();
+		ResultSet rs = ps.executeQuery();
+		executed(statement, start);
+		logger.debug("Query {} executed for at most {} rows", statement, maxRows);
+		return observed(statement, rs);
+	}
+	
+	private void executed(String statement, long start) {
+		if (observer != null) {
+			observer.statementExecuted(statement, System.nanoTime() - start);
+		}
+	}
+	
+	// rows are counted as next() reaches them, through a proxy that is only made while an observer is set
+	private ResultSet observed(String statement, ResultSet rs) {
+		if (observer == null) {
+			return rs;
+		}
+		
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+			Object result;
+			try {
+				result = method.invoke(rs, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			
+			if (Boolean.TRUE.equals(result) && method.getName().equals("next")) {
+				observer.rowRead(statement);
+			}
+			
+			return result;
+		});
+	}
+	
+	public DatabaseMetaData getMetaData() throws SQLException {
+		return conn.getMetaData();
 	}
 }
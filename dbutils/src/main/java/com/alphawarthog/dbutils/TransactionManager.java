@@ -3,6 +3,7 @@ package com.alphawarthog.dbutils;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 import javax.sql.DataSource;
 
@@ -18,6 +19,8 @@ public class TransactionManager {
 	protected final Logger logger = LogManager.getLogger(getClass());
 
 	private final DataSource dataSource;
+	private final ThreadLocal<Transaction> boundTransaction = new ThreadLocal<>();
+	private volatile StatementObserver statementObserver;
 	
 	public TransactionManager(String url) {
 		this(url, null, null);
@@ -36,8 +39,55 @@ public class TransactionManager {
 		logger.info("Transaction manager to {} created", url);
 	}
 	
+	// connections come from dataSource as it is, pooled or not
+	public TransactionManager(DataSource dataSource) {
+		this.dataSource = Objects.requireNonNull(dataSource, "DataSource cannot be null");
+		logger.info("Transaction manager to {} created", dataSource);
+	}
+	
+	// joins the transaction bound to the calling thread, if any
 	public Transaction beginTransaction() throws SQLException {
-		return new Transaction(dataSource);
+		Transaction bound = boundTransaction.get();
+		return bound == null ? new Transaction(dataSource, statementObserver) : new Transaction(bound);
+	}
+	
+	// every transaction begun by work on this thread joins a single one, committed when work returns and
+	// rolled back when it throws; nested calls join the outermost
+	public <T> T inTransaction(Supplier<T> work) throws SQLException {
+		if (boundTransaction.get() != null) {
+			return work.get();
+		}
+		
+		try (Transaction tx = new Transaction(dataSource, statementObserver)) {
+			boundTransaction.set(tx);
+			try {
+				return work.get();
+			} catch (RuntimeException | Error e) {
+				try {
+					tx.rollback();
+				} catch (SQLException rollbackFailure) {
+					e.addSuppressed(rollbackFailure);
+				}
+				
+				throw e;
+			} finally {
+				boundTransaction.remove();
+			}
+		}
+	}
+	
+	// transactions begun from now on report to observer, null for none
+	public void setStatementObserver(StatementObserver statementObserver) {
+		this.statementObserver = statementObserver;
+	}
+	
+	public StatementObserver getStatementObserver() {
+		return statementObserver;
+	}
+	
+	// work on other threads does not see what the bound transaction has not committed yet
+	public boolean hasBoundTransaction() {
+		return boundTransaction.get() != null;
 	}
 	
 	public int executeUpdate(String statement, Object... params) throws SQLException {
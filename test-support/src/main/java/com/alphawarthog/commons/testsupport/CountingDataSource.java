@@ -0,0 +1,187 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/*
+ * Counts the round trips and rows of everything run on the connections it hands out, by wrapping them and the
+ * statements and result sets they create in proxies. Every execute call is a round trip, a batch included;
+ * every row next() moves to is a row read. Connections handed out are counted too, without a pool in between
+ * that is one per transaction.
+ */
+public class CountingDataSource implements DataSource {
+
+	private static final Set<String> EXECUTE_METHODS = new HashSet<>(Arrays.asList("execute", "executeQuery", "executeUpdate", "executeLargeUpdate",
+	                                                                               "executeBatch", "executeLargeBatch"));
+	private static final Set<String> STATEMENT_FACTORY_METHODS = new HashSet<>(Arrays.asList("createStatement", "prepareStatement", "prepareCall"));
+
+	private final DataSource delegate;
+	private final AtomicLong statements = new AtomicLong();
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong connections = new AtomicLong();
+	private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+	public CountingDataSource(DataSource delegate) {
+		this.delegate = Objects.requireNonNull(delegate, "DataSource cannot be null");
+	}
+
+	public long getStatementCount() {
+		return statements.get();
+	}
+
+	public long getRowCount() {
+		return rows.get();
+	}
+
+	public long getConnectionCount() {
+		return connections.get();
+	}
+
+	// SQL of every round trip since the last reset, in order
+	public List<String> getStatements() {
+		synchronized (executed) {
+			return new ArrayList<>(executed);
+		}
+	}
+
+	public void reset() {
+		synchronized (executed) {
+			statements.set(0);
+			rows.set(0);
+			connections.set(0);
+			executed.clear();
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return connection(delegate.getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return connection(delegate.getConnection(username, password));
+	}
+
+	private Connection connection(Connection connection) {
+		connections.incrementAndGet();
+		return proxy(Connection.class, connection, (method, args, result) -> {
+			if (!STATEMENT_FACTORY_METHODS.contains(method.getName())) {
+				return result;
+			}
+
+			// prepared statements carry their SQL from here, plain ones get it on execute
+			String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+			if (result instanceof CallableStatement) {
+				return statement(CallableStatement.class, (Statement) result, sql);
+			}
+
+			return result instanceof PreparedStatement ? statement(PreparedStatement.class, (Statement) result, sql)
+			                                           : statement(Statement.class, (Statement) result, sql);
+		});
+	}
+
+	private <S extends Statement> S statement(Class<S> type, Statement statement, String preparedSql) {
+		return proxy(type, type.cast(statement), (method, args, result) -> {
+			if (EXECUTE_METHODS.contains(method.getName())) {
+				String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+				synchronized (executed) {
+					statements.incrementAndGet();
+					executed.add(sql);
+				}
+			}
+
+			return result instanceof ResultSet ? resultSet((ResultSet) result) : result;
+		});
+	}
+
+	private ResultSet resultSet(ResultSet resultSet) {
+		return proxy(ResultSet.class, resultSet, (method, args, result) -> {
+			if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+				rows.incrementAndGet();
+			}
+
+			return result;
+		});
+	}
+
+	private interface AfterCall {
+		Object apply(Method method, Object[] args, Object result) throws SQLException;
+	}
+
+	private static <T> T proxy(Class<T> type, T target, AfterCall afterCall) {
+		InvocationHandler handler = (proxy, method, args) -> {
+			Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+
+			return afterCall.apply(method, args, result);
+		};
+
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return delegate.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		delegate.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		delegate.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return delegate.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return delegate.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return iface.isInstance(this) ? iface.cast(this) : delegate.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || delegate.isWrapperFor(iface);
+	}
+
+	@Override
+	public String toString() {
+		return "CountingDataSource[" + delegate + "]";
+	}
+}
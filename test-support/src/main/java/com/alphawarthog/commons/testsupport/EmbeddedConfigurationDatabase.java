@@ -0,0 +1,94 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+import org.apache.commons.configuration2.io.FileHandler;
+import org.h2.jdbcx.JdbcDataSource;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.schema.ConfigurationSchema;
+import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+import com.alphawarthog.commons.configuration.tree.StorageOptions;
+import com.alphawarthog.commons.configuration.tree.UuidStorage;
+import com.alphawarthog.dbutils.TransactionManager;
+
+// private in-memory H2 database with the configuration schema, reached through a CountingDataSource; connections
+// are not pooled, so each transaction opens one
+public final class EmbeddedConfigurationDatabase implements AutoCloseable {
+
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private final JdbcDataSource h2;
+	private final CountingDataSource dataSource;
+	private final TransactionManager txManager;
+	private final UuidStorage uuidStorage;
+
+	public EmbeddedConfigurationDatabase() {
+		this(UuidStorage.STRING);
+	}
+
+	public EmbeddedConfigurationDatabase(UuidStorage uuidStorage) {
+		this.h2 = new JdbcDataSource();
+		h2.setURL("jdbc:h2:mem:test" + COUNTER.incrementAndGet() + ";DB_CLOSE_DELAY=-1;NON_KEYWORDS=KEY,VALUE");
+		this.dataSource = new CountingDataSource(h2);
+		this.txManager = new TransactionManager(dataSource);
+		this.uuidStorage = uuidStorage;
+		new ConfigurationSchema(txManager, uuidStorage).install();
+		dataSource.reset();
+	}
+
+	public static XMLConfiguration parse(String xml) {
+		XMLConfiguration result = new XMLConfiguration();
+		try {
+			new FileHandler(result).load(new StringReader(xml));
+		} catch (ConfigurationException e) {
+			throw new ConfigurationRuntimeException("Unable to parse " + xml + ": " + e.getMessage(), e);
+		}
+
+		return result;
+	}
+
+	// options for the uuid columns of this database
+	public StorageOptions.Builder storageOptions() {
+		return new StorageOptions.Builder().uuidStorage(uuidStorage);
+	}
+
+	// a new updatable configuration holding xml
+	public DatabaseHierarchicalConfiguration store(String configurationName, String xml) {
+		return store(configurationName, xml, storageOptions().build());
+	}
+
+	public DatabaseHierarchicalConfiguration store(String configurationName, String xml, StorageOptions options) {
+		return new DatabaseHierarchicalConfiguration(txManager, configurationName, parse(xml), true, options);
+	}
+
+	// another updatable instance of a stored configuration, as a second process would have it
+	public DatabaseHierarchicalConfiguration open(String configurationName, StorageOptions options) {
+		return new DatabaseHierarchicalConfiguration(txManager, configurationName, (DatabaseNode) null, true, options);
+	}
+
+	public CountingDataSource getDataSource() {
+		return dataSource;
+	}
+
+	public TransactionManager getTransactionManager() {
+		return txManager;
+	}
+
+	public QueryBudget.Builder budget() {
+		return new QueryBudget.Builder(dataSource);
+	}
+
+	@Override
+	public void close() throws SQLException {
+		try (Connection connection = h2.getConnection()) {
+			connection.createStatement().execute("shutdown");
+		}
+	}
+}
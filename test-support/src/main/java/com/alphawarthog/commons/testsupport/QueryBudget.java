@@ -0,0 +1,120 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import junit.framework.AssertionFailedError;
+
+/*
+ * Most round trips and rows a call may cost, checked against a CountingDataSource:
+ *
+ *   new QueryBudget.Builder(dataSource).maxStatements(2).build().call(() -> configuration.getString("a.b.c.d.e"));
+ *
+ * The counts cover everything run through the data source while the call runs, so other threads using it at the
+ * same time count too. A call over budget fails with the statements it ran.
+ */
+public final class QueryBudget {
+
+	public static final long UNLIMITED = Long.MAX_VALUE;
+
+	public static class Builder {
+		private final CountingDataSource dataSource;
+		private long maxStatements = UNLIMITED;
+		private long maxRows = UNLIMITED;
+
+		public Builder(CountingDataSource dataSource) {
+			this.dataSource = dataSource;
+		}
+
+		public Builder maxStatements(long maxStatements) {
+			this.maxStatements = maxStatements;
+			return this;
+		}
+
+		public Builder maxRows(long maxRows) {
+			this.maxRows = maxRows;
+			return this;
+		}
+
+		public QueryBudget build() {
+			return new QueryBudget(this);
+		}
+	}
+
+	public static final class Usage {
+		private final long statements;
+		private final long rows;
+		private final long connections;
+		private final List<String> executed;
+
+		private Usage(long statements, long rows, long connections, List<String> executed) {
+			this.statements = statements;
+			this.rows = rows;
+			this.connections = connections;
+			this.executed = executed;
+		}
+
+		public long getStatements() {
+			return statements;
+		}
+
+		public long getRows() {
+			return rows;
+		}
+
+		// one per transaction on an EmbeddedConfigurationDatabase
+		public long getConnections() {
+			return connections;
+		}
+
+		public List<String> getExecuted() {
+			return executed;
+		}
+	}
+
+	private final CountingDataSource dataSource;
+	private final long maxStatements;
+	private final long maxRows;
+	// what the last call used, also when it went over budget
+	private volatile Usage lastUsage;
+
+	private QueryBudget(Builder builder) {
+		this.dataSource = Objects.requireNonNull(builder.dataSource, "CountingDataSource cannot be null");
+		if (builder.maxStatements < 0 || builder.maxRows < 0) {
+			throw new IllegalArgumentException("Budgets cannot be negative");
+		}
+
+		this.maxStatements = builder.maxStatements;
+		this.maxRows = builder.maxRows;
+	}
+
+	public <T> T call(Supplier<T> work) {
+		dataSource.reset();
+		T result = work.get();
+		Usage usage = new Usage(dataSource.getStatementCount(), dataSource.getRowCount(), dataSource.getConnectionCount(), dataSource.getStatements());
+		lastUsage = usage;
+		if (usage.statements > maxStatements || usage.rows > maxRows) {
+			throw new AssertionFailedError("Query budget of " + describe(maxStatements) + " statements and " + describe(maxRows) + " rows exceeded: "
+			                               + usage.statements + " statements, " + usage.rows + " rows" + System.lineSeparator()
+			                               + String.join(System.lineSeparator(), usage.executed));
+		}
+
+		return result;
+	}
+
+	public void run(Runnable work) {
+		call(() -> {
+			work.run();
+			return null;
+		});
+	}
+
+	public Usage getLastUsage() {
+		return lastUsage;
+	}
+
+	private static String describe(long budget) {
+		return budget == UNLIMITED ? "unlimited" : String.valueOf(budget);
+	}
+}
@@ -0,0 +1,134 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.event.ChangeEvent;
+import com.alphawarthog.commons.configuration.event.ChangeSubscription;
+
+public class ChangeEventTest extends ConfigurationTestCase {
+
+	private DatabaseHierarchicalConfiguration configuration;
+	private List<ChangeEvent> received;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		configuration = database.store("events", "<config><a><b>1</b><c>2</c></a><g>shallow</g></config>");
+		received = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	public void testOnlyMatchingKeysAreDelivered() throws Exception {
+		try (ChangeSubscription subscription = configuration.subscribe("a", received::add)) {
+			configuration.setProperty("a.b", "changed");
+			configuration.setProperty("g", "ignored");
+			configuration.clearTree("a");
+			assertTrue(subscription.awaitDelivery(5, TimeUnit.SECONDS));
+		}
+
+		assertEquals(2, received.size());
+		assertEquals(ChangeEvent.Kind.PROPERTY_SET, received.get(0).getKind());
+		assertEquals("a.b", received.get(0).getKey());
+		assertEquals("changed", received.get(0).getNewValue());
+		assertEquals(ChangeEvent.Kind.TREE_CLEARED, received.get(1).getKind());
+	}
+
+	// views publish on their parent's bus with keys spelled from the parent's root
+	public void testViewWritesCarryTheViewPath() throws Exception {
+		List<ChangeEvent> unrelated = Collections.synchronizedList(new ArrayList<>());
+		try (ChangeSubscription subscription = configuration.subscribe("a", received::add);
+		     ChangeSubscription other = configuration.subscribe("b", unrelated::add)) {
+			configuration.configurationAt("a", true).setProperty("b", "from view");
+			assertTrue(subscription.awaitDelivery(5, TimeUnit.SECONDS));
+			assertTrue(other.awaitDelivery(5, TimeUnit.SECONDS));
+		}
+
+		assertEquals(1, received.size());
+		assertEquals("from view", configuration.getString(received.get(0).getKey()));
+		assertTrue(unrelated.isEmpty());
+	}
+
+	// a prefix ends where a key does or at a delimiter, "a" does not cover "ab"
+	public void testPrefixMatchesOnKeyBoundaries() throws Exception {
+		try (ChangeSubscription subscription = configuration.subscribe("a", received::add)) {
+			configuration.addProperty("ab", "sibling");
+			configuration.addProperty("a[@name]", "attribute");
+			configuration.setProperty("a.c", "child");
+			assertTrue(subscription.awaitDelivery(5, TimeUnit.SECONDS));
+		}
+
+		assertEquals(2, received.size());
+		assertEquals("a[@name]", received.get(0).getKey());
+		assertEquals("a.c", received.get(1).getKey());
+	}
+
+	public void testRolledBackWriteIsNotPublished() throws Exception {
+		try (ChangeSubscription subscription = configuration.subscribe("", received::add)) {
+			try {
+				configuration.writeBatch(() -> {
+					configuration.setProperty("a.b", "rolled back");
+					throw new IllegalStateException("abort");
+				});
+				fail("Batch did not fail");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+
+			configuration.setProperty("g", "committed");
+			assertTrue(subscription.awaitDelivery(5, TimeUnit.SECONDS));
+		}
+
+		assertEquals(1, received.size());
+		assertEquals("g", received.get(0).getKey());
+	}
+
+	// a slow listener fills its buffer, further events are dropped and counted while writers carry on
+	public void testFullBufferDropsEvents() throws Exception {
+		CountDownLatch listening = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		try (ChangeSubscription subscription = configuration.subscribe("", 2, event -> {
+			listening.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			received.add(event);
+		})) {
+			configuration.setProperty("g", "0");
+			assertTrue(listening.await(5, TimeUnit.SECONDS));
+			for (int i = 1; i <= 5; i++) {
+				configuration.setProperty("g", String.valueOf(i));
+			}
+
+			assertEquals(2, subscription.getPendingEvents());
+			assertEquals(3, subscription.getDroppedEvents());
+			release.countDown();
+			assertTrue(subscription.awaitDelivery(5, TimeUnit.SECONDS));
+			assertEquals(3, subscription.getDeliveredEvents());
+		}
+
+		assertEquals("0", received.get(0).getNewValue());
+		assertEquals("1", received.get(1).getNewValue());
+		assertEquals("2", received.get(2).getNewValue());
+	}
+
+	// the old value is read once for the event, publishing itself only copies references
+	public void testSubscriberCostsOneReadOfTheOldValue() throws Exception {
+		configuration.getString("g");
+		QueryBudget budget = database.budget().build();
+		budget.run(() -> configuration.setProperty("g", "unobserved"));
+		long unobserved = budget.getLastUsage().getStatements();
+		try (ChangeSubscription subscription = configuration.subscribe("", received::add)) {
+			configuration.getString("g");
+			database.budget().maxStatements(unobserved + 1).build().run(() -> configuration.setProperty("g", "observed"));
+			assertTrue(subscription.awaitDelivery(5, TimeUnit.SECONDS));
+		}
+
+		assertEquals("unobserved", received.get(0).getOldValue());
+	}
+}
@@ -0,0 +1,100 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.tree.ChildPage;
+import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+
+public class ChildPageTest extends ConfigurationTestCase {
+
+	private static final int CHILDREN = 25;
+
+	private DatabaseHierarchicalConfiguration configuration;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		StringBuilder xml = new StringBuilder("<config><list>");
+		for (int i = 0; i < CHILDREN; i++) {
+			xml.append(String.format("<item%02d>%d</item%02d>", i, i, i));
+		}
+
+		xml.append("</list></config>");
+		configuration = database.store("paging", xml.toString());
+		configuration.getString("list");
+	}
+
+	// the children of a page, reading one row past it to tell whether another page follows, then their attributes
+	public void testPageCostsTwoQueries() {
+		QueryBudget budget = database.budget().maxStatements(2).maxRows(11).build();
+		ChildPage first = budget.call(() -> configuration.getChildPage("list", null, 10));
+		assertEquals(10, first.getNodes().size());
+		assertTrue(first.hasMore());
+
+		ChildPage second = budget.call(() -> configuration.getChildPage("list", first.getContinuationToken(), 10));
+		assertEquals("item10", second.getNodes().get(0).getKey());
+
+		ChildPage last = budget.call(() -> configuration.getChildPage("list", second.getContinuationToken(), 10));
+		assertEquals(5, last.getNodes().size());
+		assertFalse(last.hasMore());
+		assertNull(last.getContinuationToken());
+	}
+
+	public void testIterationReturnsEveryChildInKeyOrder() {
+		List<String> keys = new ArrayList<>();
+		for (Iterator<DatabaseNode> children = configuration.iterateChildren("list", 7); children.hasNext();) {
+			keys.add(children.next().getKey());
+		}
+
+		assertEquals(CHILDREN, keys.size());
+		for (int i = 0; i < CHILDREN; i++) {
+			assertEquals(String.format("item%02d", i), keys.get(i));
+		}
+	}
+
+	public void testPageSizeMustBePositive() {
+		try {
+			configuration.getChildPage("list", null, 0);
+			fail("Read a page of 0 children");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	// siblings sharing a key are told apart by their uuid, pages break in the middle of a run of equal keys
+	public void testSameKeySiblingsSpanSeveralPages() {
+		StringBuilder xml = new StringBuilder("<config><list>");
+		for (int i = 0; i < CHILDREN; i++) {
+			xml.append("<dup>").append(i).append("</dup>");
+			if (i % 5 == 0) {
+				xml.append("<mark>").append(i).append("</mark>");
+			}
+		}
+
+		xml.append("</list></config>");
+		DatabaseHierarchicalConfiguration duplicates = database.store("duplicates", xml.toString());
+		Set<String> values = new HashSet<>();
+		List<String> keys = new ArrayList<>();
+		int pages = 0;
+		String token = null;
+		do {
+			ChildPage page = duplicates.getChildPage("list", token, 4);
+			for (DatabaseNode node : page.getNodes()) {
+				keys.add(node.getKey());
+				assertTrue(node.getKey() + "=" + node.getValue() + " returned twice", values.add(node.getKey() + "=" + node.getValue()));
+			}
+
+			token = page.getContinuationToken();
+			pages++;
+		} while (token != null);
+
+		assertEquals(CHILDREN + 5, values.size());
+		assertEquals(8, pages);
+		assertEquals("dup", keys.get(0));
+		assertEquals("mark", keys.get(CHILDREN));
+	}
+}
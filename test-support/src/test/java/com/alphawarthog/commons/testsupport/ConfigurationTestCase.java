@@ -0,0 +1,23 @@
+package com.alphawarthog.commons.testsupport;
+
+import junit.framework.TestCase;
+
+// a fresh embedded database per test
+public abstract class ConfigurationTestCase extends TestCase {
+
+	protected EmbeddedConfigurationDatabase database;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		database = createDatabase();
+	}
+
+	protected EmbeddedConfigurationDatabase createDatabase() {
+		return new EmbeddedConfigurationDatabase();
+	}
+
+	protected void tearDown() throws Exception {
+		database.close();
+		super.tearDown();
+	}
+}
@@ -0,0 +1,86 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration2.tree.ImmutableNode;
+import org.apache.commons.configuration2.tree.xpath.XPathExpressionEngine;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.tree.ImportReport;
+
+public class ImportTest extends ConfigurationTestCase {
+
+	private static final String SOURCE = "<config><a><b name='first'>one</b><b name='second'>two</b></a><g>shallow</g></config>";
+
+	private DatabaseHierarchicalConfiguration configuration;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		configuration = database.store("import", SOURCE);
+	}
+
+	private static ImmutableNode root(String xml) {
+		return EmbeddedConfigurationDatabase.parse(xml).getNodeModel().getNodeHandler().getRootNode();
+	}
+
+	// what the database holds, read by an instance of its own
+	private DatabaseHierarchicalConfiguration stored() {
+		return database.open("import", database.storageOptions().build());
+	}
+
+	// the stored tree is read one level at a time and nothing is written
+	public void testUnchangedImportOnlyReads() throws Exception {
+		ImmutableNode source = root(SOURCE);
+		QueryBudget budget = database.budget().maxStatements(4).build();
+		ImportReport report = budget.call(() -> configuration.importTree(source));
+		assertFalse(report.toString(), report.hasChanges());
+		assertEquals(0, report.getInsertedNodes());
+		assertEquals(0, report.getDeletedNodes());
+		for (String statement : budget.getLastUsage().getExecuted()) {
+			assertTrue(statement, statement.startsWith("select"));
+		}
+	}
+
+	// one write per difference, all of them in the transaction that read the stored tree
+	public void testChangedImportWritesDifferencesOnly() throws Exception {
+		ImmutableNode source = root("<config><a><b name='first'>one</b><b name='renamed'>two</b></a><g>changed</g><h>new</h></config>");
+		QueryBudget budget = database.budget().maxStatements(8).build();
+		ImportReport report = budget.call(() -> configuration.importTree(source));
+		assertEquals(1, budget.getLastUsage().getConnections());
+		assertEquals(Integer.valueOf(1), report.getChangeCounts().get(ImportReport.ChangeType.VALUE_CHANGED));
+		assertEquals(Integer.valueOf(1), report.getChangeCounts().get(ImportReport.ChangeType.ATTRIBUTE_CHANGED));
+		assertEquals(Integer.valueOf(1), report.getChangeCounts().get(ImportReport.ChangeType.NODE_ADDED));
+		assertEquals(1, report.getInsertedNodes());
+
+		DatabaseHierarchicalConfiguration stored = stored();
+		assertEquals("changed", stored.getString("g"));
+		assertEquals("renamed", stored.getString("a.b(1)[@name]"));
+		assertEquals("new", stored.getString("h"));
+	}
+
+	public void testImportRemovesMissingNodes() throws Exception {
+		ImportReport report = configuration.importTree(root("<config><g>shallow</g></config>"));
+		assertEquals(Integer.valueOf(1), report.getChangeCounts().get(ImportReport.ChangeType.NODE_REMOVED));
+		assertEquals(3, report.getDeletedNodes());
+
+		DatabaseHierarchicalConfiguration stored = stored();
+		assertFalse(stored.containsKey("a.b"));
+		assertEquals("shallow", stored.getString("g"));
+	}
+
+	// keys in the report address the changed nodes in the configuration's own syntax
+	public void testReportKeysUseExpressionEngine() {
+		configuration.setExpressionEngine(new XPathExpressionEngine());
+		ImportReport report = configuration.importTree(root("<config><a><b name='first'>one</b><b name='renamed'>two</b></a><g>changed</g></config>"));
+		List<String> keys = new ArrayList<>();
+		for (ImportReport.Change change : report.getChanges()) {
+			keys.add(change.getKey());
+			assertTrue(change.getKey(), configuration.containsKey(change.getKey()));
+		}
+
+		assertEquals(2, keys.size());
+		assertTrue(keys.toString(), keys.contains("a/b[2]/@name"));
+		assertTrue(keys.toString(), keys.contains("g"));
+	}
+}
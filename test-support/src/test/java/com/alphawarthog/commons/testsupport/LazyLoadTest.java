@@ -0,0 +1,64 @@
+package com.alphawarthog.commons.testsupport;
+
+import org.apache.commons.configuration2.tree.NodeHandler;
+import org.apache.commons.lang3.StringUtils;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+
+public class LazyLoadTest extends ConfigurationTestCase {
+
+	private static final String BIG = StringUtils.repeat("0123456789", 10);
+
+	private DatabaseHierarchicalConfiguration configuration;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		database.store("lazy", "<config><svc cert='" + BIG + "' name='small'><body>" + BIG + "</body><port>80</port></svc></config>");
+		configuration = database.open("lazy", database.storageOptions().lazyLoadThreshold(16).build());
+	}
+
+	private DatabaseNode node(String key) {
+		NodeHandler<DatabaseNode> handler = configuration.getNodeModel().getNodeHandler();
+		return configuration.resolveKey(handler.getRootNode(), key, handler).get(0).getNode();
+	}
+
+	public void testLongValueIsReadOnAccess() {
+		DatabaseNode body = node("svc.body");
+		assertFalse(body.isValueLoaded());
+		assertTrue(node("svc.port").isValueLoaded());
+		assertEquals(BIG, configuration.getString("svc.body"));
+		assertTrue(body.isValueLoaded());
+	}
+
+	// the names of all attributes are known, only the long value is left in the database
+	public void testLongAttributeIsReadOnAccess() {
+		DatabaseNode svc = node("svc");
+		assertEquals("small", svc.getAttributeValue("name"));
+		assertEquals(2, svc.getAttributeKeys().size());
+		assertEquals(BIG, configuration.getString("svc[@cert]"));
+		assertEquals(BIG, svc.getAttributes().get("cert"));
+	}
+
+	public void testDeferredValueSurvivesCopies() {
+		DatabaseNode body = node("svc.body");
+		assertEquals(BIG, body.toBuilder().build().getValue());
+		assertEquals(BIG, configuration.immutableConfigurationAt("svc").getString("body"));
+		assertEquals(BIG, configuration.immutableConfigurationAt("svc").getString("[@cert]"));
+	}
+
+	public void testDeferredValueIsOverwritten() {
+		configuration.setProperty("svc.body", "short");
+		configuration.setProperty("svc[@cert]", BIG + BIG);
+		assertEquals("short", configuration.getString("svc.body"));
+		DatabaseHierarchicalConfiguration reopened = database.open("lazy", database.storageOptions().lazyLoadThreshold(16).build());
+		assertEquals("short", reopened.getString("svc.body"));
+		assertEquals(BIG + BIG, reopened.getString("svc[@cert]"));
+	}
+
+	public void testNoThresholdReadsEverything() {
+		configuration = database.open("lazy", database.storageOptions().build());
+		assertTrue(node("svc.body").isValueLoaded());
+		assertTrue(node("svc").isAttributesLoaded());
+	}
+}
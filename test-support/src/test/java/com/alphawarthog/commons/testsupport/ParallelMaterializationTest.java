@@ -0,0 +1,63 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.util.TreeMap;
+
+import org.apache.commons.configuration2.ImmutableHierarchicalConfiguration;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+
+public class ParallelMaterializationTest extends ConfigurationTestCase {
+
+	private static final int SERVICES = 12;
+	private static final int ENTRIES = 8;
+
+	private DatabaseHierarchicalConfiguration sequential;
+	private DatabaseHierarchicalConfiguration parallel;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		StringBuilder xml = new StringBuilder("<config>");
+		for (int s = 0; s < SERVICES; s++) {
+			xml.append("<svc name='s").append(s).append("'>");
+			for (int e = 0; e < ENTRIES; e++) {
+				xml.append("<entry index='").append(e).append("'><value>").append(s).append('.').append(e).append("</value><empty/></entry>");
+			}
+
+			xml.append("</svc>");
+		}
+
+		xml.append("<g>shallow</g></config>");
+		sequential = database.store("parallel", xml.toString());
+		parallel = database.open("parallel", database.storageOptions().materializationParallelism(4).build());
+	}
+
+	// same nodes in the same order, whichever thread read them
+	public void testParallelTreeMatchesSequentialTree() {
+		assertEquals(describe(sequential.toImmutableNode()), describe(parallel.toImmutableNode()));
+		assertEquals(sequential.immutableConfigurationAt("svc(5)").getList("entry.value"), parallel.immutableConfigurationAt("svc(5)").getList("entry.value"));
+		assertEquals(SERVICES * ENTRIES, parallel.immutableConfigurationAt("").getList("svc.entry.value").size());
+	}
+
+	// workers have connections of their own, a batch's uncommitted writes are read on its thread
+	public void testBatchSeesItsOwnWrites() {
+		parallel.writeBatch(() -> {
+			parallel.setProperty("svc(3).entry(2).value", "batched");
+			parallel.addProperty("svc(3).extra", "added");
+			ImmutableHierarchicalConfiguration svc = parallel.immutableConfigurationAt("svc(3)");
+			assertEquals("batched", svc.getString("entry(2).value"));
+			assertEquals("added", svc.getString("extra"));
+		});
+		assertEquals("batched", parallel.immutableConfigurationAt("svc(3)").getString("entry(2).value"));
+		assertEquals(describe(parallel.toImmutableNode()), describe(database.open("parallel", database.storageOptions().build()).toImmutableNode()));
+	}
+
+	private static String describe(ImmutableNode node) {
+		StringBuilder result = new StringBuilder(node.getNodeName()).append(new TreeMap<>(node.getAttributes())).append('=').append(node.getValue()).append('(');
+		for (ImmutableNode child : node.getChildren()) {
+			result.append(describe(child));
+		}
+
+		return result.append(')').toString();
+	}
+}
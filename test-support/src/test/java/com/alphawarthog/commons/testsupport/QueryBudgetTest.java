@@ -0,0 +1,64 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.util.Iterator;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+
+import junit.framework.AssertionFailedError;
+
+public class QueryBudgetTest extends ConfigurationTestCase {
+
+	private static final String DEEP_KEY = "a.b.c.d.e";
+
+	private DatabaseHierarchicalConfiguration configuration;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		configuration = database.store("budget", "<config><a><b><c><d><e>deep</e><f>other</f></d></c></b></a><g>shallow</g></config>");
+	}
+
+	// the key is resolved one level at a time, each level reads its children with their attributes in one query
+	public void testColdLookupCostsOneQueryPerLevel() {
+		QueryBudget budget = database.budget().maxStatements(5).maxRows(10).build();
+		assertEquals("deep", budget.call(() -> configuration.getString(DEEP_KEY)));
+		assertEquals(5, budget.getLastUsage().getStatements());
+	}
+
+	public void testCachedLookupIssuesNoQueries() {
+		configuration.getString(DEEP_KEY);
+		assertEquals("deep", database.budget().maxStatements(0).build().call(() -> configuration.getString(DEEP_KEY)));
+	}
+
+	public void testOverBudgetFails() {
+		try {
+			database.budget().maxStatements(1).build().call(() -> configuration.getString(DEEP_KEY));
+			fail("Lookup within a budget of 1 statement");
+		} catch (AssertionFailedError e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Query budget of 1 statements and unlimited rows exceeded: 5 statements"));
+		}
+	}
+
+	// the key index materializes the tree once, one query per level, and answers from memory afterwards
+	public void testKeyIndexReadsTreeOnce() {
+		configuration.setKeyIndexEnabled(true);
+		QueryBudget budget = database.budget().maxStatements(6).build();
+		budget.run(() -> {
+			for (Iterator<String> keys = configuration.getKeys(); keys.hasNext();) {
+				keys.next();
+			}
+		});
+		assertEquals(3, database.budget().maxStatements(0).build().call(configuration::size).intValue());
+	}
+
+	// the key is resolved against current rows in a read of its own; the write bumps the revision of the tree, then
+	// updates the value
+	public void testWriteIsOneReadAndTwoUpdates() {
+		configuration.getString("g");
+		QueryBudget budget = database.budget().maxStatements(3).build();
+		budget.run(() -> configuration.setProperty("g", "changed"));
+		assertEquals(2, budget.getLastUsage().getConnections());
+		assertTrue(budget.getLastUsage().getExecuted().get(1).startsWith("update configuration_root"));
+		assertTrue(budget.getLastUsage().getExecuted().get(2).startsWith("update configuration set"));
+		assertEquals("changed", configuration.getString("g"));
+	}
+}
@@ -0,0 +1,70 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.sql.Connection;
+import java.time.Duration;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.reloading.DatabaseReloadingDetector;
+
+public class ReloadingDetectorTest extends ConfigurationTestCase {
+
+	private static final String SOURCE = "<config><a><b>1</b></a><g>shallow</g></config>";
+
+	private DatabaseHierarchicalConfiguration configuration;
+	private DatabaseReloadingDetector detector;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		configuration = database.store("reloading", SOURCE);
+		detector = new DatabaseReloadingDetector(database.getTransactionManager(), "reloading");
+	}
+
+	// revisions are tracked without being asked for once the schema has them
+	public void testWriteIsDetected() {
+		assertFalse(detector.isReloadingRequired());
+		configuration.setProperty("g", "changed");
+		assertTrue(detector.isReloadingRequired());
+		detector.reloadingPerformed();
+		assertFalse(detector.isReloadingRequired());
+	}
+
+	public void testWriteOfAnotherInstanceIsDetected() {
+		database.open("reloading", database.storageOptions().build()).addProperty("h", "new");
+		assertTrue(detector.isReloadingRequired());
+	}
+
+	// the revision checked counts as loaded, a write after the check is found by the next one
+	public void testWriteAfterCheckIsNotLost() {
+		configuration.setProperty("g", "first");
+		assertTrue(detector.isReloadingRequired());
+		configuration.setProperty("g", "second");
+		detector.reloadingPerformed();
+		assertTrue(detector.isReloadingRequired());
+	}
+
+	public void testUntrackedWritesAreNotDetected() {
+		DatabaseHierarchicalConfiguration untracked = database.open("reloading", database.storageOptions().trackRevisions(false).build());
+		untracked.setProperty("g", "changed");
+		assertFalse(detector.isReloadingRequired());
+	}
+
+	public void testRemovedConfigurationIsDetected() throws Exception {
+		try (Connection connection = database.getDataSource().getConnection()) {
+			connection.createStatement().execute("delete from configuration_root where configuration_name = 'reloading'");
+		}
+
+		assertTrue(detector.isReloadingRequired());
+	}
+
+	// with a check every read another instance's write is seen right away
+	public void testRevisionCheckRefreshesCaches() {
+		DatabaseHierarchicalConfiguration unchecked = database.open("reloading", database.storageOptions().build());
+		DatabaseHierarchicalConfiguration checked = database.open("reloading", database.storageOptions().build());
+		checked.setRevisionCheckInterval(Duration.ZERO);
+		assertEquals("shallow", unchecked.getString("g"));
+		assertEquals("shallow", checked.getString("g"));
+		configuration.setProperty("g", "changed");
+		assertEquals("shallow", unchecked.getString("g"));
+		assertEquals("changed", checked.getString("g"));
+	}
+}
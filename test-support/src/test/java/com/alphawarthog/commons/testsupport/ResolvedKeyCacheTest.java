@@ -0,0 +1,44 @@
+package com.alphawarthog.commons.testsupport;
+
+import org.apache.commons.configuration2.tree.xpath.XPathExpressionEngine;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+
+public class ResolvedKeyCacheTest extends ConfigurationTestCase {
+
+	private DatabaseHierarchicalConfiguration configuration;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		configuration = database.store("keys", "<config><a><b name='first'>one</b><b name='second'>two</b></a><g>shallow</g></config>");
+	}
+
+	// keys resolved to no node are cached as well, the node added later must be found
+	public void testAddedNodesAreResolved() {
+		assertNull(configuration.getString("a.b(2)"));
+		assertFalse(configuration.containsKey("h.i"));
+		configuration.addProperty("a.b", "zero");
+		configuration.addProperty("h.i", "new");
+		assertEquals("zero", configuration.getString("a.b(2)"));
+		assertEquals("new", configuration.getString("h.i"));
+	}
+
+	public void testRemovedNodesAreNotResolved() {
+		assertEquals("two", configuration.getString("a.b(1)"));
+		assertEquals("second", configuration.getString("a.b(1)[@name]"));
+		configuration.clearTree("a.b(0)");
+		assertEquals("two", configuration.getString("a.b(0)"));
+		assertNull(configuration.getString("a.b(1)"));
+		configuration.clearTree("a");
+		assertFalse(configuration.containsKey("a.b"));
+		assertNull(configuration.getString("a.b(0)[@name]"));
+	}
+
+	// the same key means another node under another expression engine
+	public void testEntriesAreKeptPerExpressionEngine() {
+		assertEquals("two", configuration.getString("a.b(1)"));
+		configuration.setExpressionEngine(new XPathExpressionEngine());
+		assertEquals("one", configuration.getString("a/b[1]"));
+		assertEquals("second", configuration.getString("a/b[2]/@name"));
+	}
+}
@@ -0,0 +1,69 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.snapshot.ConfigurationSnapshot;
+import com.alphawarthog.commons.configuration.snapshot.SnapshotConfiguration;
+
+public class SnapshotTest extends ConfigurationTestCase {
+
+	private DatabaseHierarchicalConfiguration configuration;
+	private File snapshotFile;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		configuration = database.store("snapshot", "<config><a><b name='first'>one</b><b name='second'>two</b></a><g>shallow</g></config>");
+		snapshotFile = File.createTempFile("snapshot", ".bin");
+	}
+
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(snapshotFile.toPath());
+		super.tearDown();
+	}
+
+	// lookups on the snapshot never reach the database, they work with it gone
+	public void testSnapshotReadsWithoutDatabase() throws Exception {
+		configuration.writeSnapshot(snapshotFile.toPath());
+		database.close();
+		SnapshotConfiguration snapshot = new SnapshotConfiguration(ConfigurationSnapshot.open(snapshotFile.toPath()));
+		assertEquals("two", snapshot.getString("a.b(1)"));
+		assertEquals("second", snapshot.getString("a.b(1)[@name]"));
+		assertEquals(Arrays.asList("one", "two"), snapshot.getList(String.class, "a.b"));
+		assertEquals("shallow", snapshot.getString("g"));
+		assertNull(snapshot.getString("missing"));
+	}
+
+	public void testSnapshotMatchesDatabase() {
+		configuration.writeSnapshot(snapshotFile.toPath());
+		ConfigurationSnapshot snapshot = ConfigurationSnapshot.open(snapshotFile.toPath());
+		assertEquals(5, snapshot.getNodeCount());
+		assertEquals(configuration.size(), new SnapshotConfiguration(snapshot).size());
+	}
+
+	public void testForeignFileIsRejectedOnOpen() throws Exception {
+		Files.write(snapshotFile.toPath(), "<config/>".getBytes("UTF-8"));
+		try {
+			ConfigurationSnapshot.open(snapshotFile.toPath());
+			fail("Opened a file that is not a snapshot");
+		} catch (ConfigurationRuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().endsWith("is not a configuration snapshot"));
+		}
+	}
+
+	public void testTruncatedSnapshotIsRejectedOnOpen() throws Exception {
+		configuration.writeSnapshot(snapshotFile.toPath());
+		byte[] content = Files.readAllBytes(snapshotFile.toPath());
+		Files.write(snapshotFile.toPath(), Arrays.copyOf(content, content.length - 8));
+		try {
+			ConfigurationSnapshot.open(snapshotFile.toPath());
+			fail("Opened a truncated snapshot");
+		} catch (ConfigurationRuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Snapshot " + snapshotFile.toPath()));
+		}
+	}
+}
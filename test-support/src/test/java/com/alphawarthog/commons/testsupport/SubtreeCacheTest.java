@@ -0,0 +1,57 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.util.List;
+
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.ImmutableHierarchicalConfiguration;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.tree.DatabaseNode;
+
+public class SubtreeCacheTest extends ConfigurationTestCase {
+
+	private DatabaseHierarchicalConfiguration configuration;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		configuration = database.store("subtrees", "<config><a><b name='first'>one</b><b name='second'>two</b><c><d>deep</d></c></a><g>shallow</g></config>");
+	}
+
+	// a copy handed out keeps what it was given, the next one sees the write
+	public void testWriteBelowSubtreeIsSeen() {
+		ImmutableHierarchicalConfiguration before = configuration.immutableConfigurationAt("a");
+		assertEquals("deep", before.getString("c.d"));
+		configuration.setProperty("a.c.d", "changed");
+		configuration.setProperty("a.b(0)[@name]", "renamed");
+		ImmutableHierarchicalConfiguration after = configuration.immutableConfigurationAt("a");
+		assertEquals("deep", before.getString("c.d"));
+		assertEquals("changed", after.getString("c.d"));
+		assertEquals("renamed", after.getString("b(0)[@name]"));
+	}
+
+	public void testAddedAndRemovedNodesAreSeen() {
+		assertEquals(2, configuration.immutableConfigurationAt("a").getList("b").size());
+		configuration.addProperty("a.b", "three");
+		assertEquals(3, configuration.immutableConfigurationAt("a").getList("b").size());
+		configuration.clearTree("a.c");
+		assertFalse(configuration.immutableConfigurationAt("a").containsKey("c.d"));
+		assertEquals(3, configuration.immutableChildConfigurationsAt("a").size());
+	}
+
+	public void testWriteThroughViewIsSeen() {
+		assertEquals("deep", configuration.immutableConfigurationAt("a.c").getString("d"));
+		HierarchicalConfiguration<DatabaseNode> view = configuration.configurationAt("a.c", true);
+		view.setProperty("d", "from view");
+		assertEquals("from view", configuration.immutableConfigurationAt("a.c").getString("d"));
+		assertEquals("from view", configuration.immutableConfigurationAt("a").getString("c.d"));
+	}
+
+	public void testWriteOutsideSubtreeKeepsIt() {
+		List<ImmutableHierarchicalConfiguration> before = configuration.immutableConfigurationsAt("a.b");
+		configuration.setProperty("g", "changed");
+		List<ImmutableHierarchicalConfiguration> after = configuration.immutableConfigurationsAt("a.b");
+		assertEquals(2, after.size());
+		assertEquals(before.get(1).getString("[@name]"), after.get(1).getString("[@name]"));
+		assertEquals("changed", configuration.immutableConfigurationAt("g").getString(""));
+	}
+}
@@ -0,0 +1,74 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.UUID;
+
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.schema.ConfigurationSchema;
+import com.alphawarthog.commons.configuration.tree.UuidStorage;
+
+import junit.framework.TestCase;
+
+public class UuidStorageTest extends TestCase {
+
+	private static final String SOURCE = "<config><a><b name='first'>one</b><b name='second'>two</b></a><g>shallow</g></config>";
+
+	public void testStringStorage() throws Exception {
+		checkStorage(UuidStorage.STRING, String.class);
+	}
+
+	public void testBinaryStorage() throws Exception {
+		checkStorage(UuidStorage.BINARY, byte[].class);
+	}
+
+	public void testNativeStorage() throws Exception {
+		checkStorage(UuidStorage.NATIVE, UUID.class);
+	}
+
+	// written, read back by name and updated through the columns the storage creates
+	private static void checkStorage(UuidStorage uuidStorage, Class<?> columnType) throws Exception {
+		try (EmbeddedConfigurationDatabase database = new EmbeddedConfigurationDatabase(uuidStorage)) {
+			database.store("uuids", SOURCE);
+			DatabaseHierarchicalConfiguration configuration = database.open("uuids", database.storageOptions().build());
+			assertEquals("second", configuration.getString("a.b(1)[@name]"));
+			configuration.setProperty("a.b(1)", "zwei");
+			configuration.addProperty("h", "new");
+			configuration.clearTree("g");
+
+			DatabaseHierarchicalConfiguration reopened = database.open("uuids", database.storageOptions().build());
+			assertEquals("zwei", reopened.getString("a.b(1)"));
+			assertEquals("new", reopened.getString("h"));
+			assertFalse(reopened.containsKey("g"));
+
+			try (Connection connection = database.getDataSource().getConnection();
+			     ResultSet rs = connection.createStatement().executeQuery("select uuid, parent_uuid from configuration where key = 'h'")) {
+				assertTrue(rs.next());
+				assertTrue(columnType.isInstance(rs.getObject("uuid")));
+				assertTrue(columnType.isInstance(rs.getObject("parent_uuid")));
+			}
+		}
+	}
+
+	// the installed columns decide, a schema configured for another storage is refused before anything is written
+	public void testMismatchedStorageIsRefused() throws Exception {
+		try (EmbeddedConfigurationDatabase database = new EmbeddedConfigurationDatabase(UuidStorage.BINARY)) {
+			ConfigurationSchema schema = new ConfigurationSchema(database.getTransactionManager(), UuidStorage.STRING);
+			try {
+				schema.verify();
+				fail("Verified string uuids against binary columns");
+			} catch (ConfigurationRuntimeException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("holds BINARY uuids but STRING is configured"));
+			}
+
+			try {
+				schema.install();
+				fail("Installed string uuids over binary columns");
+			} catch (ConfigurationRuntimeException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("holds BINARY uuids but STRING is configured"));
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+
+public class ValueCacheTest extends ConfigurationTestCase {
+
+	private DatabaseHierarchicalConfiguration configuration;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		configuration = database.store("values", "<config><n>5</n><flag>true</flag><list>a</list><list>b</list><sys>${sys:valuecachetest}</sys></config>");
+	}
+
+	// primitive classes share the entries of their wrappers
+	public void testPrimitiveTypes() {
+		assertEquals(Integer.valueOf(5), configuration.get(Integer.class, "n"));
+		assertEquals(Integer.valueOf(5), configuration.get(int.class, "n"));
+		assertEquals(5, configuration.getInt("n"));
+		assertEquals(Boolean.TRUE, configuration.get(boolean.class, "flag", false));
+		assertEquals(Boolean.FALSE, configuration.get(boolean.class, "missing", false));
+		assertEquals(5L, configuration.getLong("n"));
+		assertEquals("5", configuration.getString("n"));
+	}
+
+	public void testMissingKeys() {
+		assertNull(configuration.getString("missing"));
+		assertEquals("fallback", configuration.getString("missing", "fallback"));
+		assertEquals(3, configuration.getInt("missing", 3));
+		assertTrue(configuration.getList("missing").isEmpty());
+		try {
+			configuration.getInt("missing");
+			fail("Read an int from a missing key");
+		} catch (NoSuchElementException e) {
+			// expected
+		}
+	}
+
+	public void testWritesInvalidateCachedValues() {
+		assertEquals(5, configuration.getInt("n"));
+		assertEquals(Arrays.asList("a", "b"), configuration.getList(String.class, "list"));
+		configuration.setProperty("n", 6);
+		configuration.addProperty("list", "c");
+		assertEquals(6, configuration.getInt("n"));
+		assertEquals(Arrays.asList("a", "b", "c"), configuration.getList(String.class, "list"));
+
+		configuration.clearProperty("n");
+		assertEquals(-1, configuration.getInt("n", -1));
+	}
+
+	// values interpolated from outside the configuration are cached too, unless the cache is off
+	public void testDisabledCacheInterpolatesEveryRead() {
+		System.setProperty("valuecachetest", "first");
+		try {
+			assertEquals("first", configuration.getString("sys"));
+			System.setProperty("valuecachetest", "second");
+			assertEquals("first", configuration.getString("sys"));
+			configuration.setValueCacheEnabled(false);
+			assertEquals("second", configuration.getString("sys"));
+		} finally {
+			System.clearProperty("valuecachetest");
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.util.function.Supplier;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.tree.ConfigurationConflictException;
+import com.alphawarthog.commons.configuration.tree.DatabaseNodeModel;
+import com.alphawarthog.commons.configuration.tree.StorageOptions;
+
+public class VersionedWriteTest extends ConfigurationTestCase {
+
+	private DatabaseHierarchicalConfiguration configuration;
+	// the same tree in another process
+	private DatabaseHierarchicalConfiguration other;
+	private StorageOptions options;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		options = database.storageOptions().versioned(true).build();
+		configuration = database.store("versioned", "<config><a><b>1</b></a><g>shallow</g></config>", options);
+		other = database.open("versioned", options);
+	}
+
+	// what a configuration opened after the writes reads
+	private DatabaseHierarchicalConfiguration reopen() {
+		return database.open("versioned", options);
+	}
+
+	// the nodes read first stay in use until the write, as they would between two statements of a slow writer
+	private <T> T withNodesReadBefore(String key, Runnable change, Supplier<T> write) {
+		return ((DatabaseNodeModel) configuration.getNodeModel()).withChildrenMemo(() -> {
+			configuration.getProperty(key);
+			change.run();
+			return write.get();
+		});
+	}
+
+	public void testStaleWriteConflicts() {
+		try {
+			withNodesReadBefore("a.b", () -> other.setProperty("a.b", "2"), () -> {
+				configuration.setProperty("a.b", "3");
+				return null;
+			});
+			fail("Overwrote a value changed since it was read");
+		} catch (ConfigurationConflictException e) {
+			// expected
+		}
+
+		assertEquals("2", reopen().getString("a.b"));
+	}
+
+	public void testCompareAndSet() {
+		assertFalse(configuration.compareAndSetProperty("a.b", "0", "2"));
+		assertTrue(configuration.compareAndSetProperty("a.b", "1", "2"));
+		assertEquals("2", other.getString("a.b"));
+	}
+
+	// the value matched when it was read, the version no longer did when it was written
+	public void testCompareAndSetConflictIsAMismatch() {
+		assertFalse(withNodesReadBefore("a.b", () -> other.setProperty("a.b", "2"), () -> configuration.compareAndSetProperty("a.b", "1", "3")));
+		DatabaseHierarchicalConfiguration current = reopen();
+		assertEquals("2", current.getString("a.b"));
+		assertTrue(current.compareAndSetProperty("a.b", "2", "3"));
+	}
+
+	// a batch cannot commit without one of its writes, the conflict rolls back the edits before it
+	public void testCompareAndSetConflictFailsBatch() {
+		try {
+			withNodesReadBefore("a.b", () -> other.setProperty("a.b", "2"), () -> {
+				configuration.writeBatch(() -> {
+					configuration.setProperty("g", "batched");
+					configuration.compareAndSetProperty("a.b", "1", "3");
+					configuration.addProperty("h", "after");
+				});
+				return null;
+			});
+			fail("Batch committed without its compare and set");
+		} catch (ConfigurationConflictException e) {
+			// expected
+		}
+
+		DatabaseHierarchicalConfiguration current = reopen();
+		assertEquals("shallow", current.getString("g"));
+		assertEquals("2", current.getString("a.b"));
+		assertFalse(current.containsKey("h"));
+	}
+}
@@ -0,0 +1,94 @@
+package com.alphawarthog.commons.testsupport;
+
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration2.ex.ConfigurationRuntimeException;
+
+import com.alphawarthog.commons.configuration.DatabaseHierarchicalConfiguration;
+import com.alphawarthog.commons.configuration.WriteBehindConfiguration;
+
+public class WriteBehindTest extends ConfigurationTestCase {
+
+	private DatabaseHierarchicalConfiguration target;
+	private List<ConfigurationRuntimeException> failures;
+	private WriteBehindConfiguration writeBehind;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		target = database.store("writebehind", "<config><a>1</a><b>2</b></config>");
+		failures = new ArrayList<>();
+		// no scheduled flushes, batches are written on flush() or once three edits are pending
+		writeBehind = new WriteBehindConfiguration.Builder(target).maxPendingEdits(3)
+		                                                         .flushInterval(Duration.ZERO)
+		                                                         .failureHandler(failures::add)
+		                                                         .build();
+	}
+
+	// what the database holds, read by an instance of its own
+	private DatabaseHierarchicalConfiguration stored() {
+		return database.open("writebehind", database.storageOptions().build());
+	}
+
+	public void testEditsIssueNoQueriesUntilFlushed() {
+		QueryBudget budget = database.budget().maxStatements(0).build();
+		budget.run(() -> {
+			writeBehind.setProperty("a", "changed");
+			writeBehind.addProperty("c", "3");
+		});
+		assertEquals("changed", writeBehind.getString("a"));
+		assertEquals(2, writeBehind.getPendingEditCount());
+	}
+
+	public void testBatchIsOneTransaction() {
+		writeBehind.setProperty("a", "changed");
+		writeBehind.addProperty("c", "3");
+		QueryBudget budget = database.budget().build();
+		budget.run(writeBehind::flush);
+		assertEquals(1, budget.getLastUsage().getConnections());
+		assertEquals(0, writeBehind.getPendingEditCount());
+		DatabaseHierarchicalConfiguration stored = stored();
+		assertEquals("changed", stored.getString("a"));
+		assertEquals("3", stored.getString("c"));
+	}
+
+	public void testFullQueueIsFlushed() {
+		writeBehind.setProperty("a", "x");
+		writeBehind.setProperty("b", "y");
+		writeBehind.addProperty("c", "z");
+		assertEquals(0, writeBehind.getPendingEditCount());
+		assertEquals("z", stored().getString("c"));
+	}
+
+	// the batch is rolled back, reported and thrown; the in-memory copy goes back to what the database holds and
+	// later edits are written as usual
+	public void testFailedBatchIsRolledBackAndReported() throws Exception {
+		writeBehind.setProperty("a", "lost");
+		renameConfigurationTable("configuration", "configuration_away");
+		try {
+			writeBehind.flush();
+			fail("Flushed to a missing table");
+		} catch (ConfigurationRuntimeException e) {
+			assertEquals(1, failures.size());
+			assertSame(failures.get(0), e);
+		} finally {
+			renameConfigurationTable("configuration_away", "configuration");
+		}
+
+		assertEquals(0, writeBehind.getPendingEditCount());
+		assertEquals("1", writeBehind.getString("a"));
+		writeBehind.addProperty("c", "3");
+		writeBehind.flush();
+		DatabaseHierarchicalConfiguration stored = stored();
+		assertEquals("1", stored.getString("a"));
+		assertEquals("3", stored.getString("c"));
+	}
+
+	private void renameConfigurationTable(String from, String to) throws Exception {
+		try (Connection connection = database.getDataSource().getConnection()) {
+			connection.createStatement().execute("alter table " + from + " rename to " + to);
+		}
+	}
+}